@@ -0,0 +1,97 @@
+package s340;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import s340.hardware.Machine;
+import s340.hardware.MachineConfiguration;
+import s340.software.OperatingSystem;
+
+/*
+ * Runs an experiment on many machines at once, for parameter sweeps. Each
+ * run gets a machine and operating system of its own, built from its own
+ * configuration, and powered down when the experiment returns.
+ *
+ * A run holds a thread of the harness's pool for as long as it lasts, so
+ * the pool size is how many machines run at once.
+ */
+
+public class Harness {
+
+	/*
+	 * What is done on each machine -- scheduling programs, waiting for their
+	 * jobs to end, and working out a result from the operating system's
+	 * counters, for example.
+	 */
+
+	public interface Experiment<R> {
+		R run(int index, Machine machine, OperatingSystem os) throws Exception;
+	}
+
+	private final ExecutorService pool;
+
+	public Harness(int threads) {
+		pool = Executors.newFixedThreadPool(threads);
+	}
+
+	/*
+	 * Standard machines, each keeping its disks in a directory of its own
+	 * under the given one, with a single device thread each since there are
+	 * many machines to share the cores.
+	 */
+
+	public static List<MachineConfiguration> configurations(int count, Path directory) {
+		List<MachineConfiguration> configurations = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			configurations.add(
+					MachineConfiguration.standard().deviceThreads(1).directory(directory.resolve("machine-" + i)));
+		}
+		return configurations;
+	}
+
+	/*
+	 * Run the experiment once on a machine of each configuration, and wait
+	 * for every run to finish.
+	 *
+	 * @return the results, in the order of the configurations.
+	 * @throws ExecutionException -- for the first run, in that order, that
+	 * failed.
+	 */
+
+	public <R> List<R> run(List<MachineConfiguration> configurations, Experiment<R> experiment)
+			throws InterruptedException, ExecutionException {
+		List<Future<R>> runs = new ArrayList<>();
+		for (int i = 0; i < configurations.size(); i++) {
+			int index = i;
+			MachineConfiguration configuration = configurations.get(i);
+			runs.add(pool.submit(() -> runOne(index, configuration, experiment)));
+		}
+		List<R> results = new ArrayList<>();
+		for (Future<R> run : runs) {
+			results.add(run.get());
+		}
+		return results;
+	}
+
+	private static <R> R runOne(int index, MachineConfiguration configuration, Experiment<R> experiment)
+			throws Exception {
+		Machine machine = new Machine(configuration);
+		OperatingSystem os = new OperatingSystem(machine);
+		machine.powerUp(os);
+		try {
+			return experiment.run(index, machine, os);
+		} finally {
+			machine.powerDown();
+			os.log.close();
+		}
+	}
+
+	public void shutdown() {
+		pool.shutdown();
+	}
+}
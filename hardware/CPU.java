@@ -1,11 +1,14 @@
 package s340.hardware;
 
+import java.io.InputStream;
+import java.io.PrintStream;
 import java.util.Scanner;
 
 import s340.hardware.exception.DecodingFault;
 import s340.hardware.exception.PCException;
 import s340.hardware.exception.OpcodeException;
 import s340.hardware.exception.MemoryFault;
+import s340.hardware.exception.PageFault;
 
 /*
  * The S340 CPU.
@@ -13,7 +16,7 @@ import s340.hardware.exception.MemoryFault;
 
 public class CPU implements Runnable
 {
-	// instructions per interrupt
+	// instructions per interrupt, unless the operating system sets another quantum
 
 	public final static int INSTRUCTIONS_PER_INTERRUPT = 4;
 
@@ -41,23 +44,44 @@ public class CPU implements Runnable
 	public Mode mode;
 	public int instructionCount;
 
+	// the address whose page was missing at the last page fault
+
+	public int faultAddress;
+
+	// instructions to run before the next timer trap, and instructions run since power up
+
+	private int quantum = INSTRUCTIONS_PER_INTERRUPT;
+	private long totalInstructions;
+
 	// do not mess with this
 
 	public boolean runProg = false;
 
-	// for input from the keyboard
+	// set to stop the CPU for good when the machine is powered down
+
+	private volatile boolean halted;
+
+	// for input from the keyboard, and output to the screen
 
 	private final Scanner input;
+	private final PrintStream output;
 
 	/*
 	 * Create the CPU "connected to" the relevant hardware
 	 */
 
 	public CPU(InterruptRegisters interruptRegisters, IMemoryController memory)
+	{
+		this(interruptRegisters, memory, System.in, System.out);
+	}
+
+	public CPU(InterruptRegisters interruptRegisters, IMemoryController memory, InputStream input,
+			PrintStream output)
 	{
 		this.interruptRegisters = interruptRegisters;
 		this.memory = memory;
-		input = new Scanner(System.in);
+		this.input = new Scanner(input);
+		this.output = output;
 	}
 
 	/*
@@ -77,6 +101,15 @@ public class CPU implements Runnable
 		instructionCount = 0;
 	}
 
+	/*
+	 * Stop the CPU after the instruction it is running.
+	 */
+
+	public void halt()
+	{
+		halted = true;
+	}
+
 	/*
 	 * Set the program counter.
 	 */
@@ -86,12 +119,85 @@ public class CPU implements Runnable
 		this.pc = pc;
 	}
 
+	public int getPc()
+	{
+		return pc;
+	}
+
+	/*
+	 * Save the registers of the program that was running, which stopped at
+	 * savedPc, into the given state.
+	 */
+
+	public void saveState(RegisterState state, int savedPc)
+	{
+		state.acc = acc;
+		state.x = x;
+		state.pc = savedPc;
+	}
+
+	/*
+	 * Switch to the program whose registers are in the given state.
+	 */
+
+	public void loadState(RegisterState state)
+	{
+		acc = state.acc;
+		x = state.x;
+		pc = state.pc;
+		memory.relocate(state.base, state.limit);
+		memory.setPresent(state.present);
+	}
+
+	/*
+	 * Start a new time slice of the given number of instructions.
+	 */
+
+	public void setQuantum(int quantum)
+	{
+		if (quantum <= 0)
+		{
+			throw new IllegalArgumentException("Bad quantum : " + quantum);
+		}
+		this.quantum = quantum;
+		instructionCount = 0;
+	}
+
+	public int getQuantum()
+	{
+		return quantum;
+	}
+
+	/*
+	 * The number of instructions executed since the machine was powered up.
+	 */
+
+	public long getTotalInstructions()
+	{
+		return totalInstructions;
+	}
+
+	/*
+	 * Carry on counting from where a machine restored from a snapshot had got
+	 * to, so that clocks kept in instructions agree with it.
+	 */
+
+	public void setTotalInstructions(long totalInstructions)
+	{
+		this.totalInstructions = totalInstructions;
+	}
+
 	/*
 	 * Poll the hardware for interrupts.
 	 */
 
 	private void pollForInterrupts()
 	{
+		if (!interruptRegisters.pending)
+		{
+			return;
+		}
+		interruptRegisters.pending = false;
 		for (int i = 0; i < interruptRegisters.register.length; i++)
 		{
 			if (interruptRegisters.register[i])
@@ -112,8 +218,8 @@ public class CPU implements Runnable
 			throw new PCException(pc);
 		}
 
-		opcode = memory.load(pc++);
-		operand = memory.load(pc++);
+		opcode = memory.fetch(pc++);
+		operand = memory.fetch(pc++);
 	}
 
 	/*
@@ -229,11 +335,11 @@ public class CPU implements Runnable
 				trap(Trap.END);
 				break;
 			case Opcode.INPUT:
-				System.out.println("Input value : ");
+				output.println("Input value : ");
 				acc = input.nextInt();
 				break;
 			case Opcode.OUTPUT:
-				System.out.println("Output = " + acc);
+				output.println("Output = " + acc);
 				break;
 			default:
 				throw new OpcodeException(opcode);
@@ -246,7 +352,7 @@ public class CPU implements Runnable
 		try
 		{
 			instructionCount = 0;
-			while (true)
+			while (!halted)
 			{
 				if (!runProg)
 				{
@@ -255,13 +361,27 @@ public class CPU implements Runnable
 				}
 
 				pollForInterrupts();
-				
-				fetch();
+
+				// an instruction whose page is missing is run again once the
+				// operating system has brought the page in
+				int instructionPc = pc;
+				try
+				{
+					fetch();
+				}
+				catch (PageFault ex)
+				{
+					pc = instructionPc;
+					faultAddress = ex.getAddress();
+					trap(Trap.PAGE_FAULT);
+					continue;
+				}
 				decode();
 				//System.out.println(Opcode.toString(pc - 2, opcode, operand) + "   ->   " + pc + ", " + acc + ", " + x);
 
 				instructionCount++;
-				if (instructionCount == INSTRUCTIONS_PER_INTERRUPT)
+				totalInstructions++;
+				if (instructionCount >= quantum)
 				{
 					instructionCount = 0;
 					trap(Trap.TIMER);
@@ -1,10 +1,12 @@
 package s340.hardware;
 
+import java.util.List;
+
 /*
  * Base class for I/O devices.
  */
 
-public abstract class Device implements Runnable
+public abstract class Device
 {
 
 	//	the device number of this device
@@ -23,6 +25,14 @@ public abstract class Device implements Runnable
 
 	public DeviceControlRegister controlRegister;
 
+	//	physical memory, for devices that transfer to and from it directly
+
+	public IDirectMemoryAccess memory;
+
+	//	how many tagged commands the device works on at once
+
+	public int queueDepth = 1;
+
 	public Device(int deviceNumber, InterruptRegisters interruptRegisters, DeviceControlRegister controlRegister,
 			int[] buffer)
 	{
@@ -38,26 +48,89 @@ public abstract class Device implements Runnable
 		this(deviceNumber, interruptRegisters, controlRegisters, null);
 	}
 
-	public abstract void doOperation() throws Exception;
+	/*
+	 * Carry out the operation described by a set of control registers --
+	 * either the device's own, or those of a tagged command.
+	 */
+
+	public abstract void doOperation(int[] register) throws Exception;
+
+	public void doOperation() throws Exception
+	{
+		doOperation(controlRegister.register);
+	}
+
+	/*
+	 * Choose which of the waiting commands to work on next. Devices that can
+	 * do better than first come, first served override this.
+	 */
+
+	protected DeviceCommand chooseCommand(List<DeviceCommand> commands)
+	{
+		return commands.get(0);
+	}
+
+	/*
+	 * Take the next waiting command, or null if there is none.
+	 */
+
+	private DeviceCommand takeCommand()
+	{
+		synchronized (controlRegister.commands)
+		{
+			if (controlRegister.commands.isEmpty())
+			{
+				return null;
+			}
+			DeviceCommand command = chooseCommand(controlRegister.commands);
+			controlRegister.commands.remove(command);
+			return command;
+		}
+	}
+
+	/*
+	 * Carry out one operation the device has been signalled to start, if
+	 * another service task has not already taken it.
+	 */
 
-	@Override
-	public void run()
+	public void service()
 	{
-		while (true)
+		if (!controlRegister.startOperation.tryAcquire())
+		{
+			return;
+		}
+		//	process the operation, or the next tagged command. A tagged command
+		//	comes back whether or not it worked, so that whoever is waiting
+		//	for it hears one way or the other.
+		DeviceCommand command = takeCommand();
+		try
 		{
-			try
+			if (command == null)
 			{
-				//	wait for a start operation signal
-				controlRegister.startOperation.acquire();
-				//	process the operation
 				doOperation();
-				//	inform the CPU that we have finished the operation
-				interruptRegisters.register[deviceNumber] = true;
 			}
-			catch (Exception ex)
+			else
+			{
+				doOperation(command.register);
+			}
+		}
+		catch (Exception ex)
+		{
+			//	the operating system reports the failed command when it
+			//	completes it
+			if (command != null)
+			{
+				command.failed = true;
+			}
+		}
+		finally
+		{
+			if (command != null)
 			{
-				ex.printStackTrace(System.err);
+				controlRegister.completed.add(command);
 			}
 		}
+		//	inform the CPU that we have finished the operation
+		interruptRegisters.raise(deviceNumber);
 	}
 }
@@ -0,0 +1,29 @@
+package s340.hardware;
+
+/*
+ * A command queued on a device that accepts several at once. The tag comes
+ * back with the command when the device has finished it, so the operating
+ * system can tell which of its outstanding commands completed.
+ */
+
+public class DeviceCommand
+{
+
+	//	the operating system's name for this command
+
+	public final int tag;
+
+	//	the command's own copy of the control registers
+
+	public final int[] register;
+
+	//	set by the device if it could not carry the command out
+
+	public volatile boolean failed;
+
+	public DeviceCommand(int tag, int[] register)
+	{
+		this.tag = tag;
+		this.register = register;
+	}
+}
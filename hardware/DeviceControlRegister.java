@@ -1,9 +1,16 @@
 package s340.hardware;
 
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Semaphore;
 
 /*
  * An I/O device control register.
+ *
+ * Besides the single set of registers started with startOperation(), a device
+ * can be handed tagged commands, each with its own registers. The device works
+ * on as many of them at once as its queue depth allows, in whatever order it
+ * likes, and reports each one in completed before raising its interrupt.
  */
 
 public class DeviceControlRegister
@@ -12,14 +19,54 @@ public class DeviceControlRegister
 	public int[] register;
 	public final Semaphore startOperation;
 
+	//	commands waiting for the device, and commands it has finished
+
+	public final LinkedList<DeviceCommand> commands;
+	public final ConcurrentLinkedQueue<DeviceCommand> completed;
+
+	//	told each time the device is given something to do
+
+	private volatile Runnable listener;
+
 	public DeviceControlRegister(int n)
 	{
 		register = new int[n];
 		startOperation = new Semaphore(0);
+		commands = new LinkedList<>();
+		completed = new ConcurrentLinkedQueue<>();
+	}
+
+	public void setListener(Runnable listener)
+	{
+		this.listener = listener;
 	}
 
 	public void startOperation()
 	{
 		startOperation.release();
+		signal();
+	}
+
+	/*
+	 * Queue a tagged command for the device.
+	 */
+
+	public void submit(DeviceCommand command)
+	{
+		synchronized (commands)
+		{
+			commands.add(command);
+		}
+		startOperation.release();
+		signal();
+	}
+
+	private void signal()
+	{
+		Runnable listener = this.listener;
+		if (listener != null)
+		{
+			listener.run();
+		}
 	}
 }
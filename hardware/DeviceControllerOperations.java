@@ -8,4 +8,19 @@ public class DeviceControllerOperations
 {
 	public final static int READ = 0;
 	public final static int WRITE = 1;
+
+	/*
+	 * Scatter-gather operations move a list of segments straight between the
+	 * device and physical memory, without the buffer. Register[1] holds the
+	 * number of segments and each segment takes SEGMENT_SIZE registers from
+	 * register[SEGMENTS] on -- platter, platter start, length and physical
+	 * memory address.
+	 */
+
+	public final static int READ_SCATTER = 2;
+	public final static int WRITE_GATHER = 3;
+
+	public final static int SEGMENT_COUNT = 1;
+	public final static int SEGMENTS = 2;
+	public final static int SEGMENT_SIZE = 4;
 }
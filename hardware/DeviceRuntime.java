@@ -0,0 +1,55 @@
+package s340.hardware;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Runs the devices of a machine on a small pool of shared threads.
+ *
+ * A device has no thread of its own. Each time the CPU starts an operation or
+ * queues a command on a device, one service task for that device is handed
+ * to the pool, so hundreds of devices cost no more threads than a few.
+ */
+
+public class DeviceRuntime
+{
+
+	private final ExecutorService executor;
+
+	public DeviceRuntime(int threads)
+	{
+		AtomicInteger count = new AtomicInteger();
+		executor = Executors.newFixedThreadPool(threads, r -> {
+			Thread thread = new Thread(r, "device-" + count.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/*
+	 * Start servicing the given devices, including any operations started
+	 * before now.
+	 */
+
+	public void start(Device[] devices)
+	{
+		for (Device device : devices)
+		{
+			device.controlRegister.setListener(() -> executor.execute(device::service));
+			for (int i = device.controlRegister.startOperation.availablePermits(); i > 0; i--)
+			{
+				executor.execute(device::service);
+			}
+		}
+	}
+
+	/*
+	 * Stop taking work, letting the threads finish what they have.
+	 */
+
+	public void shutdown()
+	{
+		executor.shutdown();
+	}
+}
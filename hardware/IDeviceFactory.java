@@ -0,0 +1,12 @@
+package s340.hardware;
+
+/*
+ * Creates a device for a machine, given the device number it is attached at
+ * and the registers it talks to the CPU through.
+ */
+
+public interface IDeviceFactory
+{
+	public Device create(int deviceNumber, InterruptRegisters interruptRegisters,
+			DeviceControlRegister controlRegister) throws Exception;
+}
@@ -0,0 +1,16 @@
+package s340.hardware;
+
+/*
+ * Direct memory access -- lets a device move words between physical memory
+ * and its own storage without going through the CPU. Addresses are physical,
+ * not relative to the base register.
+ */
+
+public interface IDirectMemoryAccess
+{
+
+	void readPhysical(int physicalAddress, int[] into, int offset, int length);
+
+	void writePhysical(int physicalAddress, int[] from, int offset, int length);
+
+}
@@ -13,4 +13,23 @@ public interface IMemoryController
 
 	void store(int address, int value) throws MemoryFault;
 
+	/*
+	 * Load a word of an instruction, which faults if its page is not present.
+	 */
+
+	int fetch(int address) throws MemoryFault;
+
+	/*
+	 * Set where in physical memory addresses start, and how many there are.
+	 */
+
+	void relocate(int base, int limit);
+
+	/*
+	 * Set which pages, from address 0, are in memory; addresses past the last
+	 * page are always present, as are all of them if pages is null.
+	 */
+
+	void setPresent(boolean[] pages);
+
 }
\ No newline at end of file
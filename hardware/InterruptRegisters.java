@@ -8,8 +8,22 @@ public class InterruptRegisters
 {
 	public boolean register[];
 
+	//	set whenever any register is, so the CPU need not look at every one
+
+	public volatile boolean pending;
+
 	public InterruptRegisters(int n)
 	{
 		register = new boolean[n];
 	}
+
+	/*
+	 * Raise the interrupt for a device.
+	 */
+
+	public void raise(int deviceNumber)
+	{
+		register[deviceNumber] = true;
+		pending = true;
+	}
 }
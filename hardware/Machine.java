@@ -1,7 +1,7 @@
 package s340.hardware;
 
-import s340.hardware.device.Console;
-import s340.hardware.device.Disk;
+import java.io.PrintStream;
+
 import s340.software.OperatingSystem;
 
 /*
@@ -15,7 +15,7 @@ public class Machine
 
 	public final int MEMORY_SIZE = 20000;
 
-	// device numbers
+	// devices in the standard configuration
 
 	public final static int NUM_DEVICES = 3;
 	
@@ -35,49 +35,76 @@ public class Machine
 	public final DeviceControlRegister[] controlRegisters;
 	public final CPU cpu;	
 	public final Device[] devices;
+
+	// where the machine's own output goes, as well as the console's
+
+	public final PrintStream out;
+
+	// the threads the CPU and the devices run on
+
+	private Thread cpuThread;
+	private final DeviceRuntime deviceRuntime;
 	
 
 	/*
-	 * Create the machine and it's hardware.
+	 * Create a machine with the standard devices.
 	 */
 
 	public Machine() throws Exception
 	{
+		this(MachineConfiguration.standard());
+	}
+
+	/*
+	 * Create the machine and it's hardware.
+	 */
+
+	public Machine(MachineConfiguration configuration) throws Exception
+	{
+		int numDevices = configuration.size();
+
 		// create memory controller
 
-		memory = new MemoryController(MEMORY_SIZE);
+		MemoryController memoryController = new MemoryController(MEMORY_SIZE);
+		memory = memoryController;
 
 		// create the interrupt registers -- one per device
 
-		interruptRegisters = new InterruptRegisters(NUM_DEVICES);
-		for (int i = 0; i < NUM_DEVICES; i++)
+		interruptRegisters = new InterruptRegisters(numDevices);
+		for (int i = 0; i < numDevices; i++)
 		{
 			interruptRegisters.register[i] = false;
 		}
 
 		// create the device controller registers -- one per device
 
-		controlRegisters = new DeviceControlRegister[NUM_DEVICES];
-		for (int i = 0; i < NUM_DEVICES; i++)
+		controlRegisters = new DeviceControlRegister[numDevices];
+		for (int i = 0; i < numDevices; i++)
 		{
 			controlRegisters[i] = new DeviceControlRegister(100);
 		}
 
 		// create the devices themselves
 
-		devices = new Device[NUM_DEVICES];
+		devices = new Device[numDevices];
+		for (int i = 0; i < numDevices; i++)
+		{
+			devices[i] = configuration.get(i).create(i, interruptRegisters, controlRegisters[i]);
+		}
 
-		devices[CONSOLE] = new Console(CONSOLE, interruptRegisters, controlRegisters[CONSOLE]);
-		devices[DISK] = new Disk(DISK, interruptRegisters, controlRegisters[DISK], new int [Disk.PLATTER_SIZE]);
-		devices[DISK2] = new Disk(DISK2, interruptRegisters, controlRegisters[DISK2], new int [10]);
+		// give the devices direct access to memory
 
-		
-		
-		
+		for (Device device : devices)
+		{
+			device.memory = memoryController;
+		}
+
+		deviceRuntime = new DeviceRuntime(configuration.getDeviceThreads());
 
 		// create the CPU
 
-		cpu = new CPU(interruptRegisters, memory);
+		out = configuration.getOutput();
+		cpu = new CPU(interruptRegisters, memory, configuration.getInput(), out);
 	}
 
 	/*
@@ -92,14 +119,27 @@ public class Machine
 
 		// start the CPU
 
-		new Thread(cpu).start();
+		cpuThread = new Thread(cpu, "cpu");
+		cpuThread.start();
 
 		// start the devices
 
-		for (Device device : devices)
+		deviceRuntime.start(devices);
+	}
+
+	/*
+	 * Power down the machine. The CPU stops after the instruction it is on,
+	 * and the devices after the operations they have been given. From any
+	 * thread but the CPU's, this waits for the CPU to stop.
+	 */
+
+	public void powerDown() throws InterruptedException
+	{
+		cpu.halt();
+		if (cpuThread != null && Thread.currentThread() != cpuThread)
 		{
-			new Thread(device).start();
-			
+			cpuThread.join();
 		}
+		deviceRuntime.shutdown();
 	}
 }
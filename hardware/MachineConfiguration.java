@@ -0,0 +1,145 @@
+package s340.hardware;
+
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import s340.hardware.device.Console;
+import s340.hardware.device.Disk;
+import s340.hardware.device.Keyboard;
+
+/*
+ * The devices a machine is built with, in device number order, and how many
+ * threads service them.
+ */
+
+public class MachineConfiguration
+{
+
+	//	the devices, in the order they are numbered
+
+	private final List<IDeviceFactory> devices = new ArrayList<>();
+
+	//	threads shared by all the devices
+
+	private int deviceThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+	//	where the disks keep their platter files, and where the machine reads
+	//	input and writes output. Machines in the same process each need a
+	//	directory of their own.
+
+	private Path directory = Paths.get("");
+	private InputStream input = System.in;
+	private PrintStream output = System.out;
+
+	/*
+	 * The standard machine -- a console and two disks, at CONSOLE, DISK and
+	 * DISK2.
+	 */
+
+	public static MachineConfiguration standard()
+	{
+		return new MachineConfiguration().console().disk().disks(1, 10);
+	}
+
+	public MachineConfiguration add(IDeviceFactory device)
+	{
+		devices.add(device);
+		return this;
+	}
+
+	public MachineConfiguration console()
+	{
+		return add((n, interruptRegisters, controlRegister) -> new Console(n, interruptRegisters, controlRegister,
+				output));
+	}
+
+	public MachineConfiguration keyboard()
+	{
+		return add((n, interruptRegisters, controlRegister) -> new Keyboard(n, interruptRegisters, controlRegister,
+				input, output));
+	}
+
+	public MachineConfiguration disk()
+	{
+		return disks(1, Disk.PLATTER_SIZE);
+	}
+
+	/*
+	 * Add several disks, numbered one after another.
+	 *
+	 * @param count -- how many disks.
+	 * @param bufferSize -- the size of each disk's buffer.
+	 */
+
+	public MachineConfiguration disks(int count, int bufferSize)
+	{
+		for (int i = 0; i < count; i++)
+		{
+			add((n, interruptRegisters, controlRegister) -> new Disk(n, interruptRegisters, controlRegister,
+					new int[bufferSize], directory, output));
+		}
+		return this;
+	}
+
+	public MachineConfiguration deviceThreads(int deviceThreads)
+	{
+		if (deviceThreads < 1)
+		{
+			throw new IllegalArgumentException("Need at least one device thread : " + deviceThreads);
+		}
+		this.deviceThreads = deviceThreads;
+		return this;
+	}
+
+	public int getDeviceThreads()
+	{
+		return deviceThreads;
+	}
+
+	public MachineConfiguration directory(Path directory)
+	{
+		this.directory = directory;
+		return this;
+	}
+
+	public MachineConfiguration input(InputStream input)
+	{
+		this.input = input;
+		return this;
+	}
+
+	public MachineConfiguration output(PrintStream output)
+	{
+		this.output = output;
+		return this;
+	}
+
+	public Path getDirectory()
+	{
+		return directory;
+	}
+
+	public InputStream getInput()
+	{
+		return input;
+	}
+
+	public PrintStream getOutput()
+	{
+		return output;
+	}
+
+	public int size()
+	{
+		return devices.size();
+	}
+
+	public IDeviceFactory get(int deviceNumber)
+	{
+		return devices.get(deviceNumber);
+	}
+}
@@ -2,19 +2,28 @@ package s340.hardware;
 
 import s340.hardware.exception.MemoryAddressException;
 import s340.hardware.exception.MemoryFault;
+import s340.hardware.exception.PageFault;
 
 /*
  * A basic memory controller.
  */
 
-public class MemoryController implements IMemoryController
+public class MemoryController implements IMemoryController, IDirectMemoryAccess
 {
 
+	// words per page
+
+	public final static int PAGE_SIZE = 10;
+
 	private final int[] memory;
 	
 	public int base = 0;
 	public int limit = 0;
 
+	// which pages instructions can be fetched from, or null for all of them
+
+	private boolean[] present;
+
 	public MemoryController(int[] contents)
 	{
 		this.memory = contents;
@@ -57,6 +66,13 @@ public class MemoryController implements IMemoryController
 		this.limit = limit;
 	}
 
+	@Override
+	public void relocate(int base, int limit)
+	{
+		this.base = base;
+		this.limit = limit;
+	}
+
 	@Override
 	public int load(int address) throws MemoryFault
 	{
@@ -64,6 +80,28 @@ public class MemoryController implements IMemoryController
 		return memory[address + base];
 	}
 
+	/*
+	 * Load a word of an instruction, faulting if its page is not present.
+	 */
+
+	@Override
+	public int fetch(int address) throws MemoryFault
+	{
+		checkAddress(address);
+		int page = address / PAGE_SIZE;
+		if (present != null && page < present.length && !present[page])
+		{
+			throw new PageFault(address);
+		}
+		return memory[address + base];
+	}
+
+	@Override
+	public void setPresent(boolean[] pages)
+	{
+		present = pages;
+	}
+
 	/*
 	 * Store a value into a given memory address.
 	 */
@@ -75,4 +113,24 @@ public class MemoryController implements IMemoryController
 		memory[address + base] = value;
 	}
 
+	/*
+	 * Copy words from physical memory for a device.
+	 */
+
+	@Override
+	public void readPhysical(int physicalAddress, int[] into, int offset, int length)
+	{
+		System.arraycopy(memory, physicalAddress, into, offset, length);
+	}
+
+	/*
+	 * Copy words from a device into physical memory.
+	 */
+
+	@Override
+	public void writePhysical(int physicalAddress, int[] from, int offset, int length)
+	{
+		System.arraycopy(from, offset, memory, physicalAddress, length);
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,17 @@
+package s340.hardware;
+
+/*
+ * The state of the CPU that belongs to one program -- the accumulator, the
+ * index register, the program counter, where the program is in memory, and
+ * which of its pages are there. Saved and restored as one on a context switch.
+ */
+
+public class RegisterState
+{
+	public int acc;
+	public int x;
+	public int pc;
+	public int base;
+	public int limit;
+	public boolean[] present;
+}
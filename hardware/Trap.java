@@ -11,6 +11,7 @@ public class Trap
 	public final static int MEMORY_FAULT = 3;
 	public final static int END = 4;
 	public final static int DIV_ZERO = 5;
+	public final static int PAGE_FAULT = 6;
 	
-	public final static int NUM_TRAPS = 6;
+	public final static int NUM_TRAPS = 7;
 }
@@ -1,5 +1,7 @@
 package s340.hardware.device;
 
+import java.io.PrintStream;
+
 import s340.hardware.Device;
 import s340.hardware.DeviceControlRegister;
 import s340.hardware.InterruptRegisters;
@@ -11,9 +13,20 @@ import s340.hardware.InterruptRegisters;
 public class Console extends Device
 {
 
+	//	where the screen is
+
+	private final PrintStream output;
+
 	public Console(int deviceNumber, InterruptRegisters interruptRegisters, DeviceControlRegister controlRegisters)
+	{
+		this(deviceNumber, interruptRegisters, controlRegisters, System.out);
+	}
+
+	public Console(int deviceNumber, InterruptRegisters interruptRegisters, DeviceControlRegister controlRegisters,
+			PrintStream output)
 	{
 		super(deviceNumber, interruptRegisters, controlRegisters);
+		this.output = output;
 	}
 
 	/*
@@ -21,8 +34,8 @@ public class Console extends Device
 	 */
 	
 	@Override
-	public void doOperation()
+	public void doOperation(int[] register)
 	{
-		System.out.println("Output value : " + controlRegister.register[1]);
+		output.println("Output value : " + register[1]);
 	}
 }
\ No newline at end of file
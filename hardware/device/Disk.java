@@ -1,13 +1,21 @@
 package s340.hardware.device;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
 
 import s340.hardware.Device;
+import s340.hardware.DeviceCommand;
 import s340.hardware.DeviceControlRegister;
 import s340.hardware.DeviceControllerOperations;
 import s340.hardware.InterruptRegisters;
@@ -22,17 +30,56 @@ public class Disk extends Device
 	public final static int NUM_PLATTERS = 10;
 	public final static int PLATTER_SIZE = 100;
 
+	//	how many tagged commands a disk works on at once
+
+	public final static int QUEUE_DEPTH = 4;
+
 	private final static String PLATTER = "P";
 	private final static String DISK = "D";
 
+	//	commands run side by side, so each platter file is locked while it is
+	//	read, changed and written back
+
+	private final Object[] platterLocks;
+
+	//	the linear address the head finished at last
+
+	private volatile int headPosition;
+
+	//	the directory the platter files are in
+
+	private final Path directory;
+
 	public Disk(int deviceNumber, InterruptRegisters interruptRegisters, DeviceControlRegister controlRegisters,
 			int[] buffer) throws IOException
+	{
+		this(deviceNumber, interruptRegisters, controlRegisters, buffer, Paths.get(""), System.err);
+	}
+
+	/*
+	 * A disk keeping its platter files in the given directory, and saying on
+	 * the given stream when it has to make them.
+	 */
+
+	public Disk(int deviceNumber, InterruptRegisters interruptRegisters, DeviceControlRegister controlRegisters,
+			int[] buffer, Path directory, PrintStream output) throws IOException
 	{
 		super(deviceNumber, interruptRegisters, controlRegisters, buffer);
+		this.directory = directory;
+		if (!directory.toString().isEmpty())
+		{
+			Files.createDirectories(directory);
+		}
+		queueDepth = QUEUE_DEPTH;
+		platterLocks = new Object[NUM_PLATTERS];
+		for (int i = 0; i < NUM_PLATTERS; i++)
+		{
+			platterLocks[i] = new Object();
+		}
 		// if we don't have the platter files, create them
-		if (!new File(DISK + deviceNumber + PLATTER + "0").exists())
+		if (!platterFile(0).exists())
 		{
-			System.err.println("WRITING INITIAL FILES : " + DISK + deviceNumber);
+			output.println("WRITING INITIAL FILES : " + DISK + deviceNumber);
 			for (int i = 0; i < NUM_PLATTERS; i++)
 			{
 				writePlatter(i, new int[PLATTER_SIZE]);
@@ -40,10 +87,16 @@ public class Disk extends Device
 		}
 	}
 
+	private File platterFile(int platterNum)
+	{
+		return directory.resolve(DISK + deviceNumber + PLATTER + platterNum).toFile();
+	}
+
 	private int[] readPlatter(int platterNum) throws IOException
 	{
 		int[] result = new int[PLATTER_SIZE];
-		try (DataInputStream dos = new DataInputStream(new FileInputStream(DISK + deviceNumber + PLATTER + platterNum)))
+		try (DataInputStream dos = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(platterFile(platterNum)))))
 		{
 			for (int i = 0; i < PLATTER_SIZE; i++)
 			{
@@ -56,7 +109,8 @@ public class Disk extends Device
 
 	private void writePlatter(int platterNum, int[] data) throws IOException
 	{
-		try (DataOutputStream dos = new DataOutputStream(new FileOutputStream(DISK + deviceNumber + PLATTER + platterNum)))
+		try (DataOutputStream dos = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(platterFile(platterNum)))))
 		{
 			for (int i = 0; i < PLATTER_SIZE; i++)
 			{
@@ -65,24 +119,159 @@ public class Disk extends Device
 		}
 	}
 
+	/*
+	 * Copy every platter, one after another, into the given array of
+	 * NUM_PLATTERS * PLATTER_SIZE words.
+	 */
+
+	public void readImage(int[] image) throws IOException
+	{
+		for (int i = 0; i < NUM_PLATTERS; i++)
+		{
+			synchronized (platterLocks[i])
+			{
+				System.arraycopy(readPlatter(i), 0, image, i * PLATTER_SIZE, PLATTER_SIZE);
+			}
+		}
+	}
+
+	/*
+	 * Replace every platter with the words in the given array.
+	 */
+
+	public void writeImage(int[] image) throws IOException
+	{
+		for (int i = 0; i < NUM_PLATTERS; i++)
+		{
+			int[] data = new int[PLATTER_SIZE];
+			System.arraycopy(image, i * PLATTER_SIZE, data, 0, PLATTER_SIZE);
+			synchronized (platterLocks[i])
+			{
+				writePlatter(i, data);
+			}
+		}
+	}
+
+	public int getHeadPosition()
+	{
+		return headPosition;
+	}
+
+	public void setHeadPosition(int headPosition)
+	{
+		this.headPosition = headPosition;
+	}
+
+	/*
+	 * Of the commands waiting, start the one whose first segment is nearest
+	 * the head.
+	 */
+
+	@Override
+	protected DeviceCommand chooseCommand(List<DeviceCommand> commands)
+	{
+		DeviceCommand nearest = commands.get(0);
+		int smallest = Integer.MAX_VALUE;
+		for (DeviceCommand command : commands)
+		{
+			int[] register = command.register;
+			if (register[0] != DeviceControllerOperations.READ_SCATTER
+					&& register[0] != DeviceControllerOperations.WRITE_GATHER)
+			{
+				continue;
+			}
+			int at = DeviceControllerOperations.SEGMENTS;
+			int distance = Math.abs(register[at] * PLATTER_SIZE + register[at + 1] - headPosition);
+			if (distance < smallest)
+			{
+				smallest = distance;
+				nearest = command;
+			}
+		}
+		return nearest;
+	}
+
 	@Override
-	public void doOperation() throws IOException
+	public void doOperation(int[] register) throws IOException
 	{
-		int operation = controlRegister.register[0];
-		int platter = controlRegister.register[1];
-		int start = controlRegister.register[2];
-		int length = controlRegister.register[3];
+		int operation = register[0];
+		int platter = register[1];
+		int start = register[2];
+		int length = register[3];
 
 		switch (operation)
 		{
 			case DeviceControllerOperations.READ:
-				System.arraycopy(readPlatter(platter), start, buffer, 0, length);
+				synchronized (platterLocks[platter])
+				{
+					System.arraycopy(readPlatter(platter), start, buffer, 0, length);
+				}
 				break;
 			case DeviceControllerOperations.WRITE:
-				int[] data = readPlatter(platter);
-				System.arraycopy(buffer, 0, data, start, length);
-				writePlatter(platter, data);
+				synchronized (platterLocks[platter])
+				{
+					int[] data = readPlatter(platter);
+					System.arraycopy(buffer, 0, data, start, length);
+					writePlatter(platter, data);
+				}
+				break;
+			case DeviceControllerOperations.READ_SCATTER:
+			case DeviceControllerOperations.WRITE_GATHER:
+				transferSegments(operation, register);
 				break;
 		}
 	}
+
+	/*
+	 * Move every segment in the registers between the platters and memory,
+	 * one platter at a time. Each platter is read at most once and written
+	 * back at most once however many segments touch it, and is locked from
+	 * the read to the write back.
+	 */
+
+	private void transferSegments(int operation, int[] register) throws IOException
+	{
+		int segments = register[DeviceControllerOperations.SEGMENT_COUNT];
+		boolean[] touched = new boolean[NUM_PLATTERS];
+		for (int i = 0; i < segments; i++)
+		{
+			touched[register[DeviceControllerOperations.SEGMENTS + i * DeviceControllerOperations.SEGMENT_SIZE]] = true;
+		}
+
+		for (int platter = 0; platter < NUM_PLATTERS; platter++)
+		{
+			if (!touched[platter])
+			{
+				continue;
+			}
+			synchronized (platterLocks[platter])
+			{
+				int[] data = readPlatter(platter);
+				for (int i = 0; i < segments; i++)
+				{
+					int at = DeviceControllerOperations.SEGMENTS + i * DeviceControllerOperations.SEGMENT_SIZE;
+					if (register[at] != platter)
+					{
+						continue;
+					}
+					int start = register[at + 1];
+					int length = register[at + 2];
+					int address = register[at + 3];
+					if (operation == DeviceControllerOperations.READ_SCATTER)
+					{
+						memory.writePhysical(address, data, start, length);
+					}
+					else
+					{
+						memory.readPhysical(address, data, start, length);
+					}
+					headPosition = platter * PLATTER_SIZE + start + length;
+				}
+				if (operation == DeviceControllerOperations.WRITE_GATHER)
+				{
+					writePlatter(platter, data);
+				}
+			}
+		}
+	}
 }
@@ -4,6 +4,8 @@ import s340.hardware.Device;
 import s340.hardware.DeviceControlRegister;
 import s340.hardware.InterruptRegisters;
 
+import java.io.InputStream;
+import java.io.PrintStream;
 import java.util.Scanner;
 
 /*
@@ -15,10 +17,21 @@ public class Keyboard extends Device
 
 	private final Scanner input;
 
+	//	where the prompt for a value goes
+
+	private final PrintStream output;
+
 	public Keyboard(int deviceNumber, InterruptRegisters interruptRegisters, DeviceControlRegister controlRegister)
+	{
+		this(deviceNumber, interruptRegisters, controlRegister, System.in, System.out);
+	}
+
+	public Keyboard(int deviceNumber, InterruptRegisters interruptRegisters, DeviceControlRegister controlRegister,
+			InputStream input, PrintStream output)
 	{
 		super(deviceNumber, interruptRegisters, controlRegister);
-		input = new Scanner(System.in);
+		this.input = new Scanner(input);
+		this.output = output;
 	}
 
 	/*
@@ -26,10 +39,10 @@ public class Keyboard extends Device
 	 */
 
 	@Override
-	public void doOperation()
+	public void doOperation(int[] register)
 	{
-		System.out.println("Input value : ");
+		output.println("Input value : ");
 		int value = input.nextInt();
-		controlRegister.register[1] = value;
+		register[1] = value;
 	}
 }
@@ -0,0 +1,24 @@
+package s340.hardware.exception;
+
+/*
+ * Exception thrown when an instruction is fetched from a page that is not in
+ * memory yet.
+ */
+
+public class PageFault extends MemoryFault
+{
+	private static final long serialVersionUID = 1L;
+
+	private final int address;
+
+	public PageFault(int address)
+	{
+		super(address);
+		this.address = address;
+	}
+
+	public int getAddress()
+	{
+		return address;
+	}
+}
@@ -0,0 +1,32 @@
+package s340.software;
+
+import java.util.Comparator;
+
+/*
+ * The order the job queue admits jobs in.
+ */
+
+public enum AdmissionPolicy {
+
+	// in the order they were submitted
+	FIFO(Comparator.comparingLong(job -> job.sequence)),
+
+	// the job with the least data first, which gets the most jobs through
+	SHORTEST_JOB_FIRST(Comparator.<Job> comparingInt(job -> job.getProgram().getDataSize())
+			.thenComparingLong(job -> job.sequence)),
+
+	// the job with the shortest code first, for jobs whose running time
+	// follows the length of their program rather than their data
+	SHORTEST_CODE_FIRST(Comparator.<Job> comparingInt(job -> job.getProgram().getCode().length)
+			.thenComparingLong(job -> job.sequence));
+
+	private final Comparator<Job> order;
+
+	private AdmissionPolicy(Comparator<Job> order) {
+		this.order = order;
+	}
+
+	public Comparator<Job> order() {
+		return order;
+	}
+}
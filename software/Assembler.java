@@ -0,0 +1,638 @@
+package s340.software;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import s340.hardware.Opcode;
+
+/*
+ * An assembler for S340 programs, which can also read them as text.
+ *
+ * Code is kept in a growable int array, so adding an instruction allocates
+ * nothing once the array is big enough. An operand can be a number or a
+ * symbol -- a label, or a constant given by equ -- plus an offset. A symbol
+ * that has not been defined yet is patched when the program is built.
+ *
+ * Unlike ProgramBuilder, build does not add an END, since data may follow the
+ * code.
+ *
+ * The text form, one statement per line:
+ *
+ *   ; a comment
+ *   loop:   LOADI 3           ; an instruction, with a label
+ *           JNEG  loop
+ *           STORE total+1
+ *   total:  .word 0, 0        ; initialized words
+ *   buf:    .space 10         ; zeroed words
+ *           .equ  SIZE 10     ; a constant
+ *           .size 100         ; data past the end of the program
+ *           .start 0          ; the address the program is assembled for
+ *
+ * Mnemonics are those of Opcode, in any case.
+ */
+
+public class Assembler
+{
+
+	private static final Map<String, Integer> MNEMONICS = new HashMap<>();
+
+	static
+	{
+		for (int opcode = 0; opcode < Opcode.instructions.length; opcode++)
+		{
+			MNEMONICS.put(Opcode.instructions[opcode], opcode);
+		}
+	}
+
+	// the code, of which length words are used
+
+	private int[] code = new int[64];
+	private int length;
+
+	private int start;
+	private int size;
+
+	// symbols by name, with their values in the same order; a label that is
+	// only referred to so far has no value yet
+
+	private final Map<String, Integer> symbols = new HashMap<>();
+	private int[] values = new int[16];
+	private boolean[] defined = new boolean[16];
+
+	// operands still to be patched -- where they are, the symbol, and the
+	// offset from it
+
+	private int[] fixups = new int[16];
+	private int numFixups;
+
+	/*
+	 * The address the next word will be at.
+	 */
+
+	public int here()
+	{
+		return start + length;
+	}
+
+	/*
+	 * Set the address the program is assembled for. It must be set before any
+	 * code.
+	 */
+
+	public void start(int start)
+	{
+		if (length > 0)
+		{
+			throw new IllegalStateException("The start must be set before any code");
+		}
+		this.start = start;
+	}
+
+	/*
+	 * Set the number of data words after the program.
+	 */
+
+	public void size(int size)
+	{
+		if (size < 0)
+		{
+			throw new IllegalArgumentException("Bad size : " + size);
+		}
+		this.size = size;
+	}
+
+	/*
+	 * Define a label at the next address.
+	 */
+
+	public int label(String name)
+	{
+		define(name, here());
+		return here();
+	}
+
+	/*
+	 * Define a constant.
+	 */
+
+	public void equ(String name, int value)
+	{
+		define(name, value);
+	}
+
+	private void define(String name, int value)
+	{
+		int symbol = symbol(name);
+		if (defined[symbol])
+		{
+			throw new IllegalArgumentException("Symbol defined twice : " + name);
+		}
+		values[symbol] = value;
+		defined[symbol] = true;
+	}
+
+	// the number of a symbol, adding it if it is new
+
+	private int symbol(String name)
+	{
+		Integer symbol = symbols.get(name);
+		if (symbol != null)
+		{
+			return symbol;
+		}
+		int number = symbols.size();
+		if (number == values.length)
+		{
+			values = Arrays.copyOf(values, number * 2);
+			defined = Arrays.copyOf(defined, number * 2);
+		}
+		symbols.put(name, number);
+		return number;
+	}
+
+	/*
+	 * Add an instruction.
+	 *
+	 * @return the address of the instruction.
+	 */
+
+	public int instruction(int opcode, int operand)
+	{
+		if (opcode < 0 || opcode >= Opcode.instructions.length)
+		{
+			throw new IllegalArgumentException("Bad opcode : " + opcode);
+		}
+		int address = here();
+		word(opcode);
+		word(operand);
+		return address;
+	}
+
+	/*
+	 * Add an instruction whose operand is a symbol plus an offset, which need
+	 * not be defined yet.
+	 */
+
+	public int instruction(int opcode, String symbol, int offset)
+	{
+		int address = instruction(opcode, offset);
+		fixup(symbol);
+		return address;
+	}
+
+	// patch the last word with the value of a symbol when the program is built
+
+	private void fixup(String symbol)
+	{
+		if (numFixups + 2 > fixups.length)
+		{
+			fixups = Arrays.copyOf(fixups, fixups.length * 2);
+		}
+		fixups[numFixups++] = length - 1;
+		fixups[numFixups++] = symbol(symbol);
+	}
+
+	/*
+	 * Add a word of data.
+	 *
+	 * @return its address.
+	 */
+
+	public int word(int value)
+	{
+		if (length == code.length)
+		{
+			code = Arrays.copyOf(code, length * 2);
+		}
+		code[length++] = value;
+		return start + length - 1;
+	}
+
+	/*
+	 * Add a word holding a symbol plus an offset, such as the address of a
+	 * label.
+	 *
+	 * @return its address.
+	 */
+
+	public int word(String symbol, int offset)
+	{
+		int address = word(offset);
+		fixup(symbol);
+		return address;
+	}
+
+	/*
+	 * Add the given number of zero words.
+	 *
+	 * @return the address of the first.
+	 */
+
+	public int space(int words)
+	{
+		if (words < 0)
+		{
+			throw new IllegalArgumentException("Bad space : " + words);
+		}
+		int address = here();
+		if (length + words > code.length)
+		{
+			code = Arrays.copyOf(code, Math.max(code.length * 2, length + words));
+		}
+		length += words;
+		return address;
+	}
+
+	public int load(int address)
+	{
+		return instruction(Opcode.LOAD, address);
+	}
+
+	public int load(String symbol)
+	{
+		return instruction(Opcode.LOAD, symbol, 0);
+	}
+
+	public int loadi(int value)
+	{
+		return instruction(Opcode.LOADI, value);
+	}
+
+	public int loadi(String symbol)
+	{
+		return instruction(Opcode.LOADI, symbol, 0);
+	}
+
+	public int loadx(int address)
+	{
+		return instruction(Opcode.LOADX, address);
+	}
+
+	public int loadx(String symbol)
+	{
+		return instruction(Opcode.LOADX, symbol, 0);
+	}
+
+	public int store(int address)
+	{
+		return instruction(Opcode.STORE, address);
+	}
+
+	public int store(String symbol)
+	{
+		return instruction(Opcode.STORE, symbol, 0);
+	}
+
+	public int storex(int address)
+	{
+		return instruction(Opcode.STOREX, address);
+	}
+
+	public int storex(String symbol)
+	{
+		return instruction(Opcode.STOREX, symbol, 0);
+	}
+
+	public int tax()
+	{
+		return instruction(Opcode.TAX, -1);
+	}
+
+	public int txa()
+	{
+		return instruction(Opcode.TXA, -1);
+	}
+
+	public int inca()
+	{
+		return instruction(Opcode.INCA, -1);
+	}
+
+	public int incx()
+	{
+		return instruction(Opcode.INCX, -1);
+	}
+
+	public int add(int address)
+	{
+		return instruction(Opcode.ADD, address);
+	}
+
+	public int add(String symbol)
+	{
+		return instruction(Opcode.ADD, symbol, 0);
+	}
+
+	public int addi(int value)
+	{
+		return instruction(Opcode.ADDI, value);
+	}
+
+	public int sub(int address)
+	{
+		return instruction(Opcode.SUB, address);
+	}
+
+	public int sub(String symbol)
+	{
+		return instruction(Opcode.SUB, symbol, 0);
+	}
+
+	public int subi(int value)
+	{
+		return instruction(Opcode.SUBI, value);
+	}
+
+	public int mul(int address)
+	{
+		return instruction(Opcode.MUL, address);
+	}
+
+	public int mul(String symbol)
+	{
+		return instruction(Opcode.MUL, symbol, 0);
+	}
+
+	public int div(int address)
+	{
+		return instruction(Opcode.DIV, address);
+	}
+
+	public int div(String symbol)
+	{
+		return instruction(Opcode.DIV, symbol, 0);
+	}
+
+	public int jmp(int address)
+	{
+		return instruction(Opcode.JMP, address);
+	}
+
+	public int jmp(String label)
+	{
+		return instruction(Opcode.JMP, label, 0);
+	}
+
+	public int jpos(int address)
+	{
+		return instruction(Opcode.JPOS, address);
+	}
+
+	public int jpos(String label)
+	{
+		return instruction(Opcode.JPOS, label, 0);
+	}
+
+	public int jzero(int address)
+	{
+		return instruction(Opcode.JZERO, address);
+	}
+
+	public int jzero(String label)
+	{
+		return instruction(Opcode.JZERO, label, 0);
+	}
+
+	public int jneg(int address)
+	{
+		return instruction(Opcode.JNEG, address);
+	}
+
+	public int jneg(String label)
+	{
+		return instruction(Opcode.JNEG, label, 0);
+	}
+
+	public int syscall(int callNumber)
+	{
+		return instruction(Opcode.SYSCALL, callNumber);
+	}
+
+	public int end()
+	{
+		return instruction(Opcode.END, -1);
+	}
+
+	public int input()
+	{
+		return instruction(Opcode.INPUT, -1);
+	}
+
+	public int output()
+	{
+		return instruction(Opcode.OUTPUT, -1);
+	}
+
+	/*
+	 * Patch every reference to a symbol and make the program. The assembler
+	 * can go on being used, for a longer program.
+	 */
+
+	public Program build()
+	{
+		int[] program = Arrays.copyOf(code, length);
+		for (int i = 0; i < numFixups; i += 2)
+		{
+			int symbol = fixups[i + 1];
+			if (!defined[symbol])
+			{
+				throw new IllegalStateException("Undefined symbol : " + name(symbol));
+			}
+			program[fixups[i]] += values[symbol];
+		}
+		return new Program(program, start, size);
+	}
+
+	private String name(int symbol)
+	{
+		for (Map.Entry<String, Integer> entry : symbols.entrySet())
+		{
+			if (entry.getValue() == symbol)
+			{
+				return entry.getKey();
+			}
+		}
+		return null;
+	}
+
+	/*
+	 * Assemble the text of a program.
+	 *
+	 * @throws IllegalArgumentException if a line cannot be assembled, giving
+	 * its number.
+	 */
+
+	public static Program assemble(Reader source) throws IOException
+	{
+		Assembler assembler = new Assembler();
+		BufferedReader lines = new BufferedReader(source);
+		String line;
+		int number = 0;
+		while ((line = lines.readLine()) != null)
+		{
+			number++;
+			try
+			{
+				assembler.statement(line);
+			}
+			catch (IllegalArgumentException | IllegalStateException ex)
+			{
+				throw new IllegalArgumentException("Line " + number + " : " + ex.getMessage(), ex);
+			}
+		}
+		return assembler.build();
+	}
+
+	public static Program assemble(String source)
+	{
+		try
+		{
+			return assemble(new StringReader(source));
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// assemble one line of text
+
+	private void statement(String line)
+	{
+		int comment = line.indexOf(';');
+		if (comment >= 0)
+		{
+			line = line.substring(0, comment);
+		}
+		line = line.trim();
+		int colon = line.indexOf(':');
+		if (colon >= 0)
+		{
+			label(checkName(line.substring(0, colon).trim()));
+			line = line.substring(colon + 1).trim();
+		}
+		if (line.isEmpty())
+		{
+			return;
+		}
+		int space = 0;
+		while (space < line.length() && !Character.isWhitespace(line.charAt(space)))
+		{
+			space++;
+		}
+		String word = line.substring(0, space).toUpperCase(Locale.ROOT);
+		String operands = line.substring(space).trim();
+		switch (word)
+		{
+			case ".WORD":
+				for (String value : operands.split(","))
+				{
+					operand(-1, value.trim());
+				}
+				break;
+			case ".SPACE":
+				space(number(operands));
+				break;
+			case ".EQU":
+				String[] parts = operands.split("\\s+");
+				if (parts.length != 2)
+				{
+					throw new IllegalArgumentException(".equ needs a name and a value");
+				}
+				equ(checkName(parts[0]), number(parts[1]));
+				break;
+			case ".SIZE":
+				size(number(operands));
+				break;
+			case ".START":
+				start(number(operands));
+				break;
+			default:
+				Integer opcode = MNEMONICS.get(word);
+				if (opcode == null)
+				{
+					throw new IllegalArgumentException("Unknown instruction : " + word);
+				}
+				if (operands.isEmpty())
+				{
+					instruction(opcode, -1);
+				}
+				else
+				{
+					operand(opcode, operands);
+				}
+		}
+	}
+
+	/*
+	 * Add an instruction, or a word of data if opcode is -1, whose operand is a
+	 * number, or a symbol with an optional offset.
+	 */
+
+	private void operand(int opcode, String text)
+	{
+		if (text.isEmpty())
+		{
+			throw new IllegalArgumentException("Missing operand");
+		}
+		char first = text.charAt(0);
+		if (first == '-' || Character.isDigit(first))
+		{
+			if (opcode == -1)
+			{
+				word(number(text));
+			}
+			else
+			{
+				instruction(opcode, number(text));
+			}
+			return;
+		}
+		int sign = Math.max(text.indexOf('+', 1), text.indexOf('-', 1));
+		String symbol = sign < 0 ? text : text.substring(0, sign).trim();
+		int offset = sign < 0 ? 0 : number(text.substring(sign).replace(" ", ""));
+		checkName(symbol);
+		if (opcode == -1)
+		{
+			word(symbol, offset);
+		}
+		else
+		{
+			instruction(opcode, symbol, offset);
+		}
+	}
+
+	private static int number(String text)
+	{
+		try
+		{
+			return Integer.decode(text.startsWith("+") ? text.substring(1) : text);
+		}
+		catch (NumberFormatException ex)
+		{
+			throw new IllegalArgumentException("Not a number : " + text);
+		}
+	}
+
+	private static String checkName(String name)
+	{
+		if (name.isEmpty() || !Character.isJavaIdentifierStart(name.charAt(0)))
+		{
+			throw new IllegalArgumentException("Bad symbol : " + name);
+		}
+		for (int i = 1; i < name.length(); i++)
+		{
+			if (!Character.isJavaIdentifierPart(name.charAt(i)))
+			{
+				throw new IllegalArgumentException("Bad symbol : " + name);
+			}
+		}
+		return name;
+	}
+}
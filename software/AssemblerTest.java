@@ -0,0 +1,146 @@
+package s340.software;
+
+import java.util.Arrays;
+
+import s340.hardware.Opcode;
+
+/*
+ * Checks that the assembler lays programs out where it should, patches
+ * symbols used before they are defined, and reports bad source with the line
+ * it is on.
+ */
+
+public class AssemblerTest {
+
+	private static final String SOURCE = String.join("\n",
+			"; add up the words in a table",
+			"        .start 40",
+			"        .equ   COUNT 3",
+			"        .size  10",
+			"        LOADI  COUNT",
+			"        TAX",
+			"loop:   Load   sum          ; mnemonics in any case",
+			"        ADD    table+1",
+			"        STORE  sum",
+			"        TXA",
+			"        SUBI   1",
+			"        TAX",
+			"        JPOS   loop",
+			"        LOAD   sum",
+			"        OUTPUT",
+			"        END",
+			"sum:    .word  0",
+			"table:  .word  5, -7, 0x10",
+			"        .space 2",
+			"where:  .word  table+2, done",
+			"done:");
+
+	public static void main(String[] args) {
+		text();
+		builder();
+		growth();
+		errors();
+		System.out.println("AssemblerTest passed");
+	}
+
+	/*
+	 * Every kind of statement, with forward references, at a start address
+	 * other than 0.
+	 */
+
+	private static void text() {
+		Program program = Assembler.assemble(SOURCE);
+		int[] expected = { Opcode.LOADI, 3, Opcode.TAX, -1, Opcode.LOAD, 64, Opcode.ADD, 66, Opcode.STORE, 64,
+				Opcode.TXA, -1, Opcode.SUBI, 1, Opcode.TAX, -1, Opcode.JPOS, 44, Opcode.LOAD, 64, Opcode.OUTPUT, -1,
+				Opcode.END, -1, 0, 5, -7, 16, 0, 0, 67, 72 };
+		check(Arrays.equals(program.getCode(), expected), "assembled " + Arrays.toString(program.getCode()));
+		check(program.getStart() == 40, "start " + program.getStart());
+		check(program.getDataSize() == 10, "size " + program.getDataSize());
+	}
+
+	/*
+	 * The same program made with the methods comes out the same.
+	 */
+
+	private static void builder() {
+		Assembler assembler = new Assembler();
+		assembler.start(40);
+		assembler.equ("COUNT", 3);
+		assembler.size(10);
+		assembler.loadi("COUNT");
+		assembler.tax();
+		check(assembler.label("loop") == 44, "loop is at 44");
+		assembler.load("sum");
+		assembler.instruction(Opcode.ADD, "table", 1);
+		assembler.store("sum");
+		assembler.txa();
+		assembler.subi(1);
+		assembler.tax();
+		assembler.jpos("loop");
+		assembler.load("sum");
+		assembler.output();
+		assembler.end();
+		assembler.label("sum");
+		assembler.word(0);
+		assembler.label("table");
+		assembler.word(5);
+		assembler.word(-7);
+		assembler.word(16);
+		check(assembler.space(2) == 68, "space at 68");
+		assembler.label("where");
+		assembler.word("table", 2);
+		assembler.word("done", 0);
+		assembler.label("done");
+
+		check(Arrays.equals(assembler.build().getCode(), Assembler.assemble(SOURCE).getCode()),
+				"the methods and the text differ");
+	}
+
+	/*
+	 * More code and symbols than the assembler starts with room for, and a
+	 * program built twice as it grows.
+	 */
+
+	private static void growth() {
+		Assembler assembler = new Assembler();
+		for (int i = 0; i < 100; i++) {
+			assembler.jmp("l" + (i + 1));
+			assembler.label("l" + (i + 1));
+		}
+		Program first = assembler.build();
+		assembler.end();
+		Program second = assembler.build();
+		check(first.getCode().length == 200 && second.getCode().length == 202, "lengths");
+		for (int i = 0; i < 100; i++) {
+			check(second.getCode()[2 * i + 1] == 2 * i + 2, "jump " + i + " goes to " + second.getCode()[2 * i + 1]);
+		}
+		check(Arrays.equals(first.getCode(), Arrays.copyOf(second.getCode(), 200)), "building changed the code");
+	}
+
+	private static void errors() {
+		failsWith("LOAD nowhere", IllegalStateException.class, "Undefined symbol : nowhere");
+		failsWith("x: END\nx: END", IllegalArgumentException.class, "Line 2 : Symbol defined twice : x");
+		failsWith("END\nJUMP 0", IllegalArgumentException.class, "Line 2 : Unknown instruction : JUMP");
+		failsWith(".space -1", IllegalArgumentException.class, "Line 1 : Bad space : -1");
+		failsWith(".word 12x", IllegalArgumentException.class, "Line 1 : Not a number : 12x");
+		failsWith("2x: END", IllegalArgumentException.class, "Line 1 : Bad symbol : 2x");
+		failsWith("END\n.start 4", IllegalArgumentException.class, "Line 2 : The start must be set before any code");
+	}
+
+	private static void failsWith(String source, Class<? extends RuntimeException> type, String message) {
+		try {
+			Assembler.assemble(source);
+		} catch (RuntimeException ex) {
+			check(type.isInstance(ex), source + " threw " + ex);
+			check(message.equals(ex.getMessage()), source + " said " + ex.getMessage());
+			return;
+		}
+		check(false, source + " assembled");
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}
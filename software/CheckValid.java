@@ -13,12 +13,13 @@ public class CheckValid
 	/*
 	 * Check that a device number is valid.
 	 *
+	 * @param machine -- the machine the device is attached to.
 	 * @param n -- the device number.
 	 */
 
-	public static void deviceNumber(int n)
+	public static void deviceNumber(Machine machine, int n)
 	{
-		if (n < 0 || n >= Machine.NUM_DEVICES)
+		if (n < 0 || n >= machine.devices.length)
 		{
 			throw new IllegalArgumentException("Unknown device number : " + n);
 		}
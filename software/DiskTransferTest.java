@@ -0,0 +1,153 @@
+package s340.software;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import s340.hardware.Machine;
+import s340.hardware.MachineConfiguration;
+
+/*
+ * Checks, on a whole machine, that a write across two platters goes to the
+ * disk as one operation, and that reads queued behind a busy disk are merged
+ * into one operation that still puts each one where its process asked.
+ */
+
+public class DiskTransferTest {
+
+	// where the program keeps things, past its code
+
+	private static final int PARAMETERS = 1000;
+	private static final int HEADER = 1010;
+	private static final int SQ = 1020;
+	private static final int CQ = 1080;
+	private static final int SOURCE = 1100;
+	private static final int TARGET = 1300;
+	private static final int SUM = 1400;
+
+	// 150 words written from platter 2, word 50, on, then read back from
+	// platter 3 in READS pieces of PIECE words
+
+	private static final int WRITTEN = 150;
+	private static final int READS = 8;
+	private static final int PIECE = 10;
+
+	public static void main(String[] args) throws Exception {
+		Path directory = Files.createTempDirectory("transfer");
+		try {
+			transfer(directory);
+		} finally {
+			try (Stream<Path> files = Files.walk(directory)) {
+				files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+			}
+		}
+		System.out.println("DiskTransferTest passed");
+	}
+
+	/*
+	 * The first QUEUE_DEPTH reads start on their own as they are submitted
+	 * and the rest wait. When the disk has room again the rest, which lie end
+	 * to end, go as one operation.
+	 */
+
+	private static void transfer(Path directory) throws Exception {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		Machine machine = new Machine(new MachineConfiguration().directory(directory)
+				.output(new PrintStream(output, true)).console().disk().disks(1, 10));
+		OperatingSystem os = new OperatingSystem(machine);
+		machine.powerUp(os);
+		try {
+			os.submit(0, program()).getExit().get(20, TimeUnit.SECONDS);
+		} finally {
+			machine.powerDown();
+		}
+
+		// platter 3 starts with the 51st word written, and read i went to
+		// the i-th piece from the end of the target
+		List<String> outputs = new ArrayList<>();
+		for (String line : output.toString().split("\n")) {
+			if (line.startsWith("Output = ")) {
+				outputs.add(line.trim());
+			}
+		}
+		int sum = (51 + 50 + READS * PIECE) * READS * PIECE / 2;
+		check(outputs.equals(List.of("Output = " + sum, "Output = " + (51 + (READS - 1) * PIECE), "Output = 60")),
+				"printed " + outputs);
+		check(os.diskOperations[Machine.DISK2] == 1 + 4 + 1, "operations " + os.diskOperations[Machine.DISK2]);
+		check(os.mergedRequests[Machine.DISK2] == READS - 4 - 1, "merged " + os.mergedRequests[Machine.DISK2]);
+	}
+
+	private static Program program() {
+		ProgramBuilder builder = new ProgramBuilder();
+		builder.size(1500);
+
+		// fill the source with 1 to WRITTEN and write it out with one call
+		builder.loadi(1);
+		builder.tax();
+		int fill = builder.txa();
+		builder.storex(SOURCE - 1);
+		builder.incx();
+		builder.txa();
+		builder.subi(WRITTEN + 1);
+		builder.jneg(fill);
+		int[] write = { Machine.DISK2, 2, 50, WRITTEN, SOURCE };
+		for (int i = 0; i < write.length; i++) {
+			set(builder, PARAMETERS + i, write[i]);
+		}
+		builder.loadi(PARAMETERS);
+		builder.syscall(SystemCall.WRITE);
+
+		// queue the reads in the ring, each into its own piece of the target,
+		// last piece first, and wait for them all
+		set(builder, HEADER + IORing.ENTRIES, READS);
+		set(builder, HEADER + IORing.SQ_ADDRESS, SQ);
+		set(builder, HEADER + IORing.CQ_ADDRESS, CQ);
+		builder.loadi(HEADER);
+		builder.syscall(SystemCall.IO_SETUP);
+		for (int i = 0; i < READS; i++) {
+			int[] sqe = { SystemCall.READ, Machine.DISK2, 3, i * PIECE, PIECE, TARGET + (READS - 1 - i) * PIECE, i };
+			for (int j = 0; j < sqe.length; j++) {
+				set(builder, SQ + i * IORing.SQE_SIZE + j, sqe[j]);
+			}
+		}
+		set(builder, HEADER + IORing.SQ_TAIL, READS);
+		builder.loadi(READS);
+		builder.syscall(SystemCall.IO_ENTER);
+
+		// print the sum of the target, then its first and last words
+		builder.loadi(READS * PIECE);
+		builder.tax();
+		int add = builder.loadx(TARGET - 1);
+		builder.add(SUM);
+		builder.store(SUM);
+		builder.txa();
+		builder.subi(1);
+		builder.tax();
+		builder.jpos(add);
+		builder.load(SUM);
+		builder.output();
+		builder.load(TARGET);
+		builder.output();
+		builder.load(TARGET + READS * PIECE - 1);
+		builder.output();
+		builder.end();
+		return builder.build();
+	}
+
+	private static void set(ProgramBuilder builder, int address, int value) {
+		builder.loadi(value);
+		builder.store(address);
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}
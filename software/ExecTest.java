@@ -0,0 +1,109 @@
+package s340.software;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import s340.hardware.Machine;
+import s340.hardware.MachineConfiguration;
+import s340.hardware.MemoryController;
+import s340.software.fs.FileSystem;
+
+/*
+ * Checks that an executable file runs with its data read in, and that only
+ * the pages of code it runs are read from the disk, both for the exec that
+ * starts the machine and for one made while programs are running.
+ */
+
+public class ExecTest {
+
+	// code that jumps over GAP words of code it never runs, then the data
+
+	private static final int GAP = 200;
+	private static final int CODE = 8 + GAP + 6;
+	private static final int[] DATA = { 40, 2 };
+
+	public static void main(String[] args) throws Exception {
+		Path directory = Files.createTempDirectory("exec");
+		try {
+			exec(directory);
+		} finally {
+			try (Stream<Path> files = Files.walk(directory)) {
+				files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+			}
+		}
+		System.out.println("ExecTest passed");
+	}
+
+	private static void exec(Path directory) throws Exception {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		Machine machine = new Machine(new MachineConfiguration().directory(directory)
+				.output(new PrintStream(output, true)).console().disk().disks(1, 10));
+		OperatingSystem os = new OperatingSystem(machine);
+		machine.powerUp(os);
+		List<String> outputs;
+		try {
+			os.mount(Machine.DISK);
+			Program program = program();
+			check(program.getCode().length == CODE, "code of " + program.getCode().length + " words");
+			check(os.install(FileSystem.name("prog"), Executable.image(program, DATA)), "no room to install");
+			check(os.exec(FileSystem.name("none"), 0) == -1, "ran a file that is not there");
+			check(os.exec(FileSystem.name("prog"), 0) != -1, "the first exec failed");
+			check(os.exec(FileSystem.name("prog"), 0) != -1, "the second exec failed");
+
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+			while ((outputs = outputs(output)).size() < 4 && System.nanoTime() < deadline) {
+				Thread.sleep(10);
+			}
+		} finally {
+			machine.powerDown();
+		}
+
+		check(outputs.equals(List.of("Output = 42", "Output = 42", "Output = 7", "Output = 7")),
+				"printed " + outputs);
+		// each process ran the first page, and the last two, of its code
+		check(os.pageFaults == 2 * 3, "page faults " + os.pageFaults);
+		int lastPage = CODE % MemoryController.PAGE_SIZE;
+		check(os.pagedInWords == 2 * (2 * MemoryController.PAGE_SIZE + lastPage),
+				"paged in " + os.pagedInWords + " words");
+	}
+
+	private static Program program() {
+		ProgramBuilder builder = new ProgramBuilder();
+		builder.size(DATA.length);
+		builder.load(CODE);
+		builder.add(CODE + 1);
+		builder.output();
+		builder.jmp(8 + GAP);
+		for (int i = 0; i < GAP / 2; i++) {
+			builder.inca();
+		}
+		builder.loadi(7);
+		builder.output();
+		// build adds the END
+		return builder.build();
+	}
+
+	private static List<String> outputs(ByteArrayOutputStream output) {
+		List<String> outputs = new ArrayList<>();
+		for (String line : output.toString().split("\n")) {
+			if (line.startsWith("Output = ")) {
+				outputs.add(line.trim());
+			}
+		}
+		outputs.sort(null);
+		return outputs;
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package s340.software;
+
+/*
+ * The executable file format. A file starts with a header of HEADER_SIZE
+ * words -- MAGIC, the start address, and the sizes of the code, the
+ * initialized data and the BSS -- followed by the code and then the
+ * initialized data. A program is laid out in memory the same way, with the
+ * BSS, which is not in the file, zeroed after the data.
+ *
+ * The operating system reads the data when it starts a program, but only
+ * brings in a page of code when the program first runs an instruction on it,
+ * so starting a large program costs the code it actually uses.
+ */
+
+public class Executable {
+
+	public static final int MAGIC = 0x53333445;
+
+	// the header
+	public static final int HEADER_SIZE = 5;
+	public static final int H_MAGIC = 0;
+	public static final int H_START = 1;
+	public static final int H_CODE = 2;
+	public static final int H_DATA = 3;
+	public static final int H_BSS = 4;
+
+	// the file it is in, and its header
+
+	private final int file;
+	private final int start;
+	private final int codeSize;
+	private final int dataSize;
+	private final int bssSize;
+
+	private Executable(int file, int start, int codeSize, int dataSize, int bssSize) {
+		this.file = file;
+		this.start = start;
+		this.codeSize = codeSize;
+		this.dataSize = dataSize;
+		this.bssSize = bssSize;
+	}
+
+	/*
+	 * Read an executable's header.
+	 *
+	 * @param file -- the inode of the file it was read from.
+	 *
+	 * @param fileSize -- the size of the file.
+	 *
+	 * @return the executable, or null if the header is not one, or the file is
+	 * too short for it.
+	 */
+
+	public static Executable parse(int file, int[] header, int fileSize) {
+		if (header[H_MAGIC] != MAGIC || header[H_CODE] < 0 || header[H_DATA] < 0 || header[H_BSS] < 0
+				|| (long) HEADER_SIZE + header[H_CODE] + header[H_DATA] > fileSize) {
+			return null;
+		}
+		return new Executable(file, header[H_START], header[H_CODE], header[H_DATA], header[H_BSS]);
+	}
+
+	/*
+	 * The executable file for a program, whose memory after the code is all
+	 * BSS.
+	 */
+
+	public static int[] image(Program program) {
+		return image(program, new int[0]);
+	}
+
+	/*
+	 * The executable file for a program, with the words after its code set to
+	 * the given data.
+	 */
+
+	public static int[] image(Program program, int[] data) {
+		int[] code = program.getCode();
+		if (data.length > program.getDataSize()) {
+			throw new IllegalArgumentException("More data than the program has room for : " + data.length);
+		}
+		int[] image = new int[HEADER_SIZE + code.length + data.length];
+		image[H_MAGIC] = MAGIC;
+		image[H_START] = program.getStart();
+		image[H_CODE] = code.length;
+		image[H_DATA] = data.length;
+		image[H_BSS] = program.getDataSize() - data.length;
+		System.arraycopy(code, 0, image, HEADER_SIZE, code.length);
+		System.arraycopy(data, 0, image, HEADER_SIZE + code.length, data.length);
+		return image;
+	}
+
+	public int getFile() {
+		return file;
+	}
+
+	public int getStart() {
+		return start;
+	}
+
+	public int getCodeSize() {
+		return codeSize;
+	}
+
+	public int getDataSize() {
+		return dataSize;
+	}
+
+	public int getBssSize() {
+		return bssSize;
+	}
+
+	/*
+	 * The words of memory the program needs.
+	 */
+
+	public int getMemorySize() {
+		return codeSize + dataSize + bssSize;
+	}
+}
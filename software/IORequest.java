@@ -1,40 +1,128 @@
 package s340.software;
 
 import s340.hardware.DeviceControllerOperations;
+import s340.hardware.device.Disk;
 
 public class IORequest {
 
+	// the process number of requests the operating system makes for itself.
+	// Their memory address is physical.
+	public static final int KERNEL = -1;
+
 	int operation;
 	int processNum;
-	int count;
-	int total;
 
-	public IORequest(int operation, int processNum, int count, int total) {
+	// the parameters of the system call, decoded from the process's parameter
+	// block when the request is made so nothing has to go back to guest
+	// memory to schedule or start it.
+	int device;
+	int platter;
+	int start;
+	int length;
+	int memory;
+
+	// the value a console request writes
+	int value;
+
+	// requests made through a process's I/O ring complete by posting the user
+	// value to its completion ring rather than waking the process
+	boolean async;
+	int userData;
+
+	// the device command carrying this request
+	int tag;
+
+	// a piece of a request on a logical volume points back at it, and the
+	// request counts the pieces still outstanding
+	IORequest parent;
+	int pieces;
+
+	// what to do when a kernel request completes
+	Runnable onComplete;
+
+	// when the request was queued, and when its device started on it
+	long submitTime;
+	long startTime;
+
+	// set if the device could not carry the request out, or, for a volume
+	// request, any of its pieces
+	boolean failed;
+
+	public IORequest(int operation, int processNum, int device, int platter, int start, int length, int memory) {
 		super();
 		this.operation = operation;
 		this.processNum = processNum;
-		this.count = count;
-		this.total = total;
+		this.device = device;
+		this.platter = platter;
+		this.start = start;
+		this.length = length;
+		this.memory = memory;
+		this.submitTime = System.nanoTime();
 
 	}
-	
-	public int getCount() {
-		return count;
+
+	/*
+	 * A request to write a value to a console.
+	 */
+
+	public static IORequest console(int processNum, int device, int value) {
+		IORequest request = new IORequest(DeviceControllerOperations.WRITE, processNum, device, 0, 0, 1, 0);
+		request.value = value;
+		return request;
 	}
 
-	public void setCount(int count) {
-		this.count = count;
+	/*
+	 * A request the operating system makes for itself, to or from kernel
+	 * memory.
+	 *
+	 * @param position -- the linear disk address.
+	 * @param address -- the physical memory address.
+	 */
+
+	public static IORequest kernel(int operation, int device, int position, int length, int address,
+			Runnable onComplete) {
+		IORequest request = new IORequest(operation, KERNEL, device, position / Disk.PLATTER_SIZE,
+				position % Disk.PLATTER_SIZE, length, address);
+		request.onComplete = onComplete;
+		return request;
 	}
 
-	public int getTotal() {
-		return total;
+	/*
+	 * Mark the request as submitted through an I/O ring.
+	 */
+
+	public void setAsync(int userData) {
+		this.async = true;
+		this.userData = userData;
 	}
 
-	public void setTotal(int total) {
-		this.total = total;
+	public boolean isAsync() {
+		return async;
 	}
 
+	public int getUserData() {
+		return userData;
+	}
+
+	public boolean isFailed() {
+		return failed;
+	}
 
+	public void setFailed(boolean failed) {
+		this.failed = failed;
+	}
+
+	public int getTag() {
+		return tag;
+	}
+
+	public void setTag(int tag) {
+		this.tag = tag;
+	}
+
+	public IORequest getParent() {
+		return parent;
+	}
 
 	public int getProcessNum() {
 		return processNum;
@@ -52,9 +140,61 @@ public class IORequest {
 		this.operation = opNum;
 	}
 
+	public int getDevice() {
+		return device;
+	}
+
+	public int getPlatter() {
+		return platter;
+	}
+
+	public int getStart() {
+		return start;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	public int getMemory() {
+		return memory;
+	}
+
+	public int getValue() {
+		return value;
+	}
+
+	// the linear disk addresses this request starts at and runs up to, so
+	// requests on different platters are never treated as neighbours
+	public int getPosition() {
+		return platter * Disk.PLATTER_SIZE + start;
+	}
+
+	public int getEnd() {
+		return getPosition() + length;
+	}
+
+	// how many scatter-gather segments the request needs -- one for each
+	// platter it touches
+	public int segmentCount() {
+		return (getEnd() - 1) / Disk.PLATTER_SIZE - getPosition() / Disk.PLATTER_SIZE + 1;
+	}
+
+	public long getSubmitTime() {
+		return submitTime;
+	}
+
+	public long getStartTime() {
+		return startTime;
+	}
+
+	public void setStartTime(long startTime) {
+		this.startTime = startTime;
+	}
+
 	@Override
 	public String toString() {
-		return "IOR[OP=" + (operation == DeviceControllerOperations.READ ? "R" : "W") +"("+count+"/"+total+"), PNum= " + processNum + "]";
+		return "IOR[OP=" + (operation == DeviceControllerOperations.READ ? "R" : "W") +"("+getPosition()+"+"+length+"), PNum= " + processNum + "]";
 	}
 
 }
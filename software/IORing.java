@@ -0,0 +1,204 @@
+package s340.software;
+
+import java.util.LinkedList;
+
+import s340.hardware.IMemoryController;
+import s340.hardware.exception.MemoryFault;
+
+/*
+ * A submission ring and a completion ring that a process keeps in its own
+ * memory, so it can queue many I/O operations with one IO_ENTER system call
+ * and collect the results without blocking.
+ *
+ * The header, at the address given to IO_SETUP, is seven words:
+ *
+ *   SQ_TAIL    -- next submission slot the process will fill (process writes)
+ *   SQ_HEAD    -- next submission slot the kernel will take (kernel writes)
+ *   CQ_TAIL    -- next completion slot the kernel will fill (kernel writes)
+ *   CQ_HEAD    -- next completion slot the process will read (process writes)
+ *   ENTRIES    -- number of slots in each ring
+ *   SQ_ADDRESS -- address of the submission ring
+ *   CQ_ADDRESS -- address of the completion ring
+ *
+ * Heads and tails count up forever; slot n is at n % ENTRIES.
+ *
+ * A submission is seven words -- system call (READ, WRITE or WRITE_CONSOLE),
+ * device, platter, platter start, length, memory address and a user value that
+ * comes back in the completion. A console write prints the word at the memory
+ * address. A completion is two words -- the user value and a result, 0 if the
+ * operation finished and -1 if it was rejected.
+ *
+ * The memory controller must already be pointing at the owning process when
+ * any of these methods are called.
+ */
+
+public class IORing {
+
+	public static final int SQ_TAIL = 0;
+	public static final int SQ_HEAD = 1;
+	public static final int CQ_TAIL = 2;
+	public static final int CQ_HEAD = 3;
+	public static final int ENTRIES = 4;
+	public static final int SQ_ADDRESS = 5;
+	public static final int CQ_ADDRESS = 6;
+	public static final int HEADER_SIZE = 7;
+
+	public static final int SQE_SIZE = 7;
+	public static final int CQE_SIZE = 2;
+
+	public static final int SUCCESS = 0;
+	public static final int FAILED = -1;
+
+	private final int header;
+	private final int entries;
+	private final int sq;
+	private final int cq;
+
+	// the kernel's own copies of the counters it owns
+	private int sqHead;
+	private int cqTail;
+
+	// operations submitted but not yet completed, and how many completions the
+	// process is blocked waiting for
+	int inFlight;
+	int waitFor;
+
+	// completions that did not fit because the process had not emptied the
+	// completion ring
+	private final LinkedList<int[]> overflow = new LinkedList<>();
+
+	private IORing(int header, int entries, int sq, int cq, int sqHead, int cqTail) {
+		this.header = header;
+		this.entries = entries;
+		this.sq = sq;
+		this.cq = cq;
+		this.sqHead = sqHead;
+		this.cqTail = cqTail;
+	}
+
+	/*
+	 * Read a ring header from memory, or return null if the rings do not fit
+	 * inside the process.
+	 */
+
+	public static IORing setup(IMemoryController memory, int header, int limit) throws MemoryFault {
+		if (header < 0 || header + HEADER_SIZE > limit) {
+			return null;
+		}
+		int entries = memory.load(header + ENTRIES);
+		int sq = memory.load(header + SQ_ADDRESS);
+		int cq = memory.load(header + CQ_ADDRESS);
+		if (entries <= 0 || sq < 0 || sq + entries * SQE_SIZE > limit || cq < 0 || cq + entries * CQE_SIZE > limit) {
+			return null;
+		}
+		IORing ring = new IORing(header, entries, sq, cq, memory.load(header + SQ_TAIL),
+				memory.load(header + CQ_HEAD));
+		memory.store(header + SQ_HEAD, ring.sqHead);
+		memory.store(header + CQ_TAIL, ring.cqTail);
+		return ring;
+	}
+
+	/*
+	 * Pick up rings that were set up before, from their header, for a process
+	 * restored from a snapshot. Unlike setup, submissions the kernel has not
+	 * taken yet stay in the ring.
+	 */
+
+	public static IORing reopen(IMemoryController memory, int header, int limit) throws MemoryFault {
+		if (header < 0 || header + HEADER_SIZE > limit) {
+			return null;
+		}
+		int sqHead = memory.load(header + SQ_HEAD);
+		int cqTail = memory.load(header + CQ_TAIL);
+		IORing ring = setup(memory, header, limit);
+		if (ring != null) {
+			ring.sqHead = sqHead;
+			ring.cqTail = cqTail;
+			memory.store(header + SQ_HEAD, sqHead);
+			memory.store(header + CQ_TAIL, cqTail);
+		}
+		return ring;
+	}
+
+	// the address of the header
+
+	public int getHeader() {
+		return header;
+	}
+
+	/*
+	 * True if nothing is in flight, held back or waited for, so the rings are
+	 * all in the process's memory.
+	 */
+
+	public boolean isIdle() {
+		return inFlight == 0 && waitFor == 0 && overflow.isEmpty();
+	}
+
+	/*
+	 * Take every submission the process has added since the last call. At
+	 * most one ring's worth is taken, whatever the process wrote to SQ_TAIL.
+	 */
+
+	public LinkedList<int[]> takeSubmissions(IMemoryController memory) throws MemoryFault {
+		LinkedList<int[]> submissions = new LinkedList<>();
+		int tail = memory.load(header + SQ_TAIL);
+		int count = Math.min(tail - sqHead, entries);
+		for (int i = 0; i < count; i++) {
+			int slot = sq + Math.floorMod(sqHead + i, entries) * SQE_SIZE;
+			int[] sqe = new int[SQE_SIZE];
+			for (int j = 0; j < SQE_SIZE; j++) {
+				sqe[j] = memory.load(slot + j);
+			}
+			submissions.add(sqe);
+		}
+		sqHead += Math.max(count, 0);
+		memory.store(header + SQ_HEAD, sqHead);
+		return submissions;
+	}
+
+	/*
+	 * Post a completion, or hold it back if the completion ring is full. If
+	 * the rings are no longer inside the process, the completion is held back
+	 * as FAILED, since the process never saw it finish, and the fault is
+	 * passed on.
+	 */
+
+	public void complete(IMemoryController memory, int userData, int result) throws MemoryFault {
+		int[] cqe = { userData, result };
+		overflow.add(cqe);
+		try {
+			flush(memory);
+		} catch (MemoryFault e) {
+			cqe[1] = FAILED;
+			throw e;
+		}
+	}
+
+	/*
+	 * Move held-back completions into the ring as far as there is room.
+	 */
+
+	public void flush(IMemoryController memory) throws MemoryFault {
+		int head = memory.load(header + CQ_HEAD);
+		while (!overflow.isEmpty() && cqTail - head < entries) {
+			// taken off only once it is in the ring, so a fault loses nothing
+			int[] cqe = overflow.getFirst();
+			int slot = cq + Math.floorMod(cqTail, entries) * CQE_SIZE;
+			memory.store(slot, cqe[0]);
+			memory.store(slot + 1, cqe[1]);
+			overflow.removeFirst();
+			cqTail++;
+		}
+		memory.store(header + CQ_TAIL, cqTail);
+	}
+
+	/*
+	 * Completions posted that the process has not yet consumed, including any
+	 * held back.
+	 */
+
+	public int completionsReady(IMemoryController memory) throws MemoryFault {
+		return cqTail - memory.load(header + CQ_HEAD) + overflow.size();
+	}
+}
@@ -0,0 +1,154 @@
+package s340.software;
+
+import java.util.LinkedList;
+
+import s340.hardware.MemoryController;
+import s340.hardware.exception.MemoryFault;
+
+/*
+ * Checks the I/O rings from both sides -- the process's, by reading and
+ * writing its memory the way a program would, and the kernel's, through
+ * IORing -- as the counters run round the rings many times.
+ */
+
+public class IORingTest {
+
+	private static final int ENTRIES = 4;
+	private static final int SQ = 10;
+	private static final int CQ = 50;
+	private static final int MEMORY = 100;
+
+	public static void main(String[] args) throws MemoryFault {
+		badRings();
+		wraparound();
+		overflow();
+		fault();
+		System.out.println("IORingTest passed");
+	}
+
+	private static void badRings() throws MemoryFault {
+		MemoryController memory = memory();
+		check(IORing.setup(memory, MEMORY - 3, MEMORY) == null, "a header past the end of the process");
+		memory.store(IORing.CQ_ADDRESS, MEMORY - 1);
+		check(IORing.setup(memory, 0, MEMORY) == null, "a completion ring past the end of the process");
+		memory.store(IORing.CQ_ADDRESS, CQ);
+		memory.store(IORing.ENTRIES, 0);
+		check(IORing.setup(memory, 0, MEMORY) == null, "a ring with no entries");
+	}
+
+	/*
+	 * Submit three at a time and complete them, so the slots used move round
+	 * the rings.
+	 */
+
+	private static void wraparound() throws MemoryFault {
+		MemoryController memory = memory();
+		IORing ring = IORing.setup(memory, 0, MEMORY);
+		int user = 1000;
+		for (int round = 0; round < 10; round++) {
+			for (int i = 0; i < 3; i++) {
+				submit(memory, user + i);
+			}
+			LinkedList<int[]> taken = ring.takeSubmissions(memory);
+			check(taken.size() == 3, "round " + round + " took " + taken.size());
+			check(memory.load(IORing.SQ_HEAD) == 3 * (round + 1), "SQ_HEAD " + memory.load(IORing.SQ_HEAD));
+			for (int i = 0; i < 3; i++) {
+				check(taken.get(i)[6] == user + i, "round " + round + " took user value " + taken.get(i)[6]);
+				ring.complete(memory, taken.get(i)[6], IORing.SUCCESS);
+			}
+			check(ring.completionsReady(memory) == 3, "ready " + ring.completionsReady(memory));
+			for (int i = 0; i < 3; i++) {
+				int[] cqe = reap(memory);
+				check(cqe[0] == user + i && cqe[1] == IORing.SUCCESS, "round " + round + " reaped " + cqe[0]);
+			}
+			user += 3;
+		}
+		check(ring.completionsReady(memory) == 0, "completions left over");
+
+		// a process that claims more than a ring's worth only gets one
+		memory.store(IORing.SQ_TAIL, memory.load(IORing.SQ_TAIL) + 10);
+		check(ring.takeSubmissions(memory).size() == ENTRIES, "took more than the ring holds");
+	}
+
+	/*
+	 * Completions that do not fit are held back, in order, until the process
+	 * makes room.
+	 */
+
+	private static void overflow() throws MemoryFault {
+		MemoryController memory = memory();
+		IORing ring = IORing.setup(memory, 0, MEMORY);
+		for (int i = 0; i < 6; i++) {
+			ring.complete(memory, i, i % 2 == 0 ? IORing.SUCCESS : IORing.FAILED);
+		}
+		check(memory.load(IORing.CQ_TAIL) == ENTRIES, "CQ_TAIL " + memory.load(IORing.CQ_TAIL));
+		check(ring.completionsReady(memory) == 6, "ready " + ring.completionsReady(memory));
+		for (int i = 0; i < 3; i++) {
+			check(reap(memory)[0] == i, "reaped out of order");
+		}
+		ring.flush(memory);
+		for (int i = 3; i < 6; i++) {
+			int[] cqe = reap(memory);
+			check(cqe[0] == i && cqe[1] == (i % 2 == 0 ? IORing.SUCCESS : IORing.FAILED), "held back " + i);
+		}
+		check(ring.completionsReady(memory) == 0, "completions left over");
+	}
+
+	/*
+	 * A completion that cannot be posted because the process shrank past its
+	 * rings is held back as failed.
+	 */
+
+	private static void fault() throws MemoryFault {
+		MemoryController memory = memory();
+		IORing ring = IORing.setup(memory, 0, MEMORY);
+		memory.relocate(0, CQ);
+		try {
+			ring.complete(memory, 7, IORing.SUCCESS);
+			throw new AssertionError("posted outside the process");
+		} catch (MemoryFault e) {
+			// expected
+		}
+		memory.relocate(0, MEMORY);
+		ring.flush(memory);
+		int[] cqe = reap(memory);
+		check(cqe[0] == 7 && cqe[1] == IORing.FAILED, "the completion came back as " + cqe[1]);
+	}
+
+	// a process's memory with an empty ring header at 0
+
+	private static MemoryController memory() throws MemoryFault {
+		MemoryController memory = new MemoryController(MEMORY);
+		memory.relocate(0, MEMORY);
+		memory.store(IORing.ENTRIES, ENTRIES);
+		memory.store(IORing.SQ_ADDRESS, SQ);
+		memory.store(IORing.CQ_ADDRESS, CQ);
+		return memory;
+	}
+
+	// what a program does to queue a console write
+
+	private static void submit(MemoryController memory, int user) throws MemoryFault {
+		int tail = memory.load(IORing.SQ_TAIL);
+		int slot = SQ + tail % ENTRIES * IORing.SQE_SIZE;
+		memory.store(slot, SystemCall.WRITE_CONSOLE);
+		memory.store(slot + 6, user);
+		memory.store(IORing.SQ_TAIL, tail + 1);
+	}
+
+	// and to take a completion
+
+	private static int[] reap(MemoryController memory) throws MemoryFault {
+		int head = memory.load(IORing.CQ_HEAD);
+		check(head < memory.load(IORing.CQ_TAIL), "nothing to reap");
+		int slot = CQ + head % ENTRIES * IORing.CQE_SIZE;
+		memory.store(IORing.CQ_HEAD, head + 1);
+		return new int[] { memory.load(slot), memory.load(slot + 1) };
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package s340.software;
+
+import java.util.concurrent.CompletableFuture;
+
+/*
+ * A program submitted to run, from the time it is submitted until its process
+ * ends.
+ *
+ * The job waits in the job queue until there is a process and memory for it.
+ * Its future completes with the job itself when the process ends, on the
+ * CPU's thread, so anything chained to it should be brief.
+ */
+
+public class Job {
+
+	private final Program program;
+	private final int nice;
+
+	// the order jobs were submitted in, which breaks ties between them
+
+	final long sequence;
+
+	// when the job was submitted, admitted and ended, in nanoseconds, and the
+	// process it ran as
+
+	private final long submitTime;
+	private long admitTime;
+	private long endTime;
+	private int pid = -1;
+	private long cpuTime;
+
+	private final CompletableFuture<Job> exit = new CompletableFuture<>();
+
+	Job(Program program, int nice, long sequence) {
+		this.program = program;
+		this.nice = nice;
+		this.sequence = sequence;
+		submitTime = System.nanoTime();
+	}
+
+	void admitted(int pid) {
+		this.pid = pid;
+		admitTime = System.nanoTime();
+	}
+
+	void ended(long cpuTime) {
+		this.cpuTime = cpuTime;
+		endTime = System.nanoTime();
+		exit.complete(this);
+	}
+
+	void failed(Throwable cause) {
+		endTime = System.nanoTime();
+		exit.completeExceptionally(cause);
+	}
+
+	public Program getProgram() {
+		return program;
+	}
+
+	public int getNice() {
+		return nice;
+	}
+
+	/*
+	 * The words of memory the program needs.
+	 */
+
+	public int getSize() {
+		return program.getCode().length + program.getDataSize();
+	}
+
+	public int getPid() {
+		return pid;
+	}
+
+	public long getCpuTime() {
+		return cpuTime;
+	}
+
+	/*
+	 * Nanoseconds spent in the job queue.
+	 */
+
+	public long getQueueTime() {
+		return admitTime - submitTime;
+	}
+
+	/*
+	 * Nanoseconds from submission to the end of the process.
+	 */
+
+	public long getTurnaroundTime() {
+		return endTime - submitTime;
+	}
+
+	/*
+	 * Completes with this job when its process ends.
+	 */
+
+	public CompletableFuture<Job> getExit() {
+		return exit;
+	}
+
+	@Override
+	public String toString() {
+		return "Job[pid=" + pid + ", size=" + getSize() + ", nice=" + nice + "]";
+	}
+}
@@ -0,0 +1,118 @@
+package s340.software;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/*
+ * Jobs waiting for a process and memory. The queue is bounded: once it is
+ * full, submit refuses jobs until some are admitted, which pushes back on
+ * whoever is submitting them.
+ *
+ * Jobs may be submitted from any thread, while the operating system admits
+ * them on the CPU's thread, so the queue is synchronized.
+ */
+
+public class JobQueue {
+
+	private final AdmissionPolicy policy;
+	private final int capacity;
+	private final PriorityQueue<Job> jobs;
+	private long nextSequence;
+
+	// jobs submitted, refused because the queue was full or they could never
+	// fit in memory, and admitted
+
+	private long submitted;
+	private long refused;
+	private long admitted;
+
+	/*
+	 * @param policy -- the order jobs are admitted in.
+	 *
+	 * @param capacity -- the most jobs that can wait.
+	 */
+
+	public JobQueue(AdmissionPolicy policy, int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Bad job queue capacity : " + capacity);
+		}
+		this.policy = policy;
+		this.capacity = capacity;
+		jobs = new PriorityQueue<>(policy.order());
+	}
+
+	/*
+	 * Queue a program to run.
+	 *
+	 * @return the job, or null if the queue is full.
+	 */
+
+	public synchronized Job submit(Program program, int nice) {
+		if (jobs.size() == capacity) {
+			refused++;
+			return null;
+		}
+		Job job = new Job(program, nice, nextSequence++);
+		jobs.add(job);
+		submitted++;
+		return job;
+	}
+
+	/*
+	 * The job to admit next, or null if there is none.
+	 */
+
+	public synchronized Job peek() {
+		return jobs.peek();
+	}
+
+	/*
+	 * Take the job to admit next off the queue.
+	 */
+
+	public synchronized Job admit() {
+		Job job = jobs.poll();
+		if (job != null) {
+			admitted++;
+		}
+		return job;
+	}
+
+	/*
+	 * Take the job to admit next off the queue without admitting it, because
+	 * it can never run, and count it as refused.
+	 */
+
+	public synchronized Job refuse() {
+		Job job = jobs.poll();
+		if (job != null) {
+			refused++;
+		}
+		return job;
+	}
+
+	/*
+	 * Take every job off the queue.
+	 */
+
+	public synchronized List<Job> removeAll() {
+		List<Job> removed = new ArrayList<>(jobs);
+		jobs.clear();
+		return removed;
+	}
+
+	public synchronized int size() {
+		return jobs.size();
+	}
+
+	public synchronized boolean isEmpty() {
+		return jobs.isEmpty();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return policy + " jobs waiting=" + jobs.size() + "/" + capacity + ", submitted=" + submitted + ", refused="
+				+ refused + ", admitted=" + admitted;
+	}
+}
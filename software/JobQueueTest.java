@@ -0,0 +1,114 @@
+package s340.software;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import s340.hardware.Machine;
+
+/*
+ * Checks the order each admission policy takes jobs in, that a full queue
+ * pushes back, and that a job too large for memory fails rather than holding
+ * up the jobs behind it.
+ */
+
+public class JobQueueTest {
+
+	public static void main(String[] args) throws Exception {
+		order(AdmissionPolicy.FIFO, 0, 1, 2, 3);
+		order(AdmissionPolicy.SHORTEST_JOB_FIRST, 2, 1, 3, 0);
+		order(AdmissionPolicy.SHORTEST_CODE_FIRST, 3, 1, 0, 2);
+		backpressure();
+		tooLarge();
+		System.out.println("JobQueueTest passed");
+	}
+
+	/*
+	 * Four jobs, submitted in order, with data sizes 40, 20, 10, 20 and code
+	 * lengths 6, 4, 8, 2. Ties go to the job submitted first.
+	 */
+
+	private static void order(AdmissionPolicy policy, int... expected) {
+		int[] dataSizes = { 40, 20, 10, 20 };
+		int[] codeLengths = { 6, 4, 8, 2 };
+		JobQueue queue = new JobQueue(policy, 10);
+		Job[] jobs = new Job[dataSizes.length];
+		for (int i = 0; i < jobs.length; i++) {
+			jobs[i] = queue.submit(program(dataSizes[i], codeLengths[i]), 0);
+		}
+		for (int i : expected) {
+			check(queue.peek() == jobs[i], policy + " peeked " + queue.peek() + ", not job " + i);
+			check(queue.admit() == jobs[i], policy + " did not admit job " + i);
+		}
+		check(queue.admit() == null && queue.isEmpty(), policy + " admitted more jobs than it was given");
+		check(queue.toString().equals(policy + " jobs waiting=0/10, submitted=4, refused=0, admitted=4"),
+				queue.toString());
+	}
+
+	/*
+	 * A full queue refuses jobs until one is admitted, and a refused head
+	 * counts as refused rather than admitted.
+	 */
+
+	private static void backpressure() {
+		JobQueue queue = new JobQueue(AdmissionPolicy.FIFO, 2);
+		Job first = queue.submit(program(10, 2), 0);
+		check(queue.submit(program(10, 2), 0) != null, "refused a job with room for it");
+		check(queue.submit(program(10, 2), 0) == null, "took a job into a full queue");
+		check(queue.size() == 2, "size " + queue.size());
+		check(queue.refuse() == first, "refused some other job than the head");
+		check(queue.submit(program(10, 2), 0) != null, "still full after a job left");
+		check(queue.toString().equals("FIFO jobs waiting=2/2, submitted=3, refused=2, admitted=0"), queue.toString());
+		check(queue.removeAll().size() == 2 && queue.isEmpty(), "removeAll left jobs");
+	}
+
+	/*
+	 * On a running machine, a job larger than memory fails straight away and
+	 * the job behind it runs.
+	 */
+
+	private static void tooLarge() throws Exception {
+		Machine machine = new Machine();
+		OperatingSystem os = new OperatingSystem(machine);
+		machine.powerUp(os);
+		JobQueue queue = new JobQueue(AdmissionPolicy.FIFO, 10);
+		os.setJobQueue(queue);
+		try {
+			Job large = os.submit(0, program(machine.MEMORY_SIZE, 2));
+			Job small = os.submit(0, program(10, 2));
+			check(large != null && small != null, "jobs were refused");
+			small.getExit().get(5, TimeUnit.SECONDS);
+			check(failed(large.getExit()), "the large job did not fail");
+			check(queue.toString().endsWith("refused=1, admitted=1"), queue.toString());
+		} finally {
+			machine.powerDown();
+		}
+	}
+
+	private static boolean failed(CompletableFuture<Job> exit) throws Exception {
+		try {
+			exit.get(5, TimeUnit.SECONDS);
+		} catch (ExecutionException ex) {
+			return true;
+		}
+		return false;
+	}
+
+	// a program that ends straight away, with code of the given length
+
+	private static Program program(int dataSize, int codeLength) {
+		ProgramBuilder builder = new ProgramBuilder();
+		builder.size(dataSize);
+		for (int i = 2; i < codeLength; i += 2) {
+			builder.inca();
+		}
+		builder.end();
+		return builder.build();
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package s340.software;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * A latency histogram with logarithmic buckets.
+ *
+ * Each power of two is split into 16 linear sub-buckets, so any percentile is
+ * reported to within about 6% of the true value while the histogram stays a
+ * fixed size no matter how many samples are recorded.
+ *
+ * Recording takes no locks, so samples can be recorded on one thread while
+ * another reads the histogram. A reading taken meanwhile may be a sample or
+ * two behind.
+ */
+
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int NUM_BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	/*
+	 * Record one sample, in nanoseconds.
+	 */
+
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		buckets.incrementAndGet(bucket(nanos));
+		count.increment();
+		sum.add(nanos);
+		if (nanos > max.get()) {
+			max.accumulateAndGet(nanos, Math::max);
+		}
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public long getMean() {
+		long n = count.sum();
+		return n == 0 ? 0 : sum.sum() / n;
+	}
+
+	/*
+	 * The smallest recorded value that at least the given percentage of
+	 * samples are less than or equal to.
+	 *
+	 * @param percentile -- between 0 and 100.
+	 */
+
+	public long percentile(double percentile) {
+		long n = count.sum();
+		if (n == 0) {
+			return 0;
+		}
+		long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+		long seen = 0;
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			seen += buckets.get(i);
+			if (seen >= target) {
+				return Math.min(upperBound(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	private static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int mantissa = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + mantissa;
+	}
+
+	private static long upperBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long mantissa = bucket % SUB_BUCKETS;
+		long width = 1L << (exponent - SUB_BUCKET_BITS);
+		return ((SUB_BUCKETS + mantissa) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("n=%d p50=%dus p90=%dus p99=%dus max=%dus", getCount(), percentile(50) / 1000,
+				percentile(90) / 1000, percentile(99) / 1000, getMax() / 1000);
+	}
+}
@@ -0,0 +1,68 @@
+package s340.software;
+
+/*
+ * Checks that percentiles come out within the histogram's stated error, and
+ * exactly for values small enough to have buckets of their own.
+ */
+
+public class LatencyHistogramTest {
+
+	public static void main(String[] args) {
+		empty();
+		small();
+		spread();
+		System.out.println("LatencyHistogramTest passed");
+	}
+
+	private static void empty() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		check(histogram.percentile(50) == 0 && histogram.getMean() == 0 && histogram.getMax() == 0,
+				"an empty histogram " + histogram);
+	}
+
+	/*
+	 * Below 16 every value has a bucket to itself, and a negative sample
+	 * counts as 0.
+	 */
+
+	private static void small() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(-5);
+		for (int value = 1; value < 16; value++) {
+			histogram.record(value);
+		}
+		check(histogram.getCount() == 16, "count " + histogram.getCount());
+		check(histogram.percentile(0) == 0, "p0 " + histogram.percentile(0));
+		check(histogram.percentile(50) == 7, "p50 " + histogram.percentile(50));
+		check(histogram.percentile(100) == 15, "p100 " + histogram.percentile(100));
+		check(histogram.getMean() == 7, "mean " + histogram.getMean());
+	}
+
+	/*
+	 * A million samples from 1 to 1000000, one of each, against the true
+	 * percentiles.
+	 */
+
+	private static void spread() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		int n = 1000000;
+		for (int value = 1; value <= n; value++) {
+			histogram.record(value);
+		}
+		for (double percentile : new double[] { 1, 50, 90, 99, 99.9 }) {
+			long exact = (long) Math.ceil(percentile / 100 * n);
+			long reported = histogram.percentile(percentile);
+			check(reported >= exact && reported <= exact * 1.0625,
+					"p" + percentile + " is " + reported + " not about " + exact);
+		}
+		check(histogram.percentile(100) == n, "p100 " + histogram.percentile(100));
+		check(histogram.getMax() == n, "max " + histogram.getMax());
+		check(histogram.getMean() == (n + 1L) / 2, "mean " + histogram.getMean());
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}
@@ -1,99 +1,1428 @@
 package s340.software;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import s340.hardware.CPU;
+import s340.hardware.DeviceCommand;
 import s340.hardware.DeviceControllerOperations;
 import s340.hardware.IInterruptHandler;
 import s340.hardware.ISystemCallHandler;
 import s340.hardware.ITrapHandler;
 import s340.hardware.Machine;
 import s340.hardware.MemoryController;
+import s340.hardware.RegisterState;
 import s340.hardware.Trap;
 import s340.hardware.device.Disk;
 import s340.hardware.exception.MemoryFault;
+import s340.software.disk.DiskScheduler;
+import s340.software.disk.DiskLoad;
+import s340.software.disk.DiskSchedulingPolicy;
+import s340.software.disk.LogicalVolume;
+import s340.software.disk.MirroredVolume;
+import s340.software.fs.FileBuffer;
+import s340.software.fs.FileCache;
+import s340.software.fs.FileSystem;
+import s340.software.fs.OpenFile;
+import s340.software.log.Category;
+import s340.software.log.KernelLog;
+import s340.software.log.Level;
+import s340.software.sched.EdfScheduler;
+import s340.software.sched.MlfqScheduler;
+import s340.software.sched.ProcessScheduler;
+import s340.software.stats.DeviceStats;
+import s340.software.stats.SystemStats;
+
+/*
+ * The operating system that controls the software running on the S340 CPU.
+ *
+ * The operating system acts as an interrupt handler, a system call handler, and
+ * a trap handler.
+ */
+
+public class OperatingSystem implements IInterruptHandler, ISystemCallHandler, ITrapHandler {
+	// the process table, which grows as needed up to MAX_NUM_PROCESSES.
+	// position is -1 while the wait process runs
+	public final ProcessTable process_table;
+	public static final int INITIAL_NUM_PROCESSES = 16;
+	public static final int MAX_NUM_PROCESSES = 1 << 16;
+	public int process_table_position = -1;
+
+	// processes that have ended with ring operations still in flight. They
+	// keep their slot and memory until those finish.
+	private int endedWithIO;
+
+	// the swap area, if there is one, processes waiting to be swapped in, and
+	// whether an image is on its way to or from the swap disk
+
+	private SwapSpace swapSpace;
+
+	// pages of code brought in when a program first ran them, and their
+	// words
+
+	public long pageFaults;
+	public long pagedInWords;
+
+	// programs waiting for a process and memory
+
+	public static final int JOB_QUEUE_CAPACITY = 1 << 16;
+	private JobQueue jobQueue = new JobQueue(AdmissionPolicy.FIFO, JOB_QUEUE_CAPACITY);
+	private volatile boolean jobsSubmitted;
+
+	// work other threads have handed to the CPU's thread since programs
+	// started running, done at its next timer trap, or cancelled if the
+	// machine stops first
+
+	private final ConcurrentLinkedQueue<FutureTask<?>> deferred = new ConcurrentLinkedQueue<>();
+	private volatile boolean halted;
+	private final ArrayDeque<ProcessControlBlock> swapIn = new ArrayDeque<>();
+	private boolean swapBusy;
+	public long swapOuts;
+	public long swapIns;
+	public int[] headPosition;
+
+	// the processes that are ready to run, and the policy choosing between
+	// them. By default a multi-level feedback queue whose quanta double at
+	// each level, boosting everyone back to the top every BOOST_INTERVAL
+	// instructions.
+
+	public static final int[] MLFQ_QUANTA = { CPU.INSTRUCTIONS_PER_INTERRUPT, 2 * CPU.INSTRUCTIONS_PER_INTERRUPT,
+			4 * CPU.INSTRUCTIONS_PER_INTERRUPT };
+	public static final long BOOST_INTERVAL = 1000;
+	private ProcessScheduler processScheduler;
+
+	// real-time processes, which run ahead of everything else, and the share
+	// of the CPU they may reserve between them
+
+	public static final double MAX_REAL_TIME_UTILIZATION = 0.9;
+	private final EdfScheduler realTimeScheduler;
+
+	// the CPU's instruction count when the running process was last charged
+	// for the instructions it ran
+
+	private long dispatchedAt;
+
+	// whether the running process's slice is shorter than the quantum its
+	// scheduler gave it, to stop in time for a real-time release
+
+	private boolean sliceCut;
+
+	// the registers of the wait process, which sits at the bottom of memory
+
+	private static final RegisterState WAIT_REGISTERS = new RegisterState();
+	static {
+		WAIT_REGISTERS.limit = 4;
+	}
+
+	// counters for the system and for each device, which JMX can read
+
+	public final SystemStats stats;
+	private final DeviceStats[] deviceStats;
+
+	// what the operating system has to say, printed by a thread of its own.
+	// Nothing is printed unless the s340.log property, "WARN" for example,
+	// or a call to the log turns it on.
+
+	public final KernelLog log;
+
+	// the machine on which we are running.
+
+	private final Machine machine;
+
+	// creating the free space list
+	private LinkedList<FreeSpace> freeSpaceList = new LinkedList<>();
+
+	// creates queues depending on the number of devices
+
+	public LinkedList<IORequest>[] Q;
+
+	// requests waiting for each disk, ordered by that disk's scheduling
+	// policy. Q holds only the requests the disk is working on.
+
+	public DiskScheduler[] diskScheduler;
+
+	// commands started on each disk, and requests that rode along on an
+	// operation started for another request
+
+	public long[] diskOperations;
+	public long[] mergedRequests;
+
+	// tagged commands each disk is working on, and the tag for its next one
+
+	public int[] outstanding;
+	private int[] nextTag;
+
+	// logical volumes, numbered after the machine's own devices
+
+	private final List<LogicalVolume> volumes = new ArrayList<>();
+
+	// how busy each disk is, for volumes choosing between their members
+
+	private final DiskLoad diskLoad = new DiskLoad() {
+		public int headPosition(int deviceNum) {
+			return headPosition[deviceNum];
+		}
+
+		public int queueLength(int deviceNum) {
+			return diskScheduler[deviceNum].size() + Q[deviceNum].size();
+		}
+	};
+
+	// memory at the top of the machine that processes never get, for the
+	// operating system's own disk transfers -- a buffer for copying between
+	// disks, then the file system's metadata, then the file buffers, then
+	// the headers of executables being started
+
+	public static final int KERNEL_BUFFER_SIZE = Disk.PLATTER_SIZE;
+	public static final int EXEC_HEADERS = 4;
+	public static final int KERNEL_MEMORY_SIZE = KERNEL_BUFFER_SIZE + FileSystem.CACHE_SIZE + FileCache.MEMORY_SIZE
+			+ EXEC_HEADERS * Executable.HEADER_SIZE;
+	private final int kernelBuffer;
+	private final int fileSystemBuffer;
+	private final int execHeaderBuffer;
+	private final boolean[] execHeaderBusy = new boolean[EXEC_HEADERS];
+
+	// the mounted file system, the disk it is on, and the parts of files read
+	// ahead or written behind
+
+	private FileSystem fileSystem;
+	private int fileSystemDevice = -1;
+	private final FileCache fileCache;
+
+	// the mirror being rebuilt, how fast, and when its next chunk may start
+
+	private MirroredVolume rebuildVolume;
+	private long rebuildNanosPerWord;
+	private long nextRebuildTime;
+	private boolean rebuildBusy;
+
+	/*
+	 * Create an operating system on the given machine. giving the process table
+	 * a size and filled with pcbs
+	 */
+
+	public OperatingSystem(Machine machine) throws MemoryFault {
+		this.machine = machine;
+		process_table = new ProcessTable(INITIAL_NUM_PROCESSES, MAX_NUM_PROCESSES);
+		stats = new SystemStats(process_table::processes);
+		log = new KernelLog(machine.out);
+		log.configure(System.getProperty("s340.log", ""));
+		processScheduler = new MlfqScheduler(MLFQ_QUANTA, BOOST_INTERVAL, machine.cpu::getTotalInstructions);
+		realTimeScheduler = new EdfScheduler(MAX_REAL_TIME_UTILIZATION, machine.cpu::getTotalInstructions);
+		kernelBuffer = machine.MEMORY_SIZE - KERNEL_MEMORY_SIZE;
+		fileSystemBuffer = kernelBuffer + KERNEL_BUFFER_SIZE;
+		fileCache = new FileCache(fileSystemBuffer + FileSystem.CACHE_SIZE);
+		execHeaderBuffer = fileSystemBuffer + FileSystem.CACHE_SIZE + FileCache.MEMORY_SIZE;
+		freeSpaceList.add(new FreeSpace(0, kernelBuffer));
+		ProgramBuilder wait = new ProgramBuilder();
+		wait.start(0);
+		wait.jmp(0);
+		Program waitProgram = wait.build();
+		loadProgram(findFreeSpace(waitProgram.getCode().length), waitProgram);
+
+		// one of each per device the machine has
+
+		int numDevices = machine.devices.length;
+		headPosition = new int[numDevices];
+		Q = new LinkedList[numDevices];
+		diskScheduler = new DiskScheduler[numDevices];
+		diskOperations = new long[numDevices];
+		mergedRequests = new long[numDevices];
+		outstanding = new int[numDevices];
+		deviceStats = new DeviceStats[numDevices];
+		nextTag = new int[numDevices];
+
+		for (int i = 0; i < numDevices; i++) {
+			Q[i] = new LinkedList<IORequest>();
+			deviceStats[i] = new DeviceStats();
+			if (machine.devices[i] instanceof Disk) {
+				diskScheduler[i] = DiskSchedulingPolicy.SSTF.create(Disk.NUM_PLATTERS * Disk.PLATTER_SIZE);
+			}
+		}
+
+		//Sets the arm location for the devices at platter start 0
+		for (int i = 0; i < numDevices; i++) {
+			headPosition[i] = 0;
+		}
+	}
+
+	/*
+	 * Register the operating system's counters, and each device's, with the
+	 * platform MBean server, as s340:type=OperatingSystem and
+	 * s340:type=Device,id=n.
+	 */
+
+	public void registerMBeans() {
+		registerMBeans("");
+	}
+
+	/*
+	 * Register the counters with a machine key as well, so that several
+	 * machines in one process can each have theirs.
+	 *
+	 * @throws IllegalStateException -- if they cannot be registered, for
+	 * example because another machine already has the name.
+	 */
+
+	public void registerMBeans(String machineName) {
+		String key = machineName.isEmpty() ? "" : ",machine=" + ObjectName.quote(machineName);
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			server.registerMBean(stats, new ObjectName("s340:type=OperatingSystem" + key));
+			for (int i = 0; i < deviceStats.length; i++) {
+				server.registerMBean(deviceStats[i], new ObjectName("s340:type=Device,id=" + i + key));
+			}
+		} catch (JMException e) {
+			throw new IllegalStateException("Cannot register the counters" + key, e);
+		}
+	}
+
+	/*
+	 * Change the CPU scheduling policy for best-effort processes. Processes
+	 * already waiting to run are handed over to the new scheduler.
+	 */
+
+	public void setProcessScheduler(ProcessScheduler scheduler) {
+		for (ProcessControlBlock pcb : processScheduler.pending()) {
+			scheduler.ready(pcb, ProcessScheduler.Reason.NEW);
+		}
+		processScheduler = scheduler;
+	}
+
+	/*
+	 * Change the scheduling policy of a disk. Requests already waiting for the
+	 * disk are handed over to the new scheduler.
+	 */
+
+	public void setDiskScheduler(int deviceNum, DiskScheduler scheduler) {
+		CheckValid.deviceNumber(machine, deviceNum);
+		if (diskScheduler[deviceNum] == null) {
+			throw new IllegalArgumentException("Not a disk : " + deviceNum);
+		}
+		for (IORequest request : diskScheduler[deviceNum].pending()) {
+			scheduler.add(request);
+		}
+		diskScheduler[deviceNum] = scheduler;
+	}
+
+	/*
+	 * Add a logical volume over some of the disks.
+	 *
+	 * @return the device number processes use for the volume.
+	 */
+
+	public int addVolume(LogicalVolume volume) {
+		for (int member : volume.getMembers()) {
+			CheckValid.deviceNumber(machine, member);
+			if (diskScheduler[member] == null) {
+				throw new IllegalArgumentException("Not a disk : " + member);
+			}
+		}
+		volumes.add(volume);
+		return machine.devices.length + volumes.size() - 1;
+	}
+
+	// the logical volume with the given device number, or null if it is not
+	// one
+
+	private LogicalVolume volume(int deviceNum) {
+		int index = deviceNum - machine.devices.length;
+		return index >= 0 && index < volumes.size() ? volumes.get(index) : null;
+	}
+
+	/*
+	 * Resynchronize a replaced disk of a mirrored volume from the other
+	 * disks, in the background.
+	 *
+	 * @param deviceNum -- the device number of the volume.
+	 * @param member -- the device number of the disk to rebuild.
+	 * @param wordsPerSecond -- the most the rebuild may copy each second.
+	 */
+
+	public void rebuildMirror(int deviceNum, int member, int wordsPerSecond) {
+		if (!(volume(deviceNum) instanceof MirroredVolume)) {
+			throw new IllegalArgumentException("Not a mirrored volume : " + deviceNum);
+		}
+		if (wordsPerSecond <= 0) {
+			throw new IllegalArgumentException("Bad rebuild rate : " + wordsPerSecond);
+		}
+		if (rebuildVolume != null) {
+			throw new IllegalStateException("A mirror is already being rebuilt");
+		}
+		MirroredVolume mirror = (MirroredVolume) volume(deviceNum);
+		mirror.startRebuild(member);
+		rebuildVolume = mirror;
+		rebuildNanosPerWord = 1_000_000_000L / wordsPerSecond;
+		nextRebuildTime = System.nanoTime();
+	}
+
+	/*
+	 * Copy the next chunk of the mirror being rebuilt, if the last one is done
+	 * and the rate allows. Each chunk is read from an up to date disk into the
+	 * kernel buffer, then written from there to the disk being rebuilt.
+	 */
+
+	private void pumpRebuild() {
+		if (rebuildVolume == null || rebuildBusy || System.nanoTime() < nextRebuildTime) {
+			return;
+		}
+		MirroredVolume mirror = rebuildVolume;
+		if (!mirror.isRebuilding()) {
+			if (log.isEnabled(Level.INFO, Category.DISK)) {
+				log.info(Category.DISK, "Rebuilt " + mirror);
+			}
+			rebuildVolume = null;
+			return;
+		}
+		int[] chunk = mirror.nextChunk(KERNEL_BUFFER_SIZE);
+		if (chunk == null) {
+			return;
+		}
+		int target = mirror.getRebuilding();
+		rebuildBusy = true;
+		nextRebuildTime = System.nanoTime() + chunk[1] * rebuildNanosPerWord;
+		submitKernelRequest(IORequest.kernel(DeviceControllerOperations.READ, mirror.source(diskLoad), chunk[0],
+				chunk[1], kernelBuffer, () -> {
+					submitKernelRequest(IORequest.kernel(DeviceControllerOperations.WRITE, target, chunk[0], chunk[1],
+							kernelBuffer, () -> {
+								rebuildBusy = false;
+								mirror.chunkCopied();
+								pumpRebuild();
+							}));
+				}));
+	}
+
+	private void submitKernelRequest(IORequest request) {
+		deviceStats[request.getDevice()].submitted();
+		diskScheduler[request.getDevice()].add(request);
+		startNextDiskRequest(request.getDevice());
+	}
+
+	/*
+	 * Mount the file system on a disk, formatting the disk if it does not hold
+	 * one yet. The metadata is read into the file system's cache here; the
+	 * machine is not running programs yet, so the disk's completions are
+	 * collected directly rather than through interrupts.
+	 */
+
+	public void mount(int deviceNum) {
+		CheckValid.deviceNumber(machine, deviceNum);
+		if (diskScheduler[deviceNum] == null) {
+			throw new IllegalArgumentException("Not a disk : " + deviceNum);
+		}
+		if (machine.cpu.runProg) {
+			throw new IllegalStateException("Mount the file system before scheduling programs");
+		}
+		FileSystem fs = new FileSystem();
+		int[] remaining = { 1 };
+		submitKernelRequest(IORequest.kernel(DeviceControllerOperations.READ, deviceNum, 0,
+				FileSystem.DATA_BLOCK * FileSystem.BLOCK_SIZE, fileSystemBuffer, () -> remaining[0]--));
+		completeNow(deviceNum, remaining);
+		((MemoryController) machine.memory).readPhysical(fileSystemBuffer, fs.getCache(), 0,
+				FileSystem.DATA_BLOCK * FileSystem.BLOCK_SIZE);
+
+		fileSystem = fs;
+		fileSystemDevice = deviceNum;
+		if (!fs.isFormatted()) {
+			log.info(Category.DISK, "Formatting disk %d", deviceNum);
+			fs.format();
+			remaining[0] = flushFileSystem(() -> remaining[0]--);
+			completeNow(deviceNum, remaining);
+			return;
+		}
+
+		// then the root directory
+		for (int slot = FileSystem.DATA_BLOCK; fs.slotBlock(slot) >= 0; slot++) {
+			remaining[0]++;
+			submitKernelRequest(IORequest.kernel(DeviceControllerOperations.READ, deviceNum,
+					fs.slotBlock(slot) * FileSystem.BLOCK_SIZE, FileSystem.BLOCK_SIZE,
+					fileSystemBuffer + slot * FileSystem.BLOCK_SIZE, () -> remaining[0]--));
+		}
+		completeNow(deviceNum, remaining);
+		((MemoryController) machine.memory).readPhysical(fileSystemBuffer, fs.getCache(), 0, FileSystem.CACHE_SIZE);
+	}
+
+	/*
+	 * Write a program to a file in the executable format, creating the file or
+	 * replacing it. Like mount, this is done before programs are scheduled,
+	 * through the kernel's copy buffer.
+	 *
+	 * @return false if there is no room for it.
+	 */
+
+	public boolean install(int name, int[] image) {
+		if (fileSystem == null) {
+			throw new IllegalStateException("No file system is mounted");
+		}
+		if (machine.cpu.runProg) {
+			throw new IllegalStateException("Install programs before scheduling programs");
+		}
+		int inode = fileSystem.lookup(name);
+		if (inode < 0) {
+			inode = fileSystem.create(name);
+		} else {
+			fileSystem.truncate(inode);
+		}
+		List<int[]> runs = inode < 0 ? null : fileSystem.map(inode, 0, image.length);
+		int[] remaining = { 0 };
+		remaining[0] = flushFileSystem(() -> remaining[0]--);
+		completeNow(fileSystemDevice, remaining);
+		if (runs == null) {
+			return false;
+		}
+		for (int[] run : runs) {
+			for (int done = 0; done < run[1]; done += KERNEL_BUFFER_SIZE) {
+				int length = Math.min(KERNEL_BUFFER_SIZE, run[1] - done);
+				((MemoryController) machine.memory).writePhysical(kernelBuffer, image, run[2] + done, length);
+				remaining[0] = 1;
+				submitKernelRequest(IORequest.kernel(DeviceControllerOperations.WRITE, fileSystemDevice,
+						run[0] + done, length, kernelBuffer, () -> remaining[0]--));
+				completeNow(fileSystemDevice, remaining);
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Save the machine to a snapshot file: the CPU's registers, memory, the
+	 * free space list, the mounted file system, the swap area, each disk's
+	 * contents and head, and the processes, in the order they became ready.
+	 * Every process must be ready to run, and nothing may be under way -- no
+	 * I/O, no process waiting, swapped out or real-time, and no jobs waiting
+	 * to be admitted -- since those are in the middle of things that cannot
+	 * be written down. The jobs the processes came from are not saved.
+	 *
+	 * Once programs are running, the snapshot is taken on the CPU's thread at
+	 * its next timer trap, when the process that was running is back on the
+	 * ready queue, and the caller waits for it there.
+	 */
+
+	public void snapshot(Path file) throws IOException {
+		if (!machine.cpu.runProg) {
+			writeSnapshot(file);
+			return;
+		}
+		try {
+			onCpuThread(() -> {
+				writeSnapshot(file);
+				return null;
+			});
+		} catch (CancellationException e) {
+			throw new IllegalStateException("The machine has stopped");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for the snapshot");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw (RuntimeException) e.getCause();
+		}
+	}
+
+	private void writeSnapshot(Path file) throws IOException {
+		checkIdle();
+		int numDevices = machine.devices.length;
+		int size = 2 + 6 + machine.MEMORY_SIZE + 1 + 2 * freeSpaceList.size() + 1 + 3;
+		if (fileSystem != null) {
+			size += 1 + FileSystem.CACHE_SIZE;
+		}
+		for (int i = 0; i < numDevices; i++) {
+			size += machine.devices[i] instanceof Disk ? 3 + Disk.NUM_PLATTERS * Disk.PLATTER_SIZE : 1;
+		}
+		List<ProcessControlBlock> processes = process_table.processes();
+		processes.sort(Comparator.comparingLong(ProcessControlBlock::getStatusTime));
+		size += 1;
+		for (ProcessControlBlock pcb : processes) {
+			size += processWords(pcb);
+		}
+
+		try (Snapshot snapshot = Snapshot.create(file, size)) {
+			snapshot.put(machine.MEMORY_SIZE);
+			snapshot.put(numDevices);
+			snapshot.put(machine.cpu.acc);
+			snapshot.put(machine.cpu.x);
+			snapshot.put(machine.cpu.getPc());
+			snapshot.put(machine.cpu.getQuantum());
+			snapshot.putLong(machine.cpu.getTotalInstructions());
+
+			int[] memory = new int[machine.MEMORY_SIZE];
+			((MemoryController) machine.memory).readPhysical(0, memory, 0, memory.length);
+			snapshot.put(memory);
+
+			snapshot.put(freeSpaceList.size());
+			for (FreeSpace space : freeSpaceList) {
+				snapshot.put(space.getStart());
+				snapshot.put(space.getLength());
+			}
+
+			snapshot.put(fileSystem == null ? -1 : fileSystemDevice);
+			if (fileSystem != null) {
+				snapshot.put(fileSystem.getRotor());
+				snapshot.put(fileSystem.getCache());
+			}
+
+			snapshot.put(swapSpace == null ? -1 : swapSpace.getDevice());
+			snapshot.put(swapSpace == null ? 0 : swapSpace.getStart());
+			snapshot.put(swapSpace == null ? 0 : swapSpace.getSize());
+
+			int[] image = new int[Disk.NUM_PLATTERS * Disk.PLATTER_SIZE];
+			for (int i = 0; i < numDevices; i++) {
+				if (!(machine.devices[i] instanceof Disk)) {
+					snapshot.put(0);
+					continue;
+				}
+				Disk disk = (Disk) machine.devices[i];
+				snapshot.put(1);
+				snapshot.put(headPosition[i]);
+				snapshot.put(disk.getHeadPosition());
+				disk.readImage(image);
+				snapshot.put(image);
+			}
+
+			snapshot.put(processes.size());
+			for (ProcessControlBlock pcb : processes) {
+				putProcess(snapshot, pcb);
+			}
+		}
+	}
+
+	// refuse a snapshot while anything is under way
+
+	private void checkIdle() {
+		if (!jobQueue.isEmpty()) {
+			throw new IllegalStateException("Jobs are waiting to be admitted");
+		}
+		for (ProcessControlBlock pcb : process_table.processes()) {
+			if (pcb.getStatus() != ProcessState.NEW && pcb.getStatus() != ProcessState.READY) {
+				throw new IllegalStateException("Process " + pcb.getPid() + " is " + pcb.getStatus());
+			}
+			if (pcb.getResidence() != Residence.RESIDENT) {
+				throw new IllegalStateException("Process " + pcb.getPid() + " is swapped out");
+			}
+			if (pcb.isRealTime()) {
+				throw new IllegalStateException("Process " + pcb.getPid() + " is real-time");
+			}
+			if (pcb.getMemoryTransfers() > 0 || pcb.getRing() != null && !pcb.getRing().isIdle()) {
+				throw new IllegalStateException("Process " + pcb.getPid() + " has I/O under way");
+			}
+		}
+		for (int i = 0; i < machine.devices.length; i++) {
+			if (!Q[i].isEmpty() || outstanding[i] > 0 || diskScheduler[i] != null && !diskScheduler[i].isEmpty()) {
+				throw new IllegalStateException("Device " + i + " is busy");
+			}
+		}
+		if (rebuildVolume != null) {
+			throw new IllegalStateException("A mirror is being rebuilt");
+		}
+		if (fileCache.isDirty()) {
+			throw new IllegalStateException("File buffers have not been written back");
+		}
+	}
+
+	/*
+	 * A process is saved as its status, registers, scheduling state, the
+	 * header of its I/O rings or -1, its executable or -1 and which of its
+	 * pages are in, and its open files.
+	 */
+
+	private static final int PROCESS_WORDS = 15;
+
+	private int processWords(ProcessControlBlock pcb) {
+		int words = PROCESS_WORDS;
+		if (pcb.getExecutable() != null) {
+			words += 5 + pcb.getRegisters().present.length;
+		}
+		for (OpenFile file : pcb.getFiles()) {
+			if (file != null) {
+				words += 4;
+			}
+		}
+		return words;
+	}
+
+	private void putProcess(Snapshot snapshot, ProcessControlBlock pcb) {
+		snapshot.put(pcb.getStatus().ordinal());
+		snapshot.put(pcb.getAcc());
+		snapshot.put(pcb.getX());
+		snapshot.put(pcb.getPc());
+		snapshot.put(pcb.getBase());
+		snapshot.put(pcb.getLimit());
+		snapshot.put(pcb.getPriority());
+		snapshot.put(pcb.getNice());
+		snapshot.putLong(pcb.getCpuTime());
+		snapshot.putLong(pcb.getVruntime());
+		snapshot.put(pcb.getRing() == null ? -1 : pcb.getRing().getHeader());
+
+		Executable executable = pcb.getExecutable();
+		snapshot.put(executable == null ? -1 : executable.getFile());
+		if (executable != null) {
+			snapshot.put(executable.getStart());
+			snapshot.put(executable.getCodeSize());
+			snapshot.put(executable.getDataSize());
+			snapshot.put(executable.getBssSize());
+			boolean[] present = pcb.getRegisters().present;
+			snapshot.put(present.length);
+			for (boolean page : present) {
+				snapshot.put(page ? 1 : 0);
+			}
+		}
+
+		int open = 0;
+		for (OpenFile file : pcb.getFiles()) {
+			if (file != null) {
+				open++;
+			}
+		}
+		snapshot.put(open);
+		for (int fd = 0; fd < ProcessControlBlock.MAX_OPEN_FILES; fd++) {
+			OpenFile file = pcb.getFiles()[fd];
+			if (file != null) {
+				snapshot.put(fd);
+				snapshot.put(file.getInode());
+				snapshot.put(file.getOffset());
+				snapshot.put(file.getReadEnd());
+			}
+		}
+	}
+
+	/*
+	 * Make a process as putProcess saved it, and queue it to run. The file
+	 * system and memory must be restored already.
+	 */
+
+	private void restoreProcess(Snapshot snapshot, Path file) throws IOException {
+		ProcessControlBlock pcb = process_table.allocate();
+		int status = snapshot.get();
+		if (pcb == null || status != ProcessState.NEW.ordinal() && status != ProcessState.READY.ordinal()) {
+			throw new IOException("Snapshot is damaged : " + file);
+		}
+		pcb.setAcc(snapshot.get());
+		pcb.setX(snapshot.get());
+		pcb.setPc(snapshot.get());
+		pcb.setBase(snapshot.get());
+		pcb.setLimit(snapshot.get());
+		pcb.setPriority(snapshot.get(), 0);
+		int nice = snapshot.get();
+		pcb.addCpuTime(snapshot.getLong());
+		pcb.setVruntime(snapshot.getLong());
+		int ring = snapshot.get();
+		if (nice < ProcessControlBlock.MIN_NICE || nice > ProcessControlBlock.MAX_NICE) {
+			throw new IOException("Snapshot is damaged : " + file);
+		}
+		pcb.setNice(nice);
+
+		int inode = snapshot.get();
+		if (inode >= 0) {
+			int[] header = { Executable.MAGIC, snapshot.get(), snapshot.get(), snapshot.get(), snapshot.get() };
+			Executable executable = fileSystem == null ? null
+					: Executable.parse(inode, header, fileSystem.size(inode));
+			if (executable == null) {
+				throw new IOException("Snapshot is damaged : " + file);
+			}
+			pcb.setExecutable(executable);
+			boolean[] present = new boolean[snapshot.get()];
+			for (int i = 0; i < present.length; i++) {
+				present[i] = snapshot.get() == 1;
+			}
+			pcb.getRegisters().present = present;
+		}
+
+		for (int n = snapshot.get(); n > 0; n--) {
+			int fd = snapshot.get();
+			if (fileSystem == null || fd < 0 || fd >= ProcessControlBlock.MAX_OPEN_FILES) {
+				throw new IOException("Snapshot is damaged : " + file);
+			}
+			OpenFile open = new OpenFile(snapshot.get());
+			open.setOffset(snapshot.get());
+			open.setReadEnd(snapshot.get());
+			pcb.getFiles()[fd] = open;
+		}
+
+		if (ring >= 0) {
+			((MemoryController) machine.memory).setBase(pcb.getBase());
+			((MemoryController) machine.memory).setLimit(pcb.getLimit());
+			try {
+				pcb.setRing(IORing.reopen(machine.memory, ring, pcb.getLimit()));
+			} catch (MemoryFault e) {
+				throw new IOException("Snapshot is damaged : " + file, e);
+			}
+		}
+		makeReady(pcb, status == ProcessState.NEW.ordinal() ? ProcessScheduler.Reason.NEW
+				: ProcessScheduler.Reason.YIELDED);
+	}
+
+	/*
+	 * Restore a snapshot onto this machine, which must have been built with
+	 * the same devices and not have scheduled programs or mounted a file
+	 * system yet. Disk schedulers, volumes and the file buffers are not in the
+	 * snapshot; the file buffers start empty, and the rest are set up again
+	 * as they were on the machine the snapshot was taken from. If the
+	 * snapshot has processes, they start running, in the order they were
+	 * ready in, with the levels or runtimes the scheduler had given them.
+	 */
+
+	public void restore(Path file) throws IOException {
+		if (machine.cpu.runProg) {
+			throw new IllegalStateException("Restore a snapshot before scheduling programs");
+		}
+		if (fileSystem != null) {
+			throw new IllegalStateException("A file system is already mounted");
+		}
+		try (Snapshot snapshot = Snapshot.open(file)) {
+			int numDevices = machine.devices.length;
+			if (snapshot.get() != machine.MEMORY_SIZE || snapshot.get() != numDevices) {
+				throw new IOException("Snapshot is of a different machine : " + file);
+			}
+			int acc = snapshot.get();
+			int x = snapshot.get();
+			int pc = snapshot.get();
+			int quantum = snapshot.get();
+			long totalInstructions = snapshot.getLong();
+
+			int[] memory = new int[machine.MEMORY_SIZE];
+			snapshot.get(memory);
+
+			LinkedList<FreeSpace> spaces = new LinkedList<>();
+			for (int n = snapshot.get(); n > 0; n--) {
+				spaces.add(new FreeSpace(snapshot.get(), snapshot.get()));
+			}
+
+			FileSystem fs = null;
+			int fsDevice = snapshot.get();
+			if (fsDevice >= 0) {
+				fs = new FileSystem();
+				fs.setRotor(snapshot.get());
+				snapshot.get(fs.getCache());
+			}
+
+			int swapDevice = snapshot.get();
+			int swapStart = snapshot.get();
+			int swapSize = snapshot.get();
+
+			// every disk is checked before any is changed
+			int[] heads = new int[numDevices];
+			int[] driveHeads = new int[numDevices];
+			int[][] images = new int[numDevices][];
+			for (int i = 0; i < numDevices; i++) {
+				if ((snapshot.get() == 1) != machine.devices[i] instanceof Disk) {
+					throw new IOException("Snapshot is of a different machine : " + file);
+				}
+				if (machine.devices[i] instanceof Disk) {
+					heads[i] = snapshot.get();
+					driveHeads[i] = snapshot.get();
+					images[i] = new int[Disk.NUM_PLATTERS * Disk.PLATTER_SIZE];
+					snapshot.get(images[i]);
+				}
+			}
+
+			machine.cpu.acc = acc;
+			machine.cpu.x = x;
+			machine.cpu.setPc(pc);
+			machine.cpu.setQuantum(quantum);
+			machine.cpu.setTotalInstructions(totalInstructions);
+			((MemoryController) machine.memory).writePhysical(0, memory, 0, memory.length);
+			freeSpaceList = spaces;
+			fileSystem = fs;
+			fileSystemDevice = fsDevice;
+			swapSpace = swapDevice < 0 ? null : new SwapSpace(swapDevice, swapStart, swapSize);
+			for (int i = 0; i < numDevices; i++) {
+				if (images[i] != null) {
+					headPosition[i] = heads[i];
+					((Disk) machine.devices[i]).setHeadPosition(driveHeads[i]);
+					((Disk) machine.devices[i]).writeImage(images[i]);
+				}
+			}
+
+			for (int n = snapshot.get(); n > 0; n--) {
+				restoreProcess(snapshot, file);
+			}
+		}
+		if (!process_table.isEmpty()) {
+			machine.cpu.loadState(WAIT_REGISTERS);
+
+			// leave this as the last line
+			machine.cpu.runProg = true;
+		}
+	}
+
+	// wait for a disk to finish the given number of kernel requests
+
+	private void completeNow(int deviceNum, int[] remaining) {
+		while (remaining[0] > 0) {
+			if (machine.interruptRegisters.register[deviceNum]) {
+				machine.interruptRegisters.register[deviceNum] = false;
+				completeDiskCommands(deviceNum);
+			} else {
+				try {
+					Thread.sleep(1);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/*
+	 * Write every changed metadata block back to the disk. Each is copied to
+	 * its own place in kernel memory first, so later changes to the cache do
+	 * not disturb a write already queued.
+	 *
+	 * @param onComplete -- what to do as each block is written, or null.
+	 * @return how many blocks are being written.
+	 */
+
+	private int flushFileSystem(Runnable onComplete) {
+		int writes = 0;
+		for (int slot : fileSystem.takeDirty()) {
+			int block = fileSystem.slotBlock(slot);
+			if (block < 0) {
+				continue;
+			}
+			int address = fileSystemBuffer + slot * FileSystem.BLOCK_SIZE;
+			((MemoryController) machine.memory).writePhysical(address, fileSystem.getCache(),
+					slot * FileSystem.BLOCK_SIZE, FileSystem.BLOCK_SIZE);
+			submitKernelRequest(IORequest.kernel(DeviceControllerOperations.WRITE, fileSystemDevice,
+					block * FileSystem.BLOCK_SIZE, FileSystem.BLOCK_SIZE, address, onComplete));
+			writes++;
+		}
+		return writes;
+	}
+
+	/*
+	 * The open file a process means by a file descriptor, or null.
+	 */
+
+	private OpenFile openFile(ProcessControlBlock pcb, int fd) {
+		if (fileSystem == null || fd < 0 || fd >= ProcessControlBlock.MAX_OPEN_FILES) {
+			return null;
+		}
+		return pcb.getFiles()[fd];
+	}
+
+	/*
+	 * OPEN -- the accumulator holds the address of a file name and flags. The
+	 * accumulator is set to a file descriptor, or -1.
+	 */
+
+	private void open(int Acc) {
+		ProcessControlBlock pcb = process_table.get(process_table_position);
+		pcb.setAcc(-1);
+		if (fileSystem == null) {
+			return;
+		}
+		((MemoryController) machine.memory).setBase(pcb.getBase());
+		((MemoryController) machine.memory).setLimit(pcb.getLimit());
+		try {
+			int name = machine.memory.load(Acc);
+			int flags = machine.memory.load(Acc + 1);
+
+			OpenFile[] files = pcb.getFiles();
+			int fd = 0;
+			while (fd < files.length && files[fd] != null) {
+				fd++;
+			}
+			if (fd == files.length) {
+				return;
+			}
+
+			int inode = fileSystem.lookup(name);
+			if (inode < 0 && (flags & SystemCall.OPEN_CREATE) != 0) {
+				inode = fileSystem.create(name);
+			} else if (inode >= 0 && (flags & SystemCall.OPEN_TRUNCATE) != 0) {
+				fileSystem.truncate(inode);
+			}
+			flushFileSystem(null);
+			if (inode < 0) {
+				return;
+			}
+			files[fd] = new OpenFile(inode);
+			pcb.setAcc(fd);
+		} catch (MemoryFault e) {
+			// a parameter block outside the process's memory
+			pcb.setAcc(-1);
+		}
+	}
+
+	/*
+	 * CLOSE -- the accumulator holds a file descriptor. The accumulator is set
+	 * to 0, or -1 if the descriptor was not open.
+	 */
+
+	private void close(int fd) {
+		ProcessControlBlock pcb = process_table.get(process_table_position);
+		OpenFile file = openFile(pcb, fd);
+		if (file == null) {
+			pcb.setAcc(-1);
+			return;
+		}
+		flushFile(file);
+		pcb.getFiles()[fd] = null;
+		pcb.setAcc(0);
+	}
+
+	// write out whatever the file's buffer is still holding back for it
+
+	private void flushFile(OpenFile file) {
+		FileBuffer buffer = fileCache.find(file.getInode());
+		if (buffer != null && buffer.getState() == FileBuffer.State.DIRTY) {
+			flushBuffer(buffer);
+		}
+	}
+
+	/*
+	 * SEEK -- the accumulator holds the address of a file descriptor and an
+	 * offset, which may be anywhere up to the end of the file. The accumulator
+	 * is set to the offset, or -1.
+	 */
+
+	private void seek(int Acc) {
+		ProcessControlBlock pcb = process_table.get(process_table_position);
+		pcb.setAcc(-1);
+		((MemoryController) machine.memory).setBase(pcb.getBase());
+		((MemoryController) machine.memory).setLimit(pcb.getLimit());
+		try {
+			OpenFile file = openFile(pcb, machine.memory.load(Acc));
+			int offset = machine.memory.load(Acc + 1);
+			if (file == null || offset < 0 || offset > fileSystem.size(file.getInode())) {
+				return;
+			}
+			file.setOffset(offset);
+			pcb.setAcc(offset);
+		} catch (MemoryFault e) {
+			// a parameter block outside the process's memory
+			pcb.setAcc(-1);
+		}
+	}
+
+	/*
+	 * FREAD and FWRITE -- the accumulator holds the address of a file
+	 * descriptor, a memory address and a length. The transfer starts at the
+	 * file's offset, which moves past it. Reads stop at the end of the file;
+	 * writes grow it. The accumulator is set to the number of words
+	 * transferred, or -1.
+	 *
+	 * Whatever part of the transfer the file's buffer holds is copied
+	 * straight away, and appends are held in the buffer until it fills or
+	 * the file is closed, so blocks are allocated for a whole run at once.
+	 * Only the rest goes to the disk.
+	 *
+	 * @return true if the transfer is finished and the process can carry on,
+	 * false if it must wait for the disk.
+	 */
+
+	private boolean fileTransfer(int operation) {
+		ProcessControlBlock pcb = process_table.get(process_table_position);
+		int Acc = pcb.getAcc();
+		pcb.setAcc(-1);
+		((MemoryController) machine.memory).setBase(pcb.getBase());
+		((MemoryController) machine.memory).setLimit(pcb.getLimit());
+		try {
+			OpenFile file = openFile(pcb, machine.memory.load(Acc));
+			int memory = machine.memory.load(Acc + 1);
+			int length = machine.memory.load(Acc + 2);
+			if (file == null || length < 0 || memory < 0 || memory + length > pcb.getLimit()) {
+				return true;
+			}
+			int inode = file.getInode();
+			int offset = file.getOffset();
+			if (operation == DeviceControllerOperations.READ) {
+				length = Math.max(0, Math.min(length, fileSize(inode) - offset));
+			} else if (offset + length > FileSystem.MAX_FILE_SIZE) {
+				return true;
+			} else if (writeBehind(pcb, inode, offset, memory, length)) {
+				file.setOffset(offset + length);
+				pcb.setAcc(length);
+				return true;
+			}
+			boolean sequential = offset == file.getReadEnd();
+			file.setOffset(offset + length);
+			if (operation == DeviceControllerOperations.READ) {
+				file.setReadEnd(offset + length);
+			}
+			pcb.setAcc(length);
+			if (length == 0) {
+				return true;
+			}
+
+			// a read the buffer will hold once it has loaded waits for it
+			FileBuffer buffer = fileCache.find(inode);
+			if (operation == DeviceControllerOperations.READ && buffer != null
+					&& buffer.getState() == FileBuffer.State.LOADING && !buffer.isStale()
+					&& buffer.covers(offset, length)) {
+				buffer.getWaiting().add(new int[] { process_table_position, memory, offset, length });
+				pcb.addMemoryTransfers(1);
+				pcb.setStatus(ProcessState.WAITING);
+				return false;
+			}
+
+			// copy the part the buffer holds
+			int held = offset;
+			int heldEnd = offset;
+			if (buffer != null && buffer.holdsData() && buffer.overlaps(offset, length)) {
+				held = Math.max(offset, buffer.getStart());
+				heldEnd = Math.min(offset + length, buffer.getEnd());
+				int kernel = buffer.getAddress() + held - buffer.getStart();
+				int user = pcb.getBase() + memory + held - offset;
+				if (operation == DeviceControllerOperations.READ) {
+					copyPhysical(kernel, user, heldEnd - held);
+				} else {
+					copyPhysical(user, kernel, heldEnd - held);
+				}
+				// appended words have no blocks yet, and other written words
+				// go to the disk as well
+				if (operation == DeviceControllerOperations.WRITE && buffer.getState() != FileBuffer.State.DIRTY) {
+					heldEnd = held;
+				}
+			} else if (buffer != null && buffer.getState() == FileBuffer.State.LOADING
+					&& operation == DeviceControllerOperations.WRITE && buffer.overlaps(offset, length)) {
+				buffer.setStale();
+			}
+
+			// and fetch or write the rest
+			List<IORequest> pieces = new ArrayList<>();
+			if (!filePieces(operation, inode, offset, held - offset, memory, pieces)
+					|| !filePieces(operation, inode, heldEnd, offset + length - heldEnd,
+							memory + heldEnd - offset, pieces)) {
+				pcb.setAcc(-1);
+				return true;
+			}
+			flushFileSystem(null);
+			if (operation == DeviceControllerOperations.READ
+					&& (sequential || (buffer != null && offset + length >= buffer.getEnd()))) {
+				readAhead(inode, offset + length);
+			}
+			if (pieces.isEmpty()) {
+				return true;
+			}
+
+			IORequest request = new IORequest(operation, process_table_position, fileSystemDevice, 0, 0, length,
+					memory);
+			pcb.setStatus(ProcessState.WAITING);
+			submitPieces(request, pieces);
+			return false;
+		} catch (MemoryFault e) {
+			// a parameter block outside the process's memory
+			pcb.setAcc(-1);
+		}
+		return true;
+	}
+
+	// how long a file is, counting words appended and still in its buffer
+
+	private int fileSize(int inode) {
+		FileBuffer buffer = fileCache.find(inode);
+		if (buffer != null && buffer.getState() == FileBuffer.State.DIRTY) {
+			return Math.max(fileSystem.size(inode), buffer.getEnd());
+		}
+		return fileSystem.size(inode);
+	}
+
+	/*
+	 * Make disk requests for part of a file.
+	 *
+	 * @return false if the file cannot grow to hold it.
+	 */
+
+	private boolean filePieces(int operation, int inode, int offset, int length, int memory,
+			List<IORequest> pieces) {
+		if (length <= 0) {
+			return true;
+		}
+		List<int[]> runs = fileSystem.map(inode, offset, length);
+		if (runs == null) {
+			return false;
+		}
+		for (int[] run : runs) {
+			pieces.add(new IORequest(operation, process_table_position, fileSystemDevice, run[0] / Disk.PLATTER_SIZE,
+					run[0] % Disk.PLATTER_SIZE, run[1], memory + run[2]));
+		}
+		return true;
+	}
+
+	/*
+	 * Hold an append in the file's buffer instead of writing it, if it
+	 * follows on from what the buffer already holds and fits, and the disk
+	 * will have room for it. A full buffer is flushed first.
+	 */
+
+	private boolean writeBehind(ProcessControlBlock pcb, int inode, int offset, int memory, int length) {
+		if (length == 0 || length > FileBuffer.SIZE || offset != fileSize(inode)) {
+			return false;
+		}
+		FileBuffer buffer = fileCache.find(inode);
+		if (buffer != null && buffer.getState() == FileBuffer.State.DIRTY
+				&& buffer.getLength() + length > FileBuffer.SIZE) {
+			flushBuffer(buffer);
+		}
+		buffer = fileCache.find(inode);
+		if (buffer == null || buffer.getState() != FileBuffer.State.DIRTY) {
+			buffer = fileCache.take(inode);
+			if (buffer == null) {
+				return false;
+			}
+			buffer.fill(FileBuffer.State.DIRTY, inode, offset, 0);
+		}
+		buffer.append(length);
+		if (fileCache.reservedBlocks(fileSystem) > fileSystem.freeBlocks()) {
+			buffer.append(-length);
+			if (buffer.getLength() == 0) {
+				buffer.setState(FileBuffer.State.FREE);
+			}
+			return false;
+		}
+		copyPhysical(pcb.getBase() + memory, buffer.getAddress() + offset - buffer.getStart(), length);
+		return true;
+	}
+
+	/*
+	 * Give the words appended to a buffer blocks on the disk -- one extent for
+	 * the lot where the disk allows -- and write them there. The buffer keeps
+	 * serving reads meanwhile.
+	 */
 
-/*
- * The operating system that controls the software running on the S340 CPU.
- *
- * The operating system acts as an interrupt handler, a system call handler, and
- * a trap handler.
- */
+	private void flushBuffer(FileBuffer buffer) {
+		List<int[]> runs = fileSystem.map(buffer.getInode(), buffer.getStart(), buffer.getLength());
+		flushFileSystem(null);
+		if (runs == null) {
+			log.warn(Category.FILE, "No room on disk %d for file %d", fileSystemDevice, buffer.getInode());
+			buffer.setState(FileBuffer.State.FREE);
+			return;
+		}
+		buffer.setState(FileBuffer.State.FLUSHING);
+		int[] remaining = { runs.size() };
+		for (int[] run : runs) {
+			submitKernelRequest(IORequest.kernel(DeviceControllerOperations.WRITE, fileSystemDevice, run[0], run[1],
+					buffer.getAddress() + run[2], () -> {
+						if (--remaining[0] == 0) {
+							buffer.setState(FileBuffer.State.CLEAN);
+						}
+					}));
+		}
+	}
 
-public class OperatingSystem implements IInterruptHandler, ISystemCallHandler, ITrapHandler {
-	// position has to start -1 because process table is 0-10
-	public ProcessControlBlock[] process_table;
-	public static final int MAX_NUM_PROCESSES = 10;
-	public int process_table_position = -1;
-	public int[] headPosition = new int[Machine.NUM_DEVICES];
+	/*
+	 * Start reading the part of a file after the given offset into a buffer,
+	 * so the process reading it in order finds it there.
+	 */
 
-	// the machine on which we are running.
+	private void readAhead(int inode, int from) {
+		FileBuffer buffer = fileCache.find(inode);
+		if (buffer != null && buffer.getState() != FileBuffer.State.CLEAN) {
+			return;
+		}
+		if (buffer != null && buffer.getEnd() > from && buffer.getStart() <= from) {
+			return;
+		}
+		int length = Math.min(FileBuffer.SIZE, fileSystem.size(inode) - from);
+		if (length <= 0) {
+			return;
+		}
+		buffer = fileCache.take(inode);
+		if (buffer == null) {
+			return;
+		}
+		List<int[]> runs = fileSystem.map(inode, from, length);
+		FileBuffer loading = buffer;
+		loading.fill(FileBuffer.State.LOADING, inode, from, length);
+		int[] remaining = { runs.size() };
+		for (int[] run : runs) {
+			submitKernelRequest(IORequest.kernel(DeviceControllerOperations.READ, fileSystemDevice, run[0], run[1],
+					loading.getAddress() + run[2], () -> {
+						if (--remaining[0] == 0) {
+							readAheadDone(loading);
+						}
+					}));
+		}
+	}
 
-	private final Machine machine;
+	/*
+	 * A buffer has loaded. Hand the processes waiting for it their words, or
+	 * if a write made it out of date, send them to the disk instead.
+	 */
 
-	// creating the free space list
-	private LinkedList<FreeSpace> freeSpaceList = new LinkedList<>();
+	private void readAheadDone(FileBuffer buffer) {
+		List<int[]> waiting = new ArrayList<>(buffer.getWaiting());
+		buffer.getWaiting().clear();
+		buffer.setState(buffer.isStale() ? FileBuffer.State.FREE : FileBuffer.State.CLEAN);
+		for (int[] read : waiting) {
+			ProcessControlBlock pcb = process_table.get(read[0]);
+			pcb.addMemoryTransfers(-1);
+			if (!buffer.isStale()) {
+				copyPhysical(buffer.getAddress() + read[2] - buffer.getStart(), pcb.getBase() + read[1], read[3]);
+				makeReady(pcb, ProcessScheduler.Reason.WOKEN);
+				continue;
+			}
+			List<IORequest> pieces = new ArrayList<>();
+			for (int[] run : fileSystem.map(buffer.getInode(), read[2], read[3])) {
+				pieces.add(new IORequest(DeviceControllerOperations.READ, read[0], fileSystemDevice,
+						run[0] / Disk.PLATTER_SIZE, run[0] % Disk.PLATTER_SIZE, run[1], read[1] + run[2]));
+			}
+			submitPieces(new IORequest(DeviceControllerOperations.READ, read[0], fileSystemDevice, 0, 0, read[3],
+					read[1]), pieces);
+		}
+	}
 
-	// creates queues depending on the number of devices
+	// copy words from one place in physical memory to another
 
-	public LinkedList<IORequest>[] Q = new LinkedList[Machine.NUM_DEVICES];
+	private void copyPhysical(int from, int to, int length) {
+		int[] words = new int[length];
+		((MemoryController) machine.memory).readPhysical(from, words, 0, length);
+		((MemoryController) machine.memory).writePhysical(to, words, 0, length);
+	}
 
 	/*
-	 * Create an operating system on the given machine. giving the process table
-	 * a size and filled with pcbs
+	 * Mark a process ready to run and hand it to the scheduler. A process that
+	 * is already ready is left where it is in the queue.
 	 */
 
-	public OperatingSystem(Machine machine) throws MemoryFault {
-		this.machine = machine;
-		process_table = new ProcessControlBlock[MAX_NUM_PROCESSES];
-		for (int i = 0; i < MAX_NUM_PROCESSES; i++) {
-			process_table[i] = new ProcessControlBlock();
+	private void makeReady(ProcessControlBlock pcb, ProcessScheduler.Reason reason) {
+		if (pcb.getResidence() != Residence.RESIDENT) {
+			wantSwapIn(pcb);
+			return;
 		}
-		freeSpaceList.add(new FreeSpace(0, machine.MEMORY_SIZE));
-		ProgramBuilder wait = new ProgramBuilder();
-		wait.start(0);
-		wait.jmp(0);
-		loadProgram(0, wait.build());
+		if (pcb.getStatus() == ProcessState.READY) {
+			return;
+		}
+		pcb.setStatus(ProcessState.READY);
+		schedulerFor(pcb).ready(pcb, reason);
+	}
 
-		for (int i = 0; i < Machine.NUM_DEVICES; i++) {
-			Q[i] = new LinkedList<IORequest>();
+	// the scheduling class a process belongs to
+
+	private ProcessScheduler schedulerFor(ProcessControlBlock pcb) {
+		return pcb.isRealTime() ? realTimeScheduler : processScheduler;
+	}
+
+	/*
+	 * Charge the running process for the instructions it has run since it was
+	 * dispatched or last charged.
+	 */
+
+	private void chargeCurrentProcess() {
+		long now = machine.cpu.getTotalInstructions();
+		if (process_table_position != -1) {
+			ProcessControlBlock pcb = process_table.get(process_table_position);
+			pcb.addCpuTime(now - dispatchedAt);
+			schedulerFor(pcb).charge(pcb, now - dispatchedAt);
 		}
+		dispatchedAt = now;
+	}
 
-		//Sets the arm location for the devices at platter start 0
-		for (int i = 0; i < Machine.NUM_DEVICES; i++) {
-			headPosition[i] = 0;
+	// how long a process, or the wait process if it is null, may run before
+	// it is preempted
+
+	private int quantum(ProcessControlBlock pcb) {
+		if (pcb == null) {
+			return (int) Math.min(CPU.INSTRUCTIONS_PER_INTERRUPT, realTimeScheduler.untilNextRelease());
+		}
+		if (pcb.isRealTime()) {
+			return realTimeScheduler.quantum(pcb);
 		}
+		return (int) Math.min(processScheduler.quantum(pcb), realTimeScheduler.untilNextRelease());
+	}
+
+	// give the next process, or the wait process if it is null, its quantum
+
+	private void startSlice(ProcessControlBlock next) {
+		int quantum = quantum(next);
+		sliceCut = next != null && !next.isRealTime() && quantum < processScheduler.quantum(next);
+		machine.cpu.setQuantum(quantum);
 	}
 
 	/*
-	 * runs the next process that is ready, sets to running and loops past 0
+	 * runs the process the scheduler picks, for the quantum it gives, or the
+	 * wait process if nothing is ready. real-time processes come first, and
+	 * anything else is stopped in time for the next one to start its period
 	 */
 
 	public void runNextProcess() {
-		for (int i = 0; i < MAX_NUM_PROCESSES; i++) {
-			process_table_position = (process_table_position + 1) % MAX_NUM_PROCESSES;
-			if (process_table[process_table_position].getStatus() == ProcessState.READY) {
-				process_table[process_table_position].setStatus(ProcessState.RUNNING);
-				machine.cpu.acc = process_table[process_table_position].getAcc();
-				machine.cpu.x = process_table[process_table_position].getX();
-				machine.cpu.setPc(process_table[process_table_position].getPc());
-				((MemoryController) machine.memory).setBase(process_table[process_table_position].getBase());
-				((MemoryController) machine.memory).setLimit(process_table[process_table_position].getLimit());
-				// System.out.println("now running: " + process_table_position);
+		switchTo(null, 0, pickNextProcess());
+	}
 
-				return;
+	private ProcessControlBlock pickNextProcess() {
+		ProcessControlBlock pcb = realTimeScheduler.next();
+		if (pcb == null) {
+			pcb = processScheduler.next();
+			while (pcb != null && (pcb.getStatus() != ProcessState.READY || pcb.getResidence() != Residence.RESIDENT)) {
+				if (pcb.getStatus() == ProcessState.READY) {
+					// swapped out while it was waiting for the CPU
+					wantSwapIn(pcb);
+				}
+				pcb = processScheduler.next();
 			}
 		}
-		// sets physical memory for wait process
-		process_table_position = -1;
-		// System.out.println("now running: " + process_table_position);
-		((MemoryController) machine.memory).setBase(0);
-		((MemoryController) machine.memory).setLimit(4);
-		machine.cpu.setPc(0);
+		return pcb;
+	}
+
+	/*
+	 * At the end of a quantum, run whatever the scheduler picks next. If that
+	 * is the process that was running, or nothing was running and nothing is
+	 * ready, the CPU's registers are already right and it just carries on with
+	 * a new quantum.
+	 *
+	 * @param savedProgramCounter -- where the running process stopped.
+	 */
+
+	private void dispatch(int savedProgramCounter) {
+		ProcessControlBlock previous = process_table_position == -1 ? null
+				: process_table.get(process_table_position);
+		ProcessControlBlock next = pickNextProcess();
+		if (next != previous) {
+			switchTo(previous, savedProgramCounter, next);
+			return;
+		}
+		dispatchedAt = machine.cpu.getTotalInstructions();
+		if (next != null) {
+			next.setStatus(ProcessState.RUNNING);
+		}
+		startSlice(next);
+		stats.skippedSwitch();
+	}
+
+	/*
+	 * Save the registers of the previous process, if it has not been saved
+	 * already, and load those of the next one, or of the wait process if it is
+	 * null.
+	 */
 
+	private void switchTo(ProcessControlBlock previous, int savedProgramCounter, ProcessControlBlock next) {
+		long start = System.nanoTime();
+		if (previous != null) {
+			machine.cpu.saveState(previous.getRegisters(), savedProgramCounter);
+		}
+		dispatchedAt = machine.cpu.getTotalInstructions();
+		if (next != null) {
+			process_table_position = next.getPid();
+			next.setStatus(ProcessState.RUNNING);
+			machine.cpu.loadState(next.getRegisters());
+		} else {
+			process_table_position = -1;
+			machine.cpu.loadState(WAIT_REGISTERS);
+		}
+		// System.out.println("now running: " + process_table_position);
+		startSlice(next);
+		stats.switched(System.nanoTime() - start);
 	}
 
 	/*
@@ -120,51 +1449,326 @@ public class OperatingSystem implements IInterruptHandler, ISystemCallHandler, I
 	}
 
 	/*
-	 * Load a program into a given memory address starting at the identified
-	 * start place
+	 * Load a program's code into memory starting at the given address
 	 */
-	private int loadProgram(int startAddress, Program program) throws MemoryFault {
+	private void loadProgram(int address, Program program) throws MemoryFault {
 		((MemoryController) machine.memory).setBase(0);
 		((MemoryController) machine.memory).setLimit(machine.MEMORY_SIZE);
-		int address = findFreeSpace(program.getCode().length + program.getDataSize());
-		int processStart = address;
 		for (int i : program.getCode()) {
 			machine.memory.store(address++, i);
 		}
+	}
+
+	/*
+	 * Give a region of memory back, merging it with the free space on either
+	 * side.
+	 */
 
-		return processStart;
+	private void freeMemory(int start, int length) {
+		FreeSpace before = null;
+		FreeSpace after = null;
+		for (FreeSpace space : freeSpaceList) {
+			if (space.getStart() + space.getLength() == start) {
+				before = space;
+			} else if (space.getStart() == start + length) {
+				after = space;
+			}
+		}
+		if (after != null) {
+			freeSpaceList.remove(after);
+			length += after.getLength();
+		}
+		if (before != null) {
+			before.setLength(before.getLength() + length);
+		} else {
+			freeSpaceList.add(new FreeSpace(start, length));
+		}
 	}
 
 	/*
 	 * Scheduled a list of programs to be run.
 	 * 
-	 * loop makes a new/terminated pcb able to be used again and is set to ready
+	 * each program is submitted to the job queue, and the programs at the head
+	 * of the queue are admitted straight away if there is room for them
 	 * 
 	 * @param programs the programs to schedule
 	 */
 
 	public void schedule(Program... programs) throws MemoryFault {
-		int address = 0;
+		schedule(0, programs);
+	}
+
+	/*
+	 * Schedule programs to run at the given nice value, from
+	 * ProcessControlBlock.MIN_NICE (greediest) to MAX_NICE.
+	 */
+
+	public void schedule(int nice, Program... programs) throws MemoryFault {
 		for (Program program : programs) {
-			address = loadProgram(address, program);
-			for (int k = 0; k < MAX_NUM_PROCESSES; k++)
-				if (process_table[k].getStatus() == ProcessState.TERMINATED
-						|| process_table[k].getStatus() == ProcessState.NEW) {
-					process_table[k].setStatus(ProcessState.READY);
-					process_table[k].setPc(0);
-					process_table[k].setBase(address);
-					process_table[k].setLimit(program.getCode().length + program.getDataSize());
-					// System.out.println("At position: " + k + " base is: "+
-					// process_table[k].getBase() +" limit is: "+
-					// process_table[k].getLimit());
-					break;
-				}
+			if (jobQueue.submit(program, nice) == null) {
+				log.warn(Category.PROCESS, "Job queue is full");
+				break;
+			}
+		}
+		admitSubmitted();
+	}
+
+	/*
+	 * Submit a program to the job queue.
+	 * 
+	 * @return the job, whose exit future completes when its process ends, or
+	 * null if the job queue is full.
+	 */
 
+	public Job submit(int nice, Program program) throws MemoryFault {
+		Job job = jobQueue.submit(program, nice);
+		if (job != null) {
+			admitSubmitted();
 		}
+		return job;
+	}
+
+	// admit jobs just submitted. Once programs are running only the CPU's
+	// thread touches the operating system, so it is left to admit them at
+	// its next timer trap.
+
+	private void admitSubmitted() {
+		if (machine.cpu.runProg) {
+			jobsSubmitted = true;
+			return;
+		}
+		admitJobs();
 
 		// leave this as the last line
 		machine.cpu.runProg = true;
+	}
+
+	/*
+	 * Start a process running the executable file with the given name. Its
+	 * header and data are read in first; its code is left on the disk until it
+	 * is run.
+	 *
+	 * Before programs are running this is done on the caller's thread, which
+	 * starts the machine. After that, like submit, it is handed to the CPU's
+	 * thread, and the caller waits for it to be done there.
+	 *
+	 * @return the new process's id, or -1 if there is no such file, no
+	 * process for it, too many executables are being started at once, or
+	 * the machine has stopped.
+	 */
+
+	public int exec(int name, int nice) {
+		if (machine.cpu.runProg) {
+			try {
+				return onCpuThread(() -> startExec(name, nice));
+			} catch (CancellationException e) {
+				return -1;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return -1;
+			} catch (ExecutionException e) {
+				throw (RuntimeException) e.getCause();
+			}
+		}
+		int pid = startExec(name, nice);
+		if (pid != -1) {
+			// leave this as the last line
+			machine.cpu.runProg = true;
+		}
+		return pid;
+	}
+
+	/*
+	 * Hand work to the CPU's thread, to be done at its next timer trap, and
+	 * wait for it.
+	 *
+	 * @throws CancellationException if the machine stops before doing it.
+	 */
+
+	private <T> T onCpuThread(Callable<T> work) throws ExecutionException, InterruptedException {
+		FutureTask<T> task = new FutureTask<>(work);
+		deferred.add(task);
+		if (halted) {
+			// halt may have emptied the queue before this was added
+			task.cancel(false);
+		}
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			task.cancel(false);
+			throw e;
+		}
+	}
+
+	// make the process and start reading the executable's header into one of
+	// the header slots in kernel memory
+
+	private int startExec(int name, int nice) {
+		if (fileSystem == null) {
+			return -1;
+		}
+		int inode = fileSystem.lookup(name);
+		if (inode < 0 || fileSystem.size(inode) < Executable.HEADER_SIZE) {
+			return -1;
+		}
+		int slot = 0;
+		while (slot < EXEC_HEADERS && execHeaderBusy[slot]) {
+			slot++;
+		}
+		if (slot == EXEC_HEADERS) {
+			return -1;
+		}
+		ProcessControlBlock pcb = process_table.allocate();
+		if (pcb == null) {
+			return -1;
+		}
+		int headerSlot = slot;
+		int header = execHeaderBuffer + slot * Executable.HEADER_SIZE;
+		execHeaderBusy[slot] = true;
+		pcb.setNice(nice);
+		pcb.setStatus(ProcessState.WAITING);
+		// not to be swapped out or moved until it has memory of its own
+		pcb.addMemoryTransfers(1);
+		List<int[]> runs = fileSystem.map(inode, 0, Executable.HEADER_SIZE);
+		int[] remaining = { runs.size() };
+		for (int[] run : runs) {
+			submitKernelRequest(IORequest.kernel(DeviceControllerOperations.READ, fileSystemDevice, run[0], run[1],
+					header + run[2], () -> {
+						if (--remaining[0] == 0) {
+							headerRead(pcb, inode, headerSlot);
+						}
+					}));
+		}
+		return pcb.getPid();
+	}
+
+	/*
+	 * An executable's header has been read. Give the process memory, zero its
+	 * BSS, and read its data; it is ready to run once the data is in.
+	 */
+
+	private void headerRead(ProcessControlBlock pcb, int inode, int slot) {
+		int[] words = new int[Executable.HEADER_SIZE];
+		((MemoryController) machine.memory).readPhysical(execHeaderBuffer + slot * Executable.HEADER_SIZE, words, 0,
+				words.length);
+		execHeaderBusy[slot] = false;
+		pcb.addMemoryTransfers(-1);
+		Executable executable = Executable.parse(inode, words, fileSystem.size(inode));
+		int address = executable == null ? -1 : findFreeSpace(executable.getMemorySize());
+		if (address == -1) {
+			log.warn(Category.PROCESS,
+					executable == null ? "Not an executable : file %d" : "No memory for executable : file %d", inode);
+			process_table.release(pcb);
+			return;
+		}
+		pcb.setBase(address);
+		pcb.setLimit(executable.getMemorySize());
+		pcb.setPc(executable.getStart());
+		pcb.setExecutable(executable);
+		int pages = (executable.getCodeSize() + MemoryController.PAGE_SIZE - 1) / MemoryController.PAGE_SIZE;
+		pcb.getRegisters().present = new boolean[pages];
+		int bss = address + executable.getCodeSize() + executable.getDataSize();
+		((MemoryController) machine.memory).writePhysical(bss, new int[executable.getBssSize()], 0,
+				executable.getBssSize());
+		if (executable.getDataSize() == 0) {
+			makeReady(pcb, ProcessScheduler.Reason.NEW);
+			return;
+		}
+		readExecutable(pcb, Executable.HEADER_SIZE + executable.getCodeSize(), executable.getCodeSize(),
+				executable.getDataSize());
+	}
+
+	/*
+	 * A process ran an instruction on a page of its code that is not in memory
+	 * yet. Read the page in, and block the process until it is there.
+	 */
+
+	private void pageIn(ProcessControlBlock pcb, int address) {
+		Executable executable = pcb.getExecutable();
+		int page = address / MemoryController.PAGE_SIZE;
+		boolean[] present = pcb.getRegisters().present;
+		if (executable == null || present == null || page >= present.length || present[page]) {
+			log.warn(Category.MEMORY, "Page fault at %d in process %d", address, pcb.getPid());
+			endProcess(pcb);
+			return;
+		}
+		int start = page * MemoryController.PAGE_SIZE;
+		int length = Math.min(MemoryController.PAGE_SIZE, executable.getCodeSize() - start);
+		present[page] = true;
+		pcb.setStatus(ProcessState.WAITING);
+		readExecutable(pcb, Executable.HEADER_SIZE + start, start, length);
+		pageFaults++;
+		pagedInWords += length;
+	}
 
+	// read part of a process's executable file into its memory, waking the
+	// process when it is there
+
+	private void readExecutable(ProcessControlBlock pcb, int offset, int memory, int length) {
+		List<IORequest> pieces = new ArrayList<>();
+		for (int[] run : fileSystem.map(pcb.getExecutable().getFile(), offset, length)) {
+			pieces.add(new IORequest(DeviceControllerOperations.READ, pcb.getPid(), fileSystemDevice,
+					run[0] / Disk.PLATTER_SIZE, run[0] % Disk.PLATTER_SIZE, run[1], memory + run[2]));
+		}
+		submitPieces(new IORequest(DeviceControllerOperations.READ, pcb.getPid(), fileSystemDevice, 0, 0, length,
+				memory), pieces);
+	}
+
+	/*
+	 * Use a new job queue; any jobs waiting in the old one are dropped.
+	 */
+
+	public void setJobQueue(JobQueue jobQueue) {
+		this.jobQueue = jobQueue;
+	}
+
+	/*
+	 * Admit jobs from the head of the job queue for as long as there is a
+	 * process for the next one and memory to load it into. When memory is
+	 * short and there is a swap area, one job at a time is admitted swapped
+	 * out, to be swapped in like any other process. A job larger than memory,
+	 * or whose program cannot be loaded, fails, and the next is admitted in
+	 * its place.
+	 */
+
+	private void admitJobs() {
+		Job job;
+		while ((job = jobQueue.peek()) != null && process_table.size() < MAX_NUM_PROCESSES) {
+			if (job.getSize() > kernelBuffer) {
+				// it would wait at the head of the queue for good, since even
+				// swapping every other process out leaves no room for it
+				jobQueue.refuse();
+				log.warn(Category.PROCESS, "Job of %d words is larger than memory", job.getSize());
+				job.failed(new IllegalStateException("Job is larger than memory : " + job.getSize() + " words"));
+				continue;
+			}
+			int address = findFreeSpace(job.getSize());
+			if (address == -1 && (swapSpace == null || !swapIn.isEmpty())) {
+				return;
+			}
+			jobQueue.admit();
+			ProcessControlBlock pcb = process_table.allocate();
+			pcb.setLimit(job.getSize());
+			pcb.setNice(job.getNice());
+			pcb.setJob(job);
+			job.admitted(pcb.getPid());
+			if (address == -1) {
+				pcb.setImage(job.getProgram());
+				pcb.setResidence(Residence.SWAPPED);
+				wantSwapIn(pcb);
+				continue;
+			}
+			try {
+				loadProgram(address, job.getProgram());
+			} catch (MemoryFault e) {
+				freeMemory(address, job.getSize());
+				process_table.release(pcb);
+				job.failed(e);
+				continue;
+			}
+			pcb.setBase(address);
+			makeReady(pcb, ProcessScheduler.Reason.NEW);
+		}
 	}
 
 	/*
@@ -183,26 +1787,62 @@ public class OperatingSystem implements IInterruptHandler, ISystemCallHandler, I
 		if (!machine.cpu.runProg) {
 			return;
 		}
-		// save registers, set status to ready/terminated
-		if (process_table_position != -1) {
-			saveRegisters(savedProgramCounter);
-
-			process_table[process_table_position].setStatus(ProcessState.READY);
-		}
+		// registers are only saved if another process is switched to
+		chargeCurrentProcess();
 
 		// System.out.println("Timer " + savedProgramCounter);
 
 		switch (trapNumber) {
 		case Trap.TIMER:
-			runNextProcess();
+			if (process_table_position != -1) {
+				// it used its whole quantum, unless it was stopped early for a
+				// real-time release, which is no reason to move it down
+				makeReady(process_table.get(process_table_position),
+						sliceCut ? ProcessScheduler.Reason.YIELDED : ProcessScheduler.Reason.PREEMPTED);
+			}
+			if (!deferred.isEmpty()) {
+				// the work may look at the registers of the process just
+				// stopped, which are otherwise only saved if another runs
+				saveRegisters(savedProgramCounter);
+				FutureTask<?> task;
+				while ((task = deferred.poll()) != null) {
+					task.run();
+				}
+			}
+			if (jobsSubmitted) {
+				jobsSubmitted = false;
+				admitJobs();
+			}
+			pumpRebuild();
+			pumpSwapper();
+			dispatch(savedProgramCounter);
 			break;
 		case Trap.END:
-			process_table[process_table_position].setStatus(ProcessState.TERMINATED);
+			endProcess(process_table.get(process_table_position));
+			if (allTerminated()) {
+				log.flush();
+				machine.out.println("CPU: " + processScheduler);
+				machine.out.println("Real time: " + realTimeScheduler);
+				machine.out.println("Jobs: " + jobQueue);
+				if (pageFaults > 0) {
+					machine.out.println("Page faults: " + pageFaults + ", code words loaded=" + pagedInWords);
+				}
+				if (swapSpace != null) {
+					machine.out.println("Swap: " + swapSpace + ", out=" + swapOuts + ", in=" + swapIns);
+				}
+				machine.out.println(stats);
+				showDiskLatency();
+			}
+			runNextProcess();
+			break;
+		case Trap.PAGE_FAULT:
+			saveRegisters(savedProgramCounter);
+			pageIn(process_table.get(process_table_position), machine.cpu.faultAddress);
 			runNextProcess();
 			break;
 		default:
-			System.out.println("UNHANDLED TRAP " + trapNumber);
-			System.exit(1);
+			machine.out.println("UNHANDLED TRAP " + trapNumber);
+			halt(new IllegalStateException("Unhandled trap " + trapNumber));
 		}
 	}
 
@@ -225,6 +1865,7 @@ public class OperatingSystem implements IInterruptHandler, ISystemCallHandler, I
 			return;
 		}
 		saveRegisters(savedProgramCounter);
+		chargeCurrentProcess();
 		switch (callNumber) {
 		// system call for Sbrk getting the accumulator then running next
 		case SystemCall.SBRK:
@@ -232,41 +1873,214 @@ public class OperatingSystem implements IInterruptHandler, ISystemCallHandler, I
 			break;
 		// system call for writing a passing parameter to the screen
 		case SystemCall.WRITE_CONSOLE:
-			writeConsole(process_table[process_table_position].getAcc());
+			writeConsole(process_table.get(process_table_position).getAcc());
 			break;
-		case SystemCall.READ: {
-			((MemoryController) machine.memory).setBase(process_table[process_table_position].getBase());
-			((MemoryController) machine.memory).setLimit(process_table[process_table_position].getLimit());
-			int Acc = process_table[process_table_position].getAcc();
-			try {
-				// System.out.println("Read: ");
+		case SystemCall.READ:
+			submitDiskRequest(DeviceControllerOperations.READ);
+			break;
+		case SystemCall.WRITE:
+			submitDiskRequest(DeviceControllerOperations.WRITE);
+			break;
+		case SystemCall.IO_SETUP:
+			ioSetup(process_table.get(process_table_position).getAcc());
+			resumeCurrentProcess();
+			return;
+		case SystemCall.IO_ENTER:
+			if (ioEnter(process_table.get(process_table_position).getAcc())) {
+				// nothing to wait for -- carry straight on computing
+				resumeCurrentProcess();
+				return;
+			}
+			break;
+		case SystemCall.OPEN:
+			open(process_table.get(process_table_position).getAcc());
+			resumeCurrentProcess();
+			return;
+		case SystemCall.CLOSE:
+			close(process_table.get(process_table_position).getAcc());
+			resumeCurrentProcess();
+			return;
+		case SystemCall.SEEK:
+			seek(process_table.get(process_table_position).getAcc());
+			resumeCurrentProcess();
+			return;
+		case SystemCall.NICE:
+			nice(process_table.get(process_table_position).getAcc());
+			resumeCurrentProcess();
+			return;
+		case SystemCall.REAL_TIME:
+			realTime(process_table.get(process_table_position).getAcc());
+			resumeCurrentProcess();
+			return;
+		case SystemCall.NEXT_PERIOD:
+			if (process_table.get(process_table_position).isRealTime()) {
+				realTimeScheduler.periodDone(process_table.get(process_table_position));
+			}
+			break;
+		case SystemCall.FREAD:
+			if (fileTransfer(DeviceControllerOperations.READ)) {
+				resumeCurrentProcess();
+				return;
+			}
+			break;
+		case SystemCall.FWRITE:
+			if (fileTransfer(DeviceControllerOperations.WRITE)) {
+				resumeCurrentProcess();
+				return;
+			}
+			break;
+		}
+		if (process_table.get(process_table_position).getStatus() == ProcessState.RUNNING) {
+			// the call did not block, but the process gives up the CPU
+			makeReady(process_table.get(process_table_position), ProcessScheduler.Reason.YIELDED);
+		}
+		showIOR("SysCall");
+		runNextProcess();
+	}
 
-				read(machine.memory.load(Acc), machine.memory.load(Acc + 1), machine.memory.load(Acc + 2),
-						machine.memory.load(Acc + 3));
-			} catch (MemoryFault e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+	/*
+	 * Add the increment in the accumulator to the process's nice value, kept
+	 * between ProcessControlBlock.MIN_NICE and MAX_NICE. The accumulator is
+	 * set to the new value.
+	 */
+
+	private void nice(int increment) {
+		ProcessControlBlock pcb = process_table.get(process_table_position);
+		int nice = Math.max(ProcessControlBlock.MIN_NICE,
+				Math.min(ProcessControlBlock.MAX_NICE, pcb.getNice() + increment));
+		pcb.setNice(nice);
+		pcb.setAcc(nice);
+	}
+
+	/*
+	 * Reserve a budget of instructions in every period for the process, from
+	 * the period and budget at the given address. A period of 0 gives the
+	 * reservation up. The accumulator is set to 0 if the process is now
+	 * real-time, or was made best-effort, and -1 if the reservation was
+	 * refused.
+	 */
+
+	private void realTime(int address) {
+		ProcessControlBlock pcb = process_table.get(process_table_position);
+		((MemoryController) machine.memory).setBase(pcb.getBase());
+		((MemoryController) machine.memory).setLimit(pcb.getLimit());
+		try {
+			int period = machine.memory.load(address);
+			int budget = machine.memory.load(address + 1);
+			if (period == 0) {
+				realTimeScheduler.leave(pcb);
+				pcb.setAcc(0);
+			} else {
+				pcb.setAcc(realTimeScheduler.admit(pcb, period, budget) ? 0 : -1);
 			}
+		} catch (MemoryFault e) {
+			pcb.setAcc(-1);
 		}
-			break;
+	}
 
-		case SystemCall.WRITE:
-			((MemoryController) machine.memory).setBase(process_table[process_table_position].getBase());
-			((MemoryController) machine.memory).setLimit(process_table[process_table_position].getLimit());
-			int Acc = process_table[process_table_position].getAcc();
-			try {
+	/*
+	 * Set up the I/O rings described by the header at the given address. The
+	 * accumulator is set to 0 on success and -1 if the rings do not fit in the
+	 * process.
+	 */
+
+	private void ioSetup(int header) {
+		ProcessControlBlock pcb = process_table.get(process_table_position);
+		((MemoryController) machine.memory).setBase(pcb.getBase());
+		((MemoryController) machine.memory).setLimit(pcb.getLimit());
+		try {
+			pcb.setRing(IORing.setup(machine.memory, header, pcb.getLimit()));
+		} catch (MemoryFault e) {
+			pcb.setRing(null);
+		}
+		pcb.setAcc(pcb.getRing() == null ? IORing.FAILED : IORing.SUCCESS);
+	}
+
+	/*
+	 * Submit everything in the process's submission ring, then block it if it
+	 * asked for more completions than are ready. The accumulator is set to the
+	 * number of operations taken from the ring.
+	 *
+	 * @param waitFor -- how many completions the process wants before it runs
+	 * again; 0 to carry on regardless.
+	 *
+	 * @return true if the process can keep running.
+	 */
+
+	private boolean ioEnter(int waitFor) {
+		int pid = process_table_position;
+		ProcessControlBlock pcb = process_table.get(pid);
+		IORing ring = pcb.getRing();
+		if (ring == null) {
+			pcb.setAcc(IORing.FAILED);
+			return true;
+		}
+
+		try {
+			((MemoryController) machine.memory).setBase(pcb.getBase());
+			((MemoryController) machine.memory).setLimit(pcb.getLimit());
+			ring.flush(machine.memory);
+			LinkedList<int[]> submissions = ring.takeSubmissions(machine.memory);
+			for (int[] sqe : submissions) {
+				IORequest request = ringRequest(pid, sqe);
+				if (request != null && submit(request)) {
+					ring.inFlight++;
+				} else {
+					((MemoryController) machine.memory).setBase(pcb.getBase());
+					((MemoryController) machine.memory).setLimit(pcb.getLimit());
+					ring.complete(machine.memory, sqe[6], IORing.FAILED);
+				}
+			}
+			pcb.setAcc(submissions.size());
+
+			((MemoryController) machine.memory).setBase(pcb.getBase());
+			((MemoryController) machine.memory).setLimit(pcb.getLimit());
+			if (waitFor > 0 && ring.completionsReady(machine.memory) < waitFor) {
+				ring.waitFor = waitFor;
+				pcb.setStatus(ProcessState.WAITING);
+				return false;
+			}
+		} catch (MemoryFault e) {
+			pcb.setAcc(IORing.FAILED);
+		}
+		return true;
+	}
 
-				write(machine.memory.load(Acc), machine.memory.load(Acc + 1), machine.memory.load(Acc + 2),
-						machine.memory.load(Acc + 3), machine.memory.load(Acc + 4));
+	/*
+	 * Turn a submission ring entry into a request, or null if it does not
+	 * describe one.
+	 */
 
-			} catch (MemoryFault e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+	private IORequest ringRequest(int pid, int[] sqe) throws MemoryFault {
+		int device = sqe[1];
+		if (device < 0 || device >= machine.devices.length + volumes.size()) {
+			return null;
+		}
+		IORequest request;
+		if (sqe[0] == SystemCall.WRITE_CONSOLE && device == Machine.CONSOLE) {
+			if (sqe[5] < 0 || sqe[5] >= process_table.get(pid).getLimit()) {
+				return null;
 			}
-			break;
+			request = IORequest.console(pid, device, machine.memory.load(sqe[5]));
+		} else if ((sqe[0] == SystemCall.READ || sqe[0] == SystemCall.WRITE)
+				&& (volume(device) != null || diskScheduler[device] != null)) {
+			int operation = sqe[0] == SystemCall.READ ? DeviceControllerOperations.READ
+					: DeviceControllerOperations.WRITE;
+			request = new IORequest(operation, pid, device, sqe[2], sqe[3], sqe[4], sqe[5]);
+		} else {
+			return null;
 		}
-		showIOR("SysCall");
-		runNextProcess();
+		request.setAsync(sqe[6]);
+		return request;
+	}
+
+	/*
+	 * Carry on running the process that made a system call, without going
+	 * through the process table.
+	 */
+
+	private void resumeCurrentProcess() {
+		machine.cpu.loadState(process_table.get(process_table_position).getRegisters());
 	}
 
 	// passes a parameter that you would like to print to the console
@@ -275,121 +2089,289 @@ public class OperatingSystem implements IInterruptHandler, ISystemCallHandler, I
 
 	private void writeConsole(int Write) {
 
-		process_table[process_table_position].setStatus(ProcessState.WAITING);
+		process_table.get(process_table_position).setStatus(ProcessState.WAITING);
 
-		if (Q[Machine.CONSOLE].isEmpty()) {
-			Q[Machine.CONSOLE].add(new IORequest(DeviceControllerOperations.WRITE, process_table_position, 1, 1));
-			// starts the console write
-			machine.devices[Machine.CONSOLE].controlRegister.register[1] = Write;
-			machine.devices[Machine.CONSOLE].controlRegister.startOperation();
-		} else {
-			Q[Machine.CONSOLE].add(new IORequest(DeviceControllerOperations.WRITE, process_table_position, 1, 1));
+		submit(IORequest.console(process_table_position, Machine.CONSOLE, Write));
+
+	}
 
+	/*
+	 * Queue a request on its device, starting the device if it is idle.
+	 *
+	 * @return false if the device does not exist, or the request does not fit
+	 * in its process's memory or on the disk, in which case it is not queued.
+	 */
+
+	private boolean submit(IORequest request) {
+		int deviceNum = request.getDevice();
+		if (volume(deviceNum) != null) {
+			return submitToVolume(volume(deviceNum), request);
+		}
+		if (deviceNum < 0 || deviceNum >= machine.devices.length) {
+			log.warn(Category.IO, "Bad I/O request " + request);
+			return false;
+		}
+		if (diskScheduler[deviceNum] == null) {
+			deviceStats[deviceNum].submitted();
+			Q[deviceNum].add(request);
+			if (Q[deviceNum].size() == 1) {
+				// starts the console write
+				request.setStartTime(System.nanoTime());
+				machine.devices[deviceNum].controlRegister.register[1] = request.getValue();
+				machine.devices[deviceNum].controlRegister.startOperation();
+			}
+			return true;
 		}
 
+		if (!fits(request, Disk.NUM_PLATTERS * Disk.PLATTER_SIZE)) {
+			return false;
+		}
+		if (request.getProcessNum() != IORequest.KERNEL) {
+			process_table.get(request.getProcessNum()).addMemoryTransfers(1);
+		}
+		deviceStats[deviceNum].submitted();
+		diskScheduler[deviceNum].add(request);
+		startNextDiskRequest(deviceNum);
+		return true;
 	}
 
-	public void read(int deviceNum, int platterNum, int platterStart, int length) {
+	/*
+	 * Split a request on a logical volume into pieces and queue them all, so
+	 * the member disks work on them side by side.
+	 */
 
-		int total = length / ((Disk) machine.devices[deviceNum]).buffer.length;
-		if (length % ((Disk) machine.devices[deviceNum]).buffer.length != 0) {
-			total++;
+	private boolean submitToVolume(LogicalVolume volume, IORequest request) {
+		if (!fits(request, volume.capacity())) {
+			return false;
 		}
-		process_table[process_table_position].setStatus(ProcessState.WAITING);
+		submitPieces(request, volume.split(request, diskLoad));
+		return true;
+	}
 
-		if (Q[deviceNum].isEmpty()) {
-			Q[deviceNum].add(new IORequest(DeviceControllerOperations.READ, process_table_position, 1, total));
-			performRead(deviceNum, platterNum, platterStart, length);
+	/*
+	 * Queue the pieces of a request on their disks. The request completes
+	 * when the last of them does.
+	 */
 
-		} else {
-			Q[deviceNum].add(new IORequest(DeviceControllerOperations.READ, process_table_position, 1, total));
+	private void submitPieces(IORequest request, List<IORequest> pieces) {
+		if (request.getProcessNum() != IORequest.KERNEL) {
+			process_table.get(request.getProcessNum()).addMemoryTransfers(1);
+		}
+		request.pieces = pieces.size();
+		for (IORequest piece : pieces) {
+			piece.parent = request;
+			deviceStats[piece.getDevice()].submitted();
+			diskScheduler[piece.getDevice()].add(piece);
+		}
+		for (IORequest piece : pieces) {
+			startNextDiskRequest(piece.getDevice());
 		}
-
 	}
 
-	public void performRead(int deviceNum, int platterNum, int platterStart, int length) {
-		int bufferLength = ((Disk) machine.devices[deviceNum]).buffer.length;
+	// whether a request lies inside its process's memory and a device of the
+	// given size
+
+	private boolean fits(IORequest request, int capacity) {
+		int limit = process_table.get(request.getProcessNum()).getLimit();
+		if (request.getLength() <= 0 || request.getMemory() < 0 || request.getMemory() + request.getLength() > limit
+				|| request.getPosition() < 0 || request.getEnd() > capacity) {
+			log.warn(Category.IO, "Bad I/O request " + request);
+			return false;
+		}
+		return true;
+	}
 
-		System.out.println("PlatterStart: " + platterStart);
+	/*
+	 * Decode the parameter block of a READ or WRITE system call -- device,
+	 * platter, platter start, length and memory address, at the address in the
+	 * accumulator -- and queue the request. If the parameters cannot be read
+	 * or the request is refused, the accumulator is set to FAILED and the
+	 * process does not wait.
+	 */
 
-		
-		machine.devices[deviceNum].controlRegister.register[0] = DeviceControllerOperations.READ;
-		machine.devices[deviceNum].controlRegister.register[1] = platterNum;
-		machine.devices[deviceNum].controlRegister.register[2] = platterStart
-				+ ((Q[deviceNum].element().getCount() - 1) * bufferLength);
-		if (length > bufferLength) {
-			machine.devices[deviceNum].controlRegister.register[3] = bufferLength;
-		} else {
-			machine.devices[deviceNum].controlRegister.register[3] = length;
+	private void submitDiskRequest(int operation) {
+		((MemoryController) machine.memory).setBase(process_table.get(process_table_position).getBase());
+		((MemoryController) machine.memory).setLimit(process_table.get(process_table_position).getLimit());
+		int Acc = process_table.get(process_table_position).getAcc();
+		try {
+			int deviceNum = machine.memory.load(Acc);
+			int platterNum = machine.memory.load(Acc + 1);
+			int platterStart = machine.memory.load(Acc + 2);
+			int length = machine.memory.load(Acc + 3);
+			int mem = machine.memory.load(Acc + 4);
+			if (operation == DeviceControllerOperations.READ) {
+				read(deviceNum, platterNum, platterStart, length, mem);
+			} else {
+				write(deviceNum, platterNum, platterStart, length, mem);
+			}
+		} catch (MemoryFault e) {
+			// a parameter block outside the process's memory; the process
+			// carries on with FAILED in its accumulator
+			log.warn(Category.IO, "I/O parameters of process %d are outside its memory", process_table_position);
+			process_table.get(process_table_position).setAcc(IORing.FAILED);
 		}
-		machine.devices[deviceNum].controlRegister.startOperation();
+	}
 
+	public void read(int deviceNum, int platterNum, int platterStart, int length, int mem) {
+		queueDiskRequest(DeviceControllerOperations.READ, deviceNum, platterNum, platterStart, length, mem);
 	}
 
 	public void write(int deviceNum, int platterNum, int platterStart, int length, int mem) {
+		queueDiskRequest(DeviceControllerOperations.WRITE, deviceNum, platterNum, platterStart, length, mem);
+	}
 
-		int bufferLength = ((Disk) machine.devices[deviceNum]).buffer.length;
-		int total = length / bufferLength;
-
-		if (length % bufferLength != 0) {
-			total++;
-		}
-		process_table[process_table_position].setStatus(ProcessState.WAITING);
-
-		if (Q[deviceNum].isEmpty()) {
-			Q[deviceNum].add(new IORequest(DeviceControllerOperations.WRITE, process_table_position, 1, total));
-			performWrite(deviceNum, platterNum, platterStart, length, mem);
+	private void queueDiskRequest(int operation, int deviceNum, int platterNum, int platterStart, int length, int mem) {
 
+		IORequest request = new IORequest(operation, process_table_position, deviceNum, platterNum, platterStart,
+				length, mem);
+		if (submit(request)) {
+			process_table.get(process_table_position).setStatus(ProcessState.WAITING);
 		} else {
-			Q[deviceNum].add(new IORequest(DeviceControllerOperations.WRITE, process_table_position, 1, total));
+			process_table.get(process_table_position).setAcc(IORing.FAILED);
 		}
 	}
 
-	public void performWrite(int deviceNum, int platterNum, int platterStart, int length, int mem) {
+	/*
+	 * While the disk has room for more commands, take the next request its
+	 * scheduler picks, merge in any waiting requests next to it, and send them
+	 * to the disk as one tagged command.
+	 */
+
+	private void startNextDiskRequest(int deviceNum) {
+		while (outstanding[deviceNum] < machine.devices[deviceNum].queueDepth && !diskScheduler[deviceNum].isEmpty()) {
+			IORequest next = diskScheduler[deviceNum].next(headPosition[deviceNum]);
+			LinkedList<IORequest> command = new LinkedList<>();
+			command.add(next);
+			mergeAdjacent(deviceNum, next, command);
+			diskOperations[deviceNum]++;
 
-		int bufferLength = ((Disk) machine.devices[deviceNum]).buffer.length;
+			if (next.getOpNum() == DeviceControllerOperations.WRITE) {
+				performWrite(deviceNum, command);
+			} else {
+				performRead(deviceNum, command);
+			}
+			headPosition[deviceNum] = command.getLast().getEnd();
+		}
+	}
 
-		mem = mem + ((Q[deviceNum].element().getCount() - 1) * bufferLength);
+	/*
+	 * Pull waiting requests on the same platter into the command that is
+	 * about to start, as long as the command spans no more than a platter and
+	 * its segments fit in the control register. Reads may overlap -- each
+	 * requester gets its own segment. Writes must sit exactly end to end, so no
+	 * word is written twice by the same command.
+	 */
 
-		if (length > bufferLength) {
-			for (int i = 0; i < bufferLength; i++) {
-				try {
-					((Disk) machine.devices[deviceNum]).buffer[i] = machine.memory.load(mem + i);
-					// System.out.println("MEM " + (mem + i) + ": " + ((Disk)
-					// machine.devices[deviceNum]).buffer[i]);
-				} catch (MemoryFault e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
+	private void mergeAdjacent(int deviceNum, IORequest first, LinkedList<IORequest> command) {
+		int operation = first.getOpNum();
+		int platter = first.getPlatter();
+		int[] window = { first.getPosition(), first.getEnd() };
+		int[] segments = { first.segmentCount() };
+		int maxSegments = maxSegments(deviceNum);
+
+		while (true) {
+			IORequest more = diskScheduler[deviceNum].take(window[1] - Disk.PLATTER_SIZE, window[1], window[0], r -> {
+				if (r.getOpNum() != operation || r.getPlatter() != platter
+						|| segments[0] + r.segmentCount() > maxSegments) {
+					return false;
 				}
-			}
-		} else {
-			for (int i = 0; i < remainingLength(length, Q[deviceNum].element().getTotal(),
-					Q[deviceNum].element().getTotal(), deviceNum); i++) {
-				try {
-					((Disk) machine.devices[deviceNum]).buffer[i] = machine.memory.load(mem + i);
-					// System.out.println(
-					// "MEM " + (mem + i) + ": " + ((Disk)
-					// machine.devices[deviceNum]).buffer[i]);
-				} catch (MemoryFault e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
+				if (Math.max(r.getEnd(), window[1]) - Math.min(r.getPosition(), window[0]) > Disk.PLATTER_SIZE) {
+					return false;
 				}
+				if (operation == DeviceControllerOperations.READ) {
+					return r.getPosition() <= window[1] && r.getEnd() >= window[0];
+				}
+				return r.getPosition() == window[1] || r.getEnd() == window[0];
+			});
+			if (more == null) {
+				return;
 			}
+			command.add(more);
+			mergedRequests[deviceNum]++;
+			segments[0] += more.segmentCount();
+			window[0] = Math.min(window[0], more.getPosition());
+			window[1] = Math.max(window[1], more.getEnd());
 		}
-		System.out.println("PlatterStart: " + platterStart);
+	}
 
-		machine.devices[deviceNum].controlRegister.register[0] = DeviceControllerOperations.WRITE;
-		machine.devices[deviceNum].controlRegister.register[1] = platterNum;
-		machine.devices[deviceNum].controlRegister.register[2] = platterStart
-				+ ((Q[deviceNum].element().getCount() - 1) * bufferLength);
-		if (length > bufferLength) {
-			machine.devices[deviceNum].controlRegister.register[3] = bufferLength;
-		} else {
-			machine.devices[deviceNum].controlRegister.register[3] = length;
+	// how many scatter-gather segments fit in a device's control register
 
+	private int maxSegments(int deviceNum) {
+		return (machine.devices[deviceNum].controlRegister.register.length - DeviceControllerOperations.SEGMENTS)
+				/ DeviceControllerOperations.SEGMENT_SIZE;
+	}
+
+	/*
+	 * Build a tagged command whose scatter-gather list covers the given
+	 * requests -- one segment for each platter a request touches, pointing
+	 * straight at the physical memory of its process -- and queue it on the
+	 * disk. However long the requests are, the disk finishes them all with one
+	 * interrupt, which carries the tag.
+	 */
+
+	private void startDiskOperation(int deviceNum, int operation, LinkedList<IORequest> requests) {
+		int[] register = new int[machine.devices[deviceNum].controlRegister.register.length];
+		int tag = nextTag[deviceNum]++;
+		int segment = 0;
+
+		for (IORequest request : requests) {
+			int position = request.getPosition();
+			int base = request.getProcessNum() == IORequest.KERNEL ? 0 : process_table.get(request.getProcessNum()).getBase();
+			int address = base + request.getMemory();
+			int left = request.getLength();
+			while (left > 0) {
+				int platterStart = position % Disk.PLATTER_SIZE;
+				int length = Math.min(left, Disk.PLATTER_SIZE - platterStart);
+				int at = DeviceControllerOperations.SEGMENTS + segment * DeviceControllerOperations.SEGMENT_SIZE;
+				register[at] = position / Disk.PLATTER_SIZE;
+				register[at + 1] = platterStart;
+				register[at + 2] = length;
+				register[at + 3] = address;
+				segment++;
+				position += length;
+				address += length;
+				left -= length;
+			}
+			request.setTag(tag);
+			request.setStartTime(System.nanoTime());
+			Q[deviceNum].add(request);
 		}
-		machine.devices[deviceNum].controlRegister.startOperation();
 
+		log.debug(Category.DISK, "PlatterStart: %d, segments: %d, tag: %d",
+				register[DeviceControllerOperations.SEGMENTS + 1], segment, tag);
+
+		register[0] = operation;
+		register[DeviceControllerOperations.SEGMENT_COUNT] = segment;
+		outstanding[deviceNum]++;
+		machine.devices[deviceNum].controlRegister.submit(new DeviceCommand(tag, register));
+	}
+
+	public void performRead(int deviceNum, LinkedList<IORequest> requests) {
+		startDiskOperation(deviceNum, DeviceControllerOperations.READ_SCATTER, requests);
+	}
+
+	public void performWrite(int deviceNum, LinkedList<IORequest> requests) {
+		startDiskOperation(deviceNum, DeviceControllerOperations.WRITE_GATHER, requests);
+	}
+
+	/*
+	 * The disks move data straight to and from the memory of the processes
+	 * they are serving, so nothing may be moved in memory while a transfer is
+	 * under way. Wait until every disk has finished all its commands; the
+	 * interrupts themselves are handled as usual afterwards.
+	 */
+
+	private void waitForDiskTransfers() {
+		for (int i = 0; i < machine.devices.length; i++) {
+			while (outstanding[i] > machine.devices[i].controlRegister.completed.size()) {
+				try {
+					Thread.sleep(1);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
 	}
 
 	// write console,
@@ -399,14 +2381,14 @@ public class OperatingSystem implements IInterruptHandler, ISystemCallHandler, I
 	// of a list element
 	// returns true if expanded in place returns false if didn't
 	private boolean expandInPlace(int newSize) {
-		int freeSpaceStart = process_table[process_table_position].getBase()
-				+ process_table[process_table_position].getLimit();
+		int freeSpaceStart = process_table.get(process_table_position).getBase()
+				+ process_table.get(process_table_position).getLimit();
 		Iterator<FreeSpace> spaceIt = freeSpaceList.iterator();
 		while (spaceIt.hasNext()) {
 			FreeSpace f1 = spaceIt.next();
 			if (f1.getStart() == freeSpaceStart && f1.getLength() >= newSize) {
-				process_table[process_table_position]
-						.setLimit(process_table[process_table_position].getLimit() + newSize);
+				process_table.get(process_table_position)
+						.setLimit(process_table.get(process_table_position).getLimit() + newSize);
 
 				if (f1.getLength() == 0) {
 					spaceIt.remove();
@@ -424,7 +2406,7 @@ public class OperatingSystem implements IInterruptHandler, ISystemCallHandler, I
 	// moves the actual program from the old location in physical memory to new
 	// location
 	private void physicalMove(int newSpot, int oldbase) {
-		for (int i = 0; i < process_table[process_table_position].getLimit(); i++) {
+		for (int i = 0; i < process_table.get(process_table_position).getLimit(); i++) {
 			try {
 				((MemoryController) machine.memory).setBase(oldbase);
 				int x = machine.memory.load(i);
@@ -466,15 +2448,15 @@ public class OperatingSystem implements IInterruptHandler, ISystemCallHandler, I
 	 */
 
 	private boolean moveProcess(int newSize) {
-		int totalSize = process_table[process_table_position].getLimit() + newSize;
-		int oldBase = process_table[process_table_position].getBase();
+		int totalSize = process_table.get(process_table_position).getLimit() + newSize;
+		int oldBase = process_table.get(process_table_position).getBase();
 		for (FreeSpace space : freeSpaceList) {
 			if (space.getLength() > totalSize) {
-				int oldProcessStart = process_table[process_table_position].getBase();
-				int oldProcessLimit = process_table[process_table_position].getLimit();
-				process_table[process_table_position].setBase(space.getStart());
-				process_table[process_table_position].setLimit(totalSize);
-				physicalMove(process_table[process_table_position].getBase(), oldBase);
+				int oldProcessStart = process_table.get(process_table_position).getBase();
+				int oldProcessLimit = process_table.get(process_table_position).getLimit();
+				process_table.get(process_table_position).setBase(space.getStart());
+				process_table.get(process_table_position).setLimit(totalSize);
+				physicalMove(process_table.get(process_table_position).getBase(), oldBase);
 				space.setStart(space.getStart() + totalSize);
 				space.setLength(space.getLength() - totalSize);
 
@@ -483,12 +2465,12 @@ public class OperatingSystem implements IInterruptHandler, ISystemCallHandler, I
 				return true;
 
 			} else if (space.getLength() == totalSize) {
-				int oldProcessStart = process_table[process_table_position].getBase();
-				int oldProcessLimit = process_table[process_table_position].getLimit();
+				int oldProcessStart = process_table.get(process_table_position).getBase();
+				int oldProcessLimit = process_table.get(process_table_position).getLimit();
 				freeSpaceList.remove(space);
-				process_table[process_table_position].setBase(space.getStart());
-				process_table[process_table_position].setLimit(totalSize);
-				physicalMove(process_table[process_table_position].getBase(), oldBase);
+				process_table.get(process_table_position).setBase(space.getStart());
+				process_table.get(process_table_position).setLimit(totalSize);
+				physicalMove(process_table.get(process_table_position).getBase(), oldBase);
 
 				freeSpaceList.add(new FreeSpace(oldProcessStart, oldProcessLimit));
 				return true;
@@ -510,9 +2492,10 @@ public class OperatingSystem implements IInterruptHandler, ISystemCallHandler, I
 	 */
 	private void compactProcesses() {
 		LinkedList<ProcessControlBlock> pcbList = new LinkedList<>();
-		for (int i = 0; i < process_table.length; i++) {
-			if (process_table[i] != null)
-				pcbList.add(process_table[i]);
+		for (ProcessControlBlock pcb : process_table.processes()) {
+			if (pcb.getResidence() == Residence.RESIDENT) {
+				pcbList.add(pcb);
+			}
 		}
 
 		Collections.sort(pcbList, new Comparator<ProcessControlBlock>() {
@@ -530,14 +2513,14 @@ public class OperatingSystem implements IInterruptHandler, ISystemCallHandler, I
 
 		}
 		freeSpaceList.removeAll(freeSpaceList);
-		int oldSize = machine.MEMORY_SIZE - position;
+		int oldSize = kernelBuffer - position;
 		freeSpaceList.add(new FreeSpace(position, oldSize));
 
 		Iterator<ProcessControlBlock> pcbIt = pcbList.descendingIterator();
 		while (pcbIt.hasNext()) {
 			ProcessControlBlock f1 = pcbIt.next();
 			if (f1.getLimit() + f1.getBase() == freeSpaceList.getFirst().getStart()
-					&& f1.getBase() != process_table[process_table_position].getBase()) {
+					&& f1.getBase() != process_table.get(process_table_position).getBase()) {
 				compactionPhysicalMove(
 						freeSpaceList.getFirst().getStart() + freeSpaceList.getFirst().getLength() - f1.getLimit(),
 						f1.getBase(), f1);
@@ -554,10 +2537,11 @@ public class OperatingSystem implements IInterruptHandler, ISystemCallHandler, I
 
 	private void sbrk(int newSize) {
 		if (expandInPlace(newSize)) {
-			System.out.println("Expanded in place");
+			log.debug(Category.MEMORY, "Expanded in place");
+			stats.sbrkInPlace();
 			return;
 		}
-		System.out.println("Could not expand");
+		log.debug(Category.MEMORY, "Could not expand");
 
 		Collections.sort(freeSpaceList, new Comparator<FreeSpace>() {
 			public int compare(FreeSpace f1, FreeSpace f2) {
@@ -579,162 +2563,133 @@ public class OperatingSystem implements IInterruptHandler, ISystemCallHandler, I
 				}
 			}
 		}
-		System.out.println("Free Spaces are merged");
+		log.debug(Category.MEMORY, "Free Spaces are merged");
 		if (expandInPlace(newSize)) {
-			System.out.println("Expanded in place");
+			log.debug(Category.MEMORY, "Expanded in place");
+			stats.sbrkInPlace();
 			return;
 		}
-		System.out.println("Could not expand after merge");
+		log.debug(Category.MEMORY, "Could not expand after merge");
+		// the disks may still be moving data through the process's I/O ring,
+		// straight to or from the image about to be copied and freed
+		IORing ring = process_table.get(process_table_position).getRing();
+		if (ring != null && ring.inFlight > 0) {
+			waitForDiskTransfers();
+		}
 		if (moveProcess(newSize)) {
-			System.out.println("Process was moved");
+			log.debug(Category.MEMORY, "Process was moved");
+			stats.sbrkMoved();
+			return;
+		}
+		log.debug(Category.MEMORY, "Could not move process");
+		if (swapBusy) {
+			log.debug(Category.MEMORY, "Could not compact while swapping");
+			stats.sbrkFailed();
 			return;
 		}
-		System.out.println("Could not move process");
+		waitForDiskTransfers();
 		compactProcesses();
 		if (expandInPlace(newSize)) {
-			System.out.println("Expanded in place");
+			log.debug(Category.MEMORY, "Expanded in place");
+			stats.sbrkCompacted();
 			return;
 		}
-		System.out.println("Memory Size is too small");
+		log.debug(Category.MEMORY, "Memory Size is too small");
+		stats.sbrkFailed();
 
 	}
 
 	private void saveRegisters(int savedProgramCounter) {
 		if (process_table_position != -1) {
-			process_table[process_table_position].setAcc(machine.cpu.acc);
-			process_table[process_table_position].setX(machine.cpu.x);
-			process_table[process_table_position].setPc(savedProgramCounter);
+			machine.cpu.saveState(process_table.get(process_table_position).getRegisters(), savedProgramCounter);
 		}
 
 	}
 
-	//This routine will calculate the remaining length of an operation.
-	//It will accept the original length, the count, the total number of operations,
-	//and the device number to determine its buffer size.
-	public int remainingLength(int length, int count, int total, int deviceNum) {
-
-		int bufferLength = ((Disk) machine.devices[deviceNum]).buffer.length;
-		int trueLength = length;
-
-		if (count == total) {
-			if (total > 1) {
-				for (int i = 1; i < total; i++) {
-					trueLength -= bufferLength;
-				}
-			} else {
-				trueLength = length;
-			}
-		} else {
-			for (int i = 1; i < count; i++) {
-				trueLength -= bufferLength;
-			}
-		}
-		return trueLength;
-	}
-
-/*	This method will take the head request that was completed and sent to the interrupt handler.
-	If the length of an operation is greater than the size of the buffer, the operation will get split up into parts.
-	This will basically check if all parts are completed.  If the count is less than the total, it will immediately
-	add the next part of the operation to the end of the list.  If the operation was a read, the buffer will
-	copy only as much as its length permits.  The variable "mem" is what memory location the data is copying to
-	and is increased based on the count and the buffer size.
-	
-	Else if the total is equal to the count, the process state is set to ready because all parts of the IORequest
-	have been completed.  If the operation was a read, it will copy the remaining length from the buffer to memory.
+/*	This method will take a request that was completed and sent to the interrupt handler.
+	The device has already moved the data to or from the process's memory, so all that is left is to set the
+	process state to ready.  A request made through the process's I/O ring instead posts a completion to the
+	ring, and only wakes the process if it is waiting for that many completions.
 	
 	    */
 	public void checkIOCompletion(int deviceNumber, IORequest head) {
-
-		if (head.getCount() < head.getTotal()) {
-			Q[deviceNumber].add(new IORequest(head.getOpNum(), head.getProcessNum(), head.getCount() + 1, head.getTotal()));
-			((MemoryController) machine.memory).setBase(process_table[head.getProcessNum()].getBase());
-			((MemoryController) machine.memory).setLimit(process_table[head.getProcessNum()].getLimit());
-			int Acc = process_table[head.getProcessNum()].getAcc();
-			try {
-				if (head.getOpNum() == DeviceControllerOperations.READ) {
-					int bufferLength = ((Disk) machine.devices[deviceNumber]).buffer.length;
-					int mem = machine.memory.load(Acc + 4) + ((head.getCount() - 1) * bufferLength);
-
-					for (int i = 0; i < bufferLength; i++) {
-						try {
-							machine.memory.store(mem + i, ((Disk) machine.devices[deviceNumber]).buffer[i]);
-							// System.out.println(
-							// "MEM " + (mem + i) + ": " + ((Disk)
-							// machine.devices[deviceNumber]).buffer[i]);
-
-						} catch (MemoryFault e) {
-							// TODO Auto-generated catch block
-							e.printStackTrace();
-						}
-
-					}
-
-				}
-			} catch (MemoryFault e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+		// a piece of a volume request completes the request with its last piece
+		IORequest parent = head.getParent();
+		if (parent != null) {
+			if (head.isFailed()) {
+				parent.setFailed(true);
 			}
-		} else {
-			process_table[head.getProcessNum()].setStatus(ProcessState.READY);
-
-			if (head.getOpNum() == DeviceControllerOperations.READ) {
-
-				((MemoryController) machine.memory).setBase(process_table[head.getProcessNum()].getBase());
-				((MemoryController) machine.memory).setLimit(process_table[head.getProcessNum()].getLimit());
-
-				int Acc = process_table[head.getProcessNum()].getAcc();
-
-				try {
-					int bufferLength = ((Disk) machine.devices[deviceNumber]).buffer.length;
-					int length = machine.memory.load(Acc + 3);
-					int mem = machine.memory.load(Acc + 4) + ((head.getCount() - 1) * bufferLength);
-
-					for (int i = 0; i < remainingLength(length, head.getCount(), head.getTotal(), deviceNumber); i++) {
-						try {
-							machine.memory.store(mem + i, ((Disk) machine.devices[deviceNumber]).buffer[i]);
-							// System.out.println(
-							// "MEM " + (mem + i) + ": " + ((Disk)
-							// machine.devices[deviceNumber]).buffer[i]);
-
-						} catch (MemoryFault e) {
-							// TODO Auto-generated catch block
-							e.printStackTrace();
-						}
-
-					}
-				} catch (MemoryFault e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
+			if (--parent.pieces == 0) {
+				LogicalVolume volume = volume(parent.getDevice());
+				if (volume != null) {
+					volume.finished(parent);
 				}
+				checkIOCompletion(parent.getDevice(), parent);
 			}
-
+			return;
+		}
+		if (head.getProcessNum() == IORequest.KERNEL) {
+			// the kernel carries on rather than wait for ever, so the failure
+			// is only reported
+			if (head.isFailed()) {
+				log.warn(Category.DISK, "Kernel request failed " + head);
+			}
+			if (head.onComplete != null) {
+				head.onComplete.run();
+			}
+			return;
 		}
-	}
-
-/*	This method will return the next closest IORequest to the arm location.  It will scan through the list of requests
-	for a given device and subtract the arm location from each of their platter start locations.
-	The one with the shortest distance is returned from its position in the linked list*/
-	
-	public IORequest closest(int armLocation, LinkedList<IORequest> Q) throws MemoryFault {
-
-		int smallest = Integer.MAX_VALUE;
-		int smallestPos = 0;
-
-		for (int i = 0; i < Q.size(); i++) {
-			((MemoryController) machine.memory).setBase(process_table[Q.get(i).getProcessNum()].getBase());
-			((MemoryController) machine.memory).setLimit(process_table[Q.get(i).getProcessNum()].getLimit());
-			int nextLocation = machine.memory.load(process_table[Q.get(i).getProcessNum()].getAcc() + 2);
-			if (Math.abs(armLocation - nextLocation) < smallest) {
-				smallest = Math.abs(armLocation - nextLocation);
-				smallestPos = i;
 
+		ProcessControlBlock pcb = process_table.get(head.getProcessNum());
+		if (transfersMemory(head)) {
+			pcb.addMemoryTransfers(-1);
+		}
+		if (head.isFailed()) {
+			log.warn(Category.DISK, "Request failed " + head);
+		}
+		if (!head.isAsync()) {
+			// a process that made a request and waited for it finds FAILED in
+			// its accumulator if it did not work
+			if (head.isFailed()) {
+				pcb.setAcc(IORing.FAILED);
 			}
-	//		System.out.print(nextLocation+",");
+			makeReady(pcb, ProcessScheduler.Reason.WOKEN);
+			return;
+		}
 
+		IORing ring = pcb.getRing();
+		if (ring == null) {
+			return;
+		}
+		ring.inFlight--;
+		if (pcb.getStatus() == ProcessState.TERMINATED) {
+			if (ring.inFlight == 0) {
+				endedWithIO--;
+				releaseProcess(pcb);
+			}
+			return;
+		}
+		((MemoryController) machine.memory).setBase(pcb.getBase());
+		((MemoryController) machine.memory).setLimit(pcb.getLimit());
+		try {
+			ring.complete(machine.memory, head.getUserData(), head.isFailed() ? IORing.FAILED : IORing.SUCCESS);
+			if (ring.waitFor > 0 && ring.completionsReady(machine.memory) >= ring.waitFor) {
+				ring.waitFor = 0;
+				makeReady(pcb, ProcessScheduler.Reason.WOKEN);
+			}
+		} catch (MemoryFault e) {
+			// the process shrank past its rings; the completion is held as
+			// failed, and a process waiting for completions is woken with -1
+			// rather than left waiting for ever
+			log.warn(Category.IO, "I/O ring of process %d is outside its memory", pcb.getPid());
+			if (ring.waitFor > 0) {
+				ring.waitFor = 0;
+				pcb.setAcc(IORing.FAILED);
+				makeReady(pcb, ProcessScheduler.Reason.WOKEN);
+			}
 		}
-		System.out.println("Closest = "+ smallest);
-		return Q.get(smallestPos);
 	}
+
 	/*
 	 * Handle an interrupt from the hardware.
 	 * 
@@ -747,7 +2702,7 @@ public class OperatingSystem implements IInterruptHandler, ISystemCallHandler, I
 	@Override
 	public void interrupt(int savedProgramCounter, int deviceNumber) {
 
-		CheckValid.deviceNumber(deviceNumber);
+		CheckValid.deviceNumber(machine, deviceNumber);
 		if (!machine.cpu.runProg) {
 			return;
 		}
@@ -755,112 +2710,361 @@ public class OperatingSystem implements IInterruptHandler, ISystemCallHandler, I
 		// Saves registers
 		// Assigns the head of the queue, the one to be removed
 		machine.devices[deviceNumber].interruptRegisters.register[deviceNumber] = false;
-		saveRegisters(savedProgramCounter);
-		IORequest head = Q[deviceNumber].remove();
-		checkIOCompletion(deviceNumber, head);
-
-		if (!Q[deviceNumber].isEmpty()) {
-
-			if (deviceNumber == Machine.CONSOLE) {
 
+		if (diskScheduler[deviceNumber] == null) {
+			IORequest head = Q[deviceNumber].remove();
+			deviceStats[deviceNumber].completed(head);
+			checkIOCompletion(deviceNumber, head);
+			if (!Q[deviceNumber].isEmpty()) {
 				IORequest newHead = Q[deviceNumber].element();
 				// starts the console write
-				machine.devices[Machine.CONSOLE].controlRegister.register[1] = process_table[newHead.getProcessNum()]
-						.getAcc();
-				machine.devices[Machine.CONSOLE].controlRegister.startOperation();
-			} else {
-				IORequest newHead = null;
+				newHead.setStartTime(System.nanoTime());
+				machine.devices[deviceNumber].controlRegister.register[1] = newHead.getValue();
+				machine.devices[deviceNumber].controlRegister.startOperation();
+			}
+		} else {
+			completeDiskCommands(deviceNumber);
+		}
+		showIOR("Interrupt");
 
-				try {
-					//If the queue is not empty and the device is not the console:
-					//-This will check the head position after the first operation
-					//completes.
-					//-Goes through a routine that scans the list and returns the next closest request to the head position
-					//-Removes that request and places it in front of the list
-					
-					int oldAcc = process_table[head.getProcessNum()].getAcc();
-					((MemoryController) machine.memory).setBase(process_table[head.getProcessNum()].getBase());
-					((MemoryController) machine.memory).setLimit(process_table[head.getProcessNum()].getLimit());
-					headPosition[deviceNumber] = machine.memory.load(oldAcc + 2) + machine.memory.load(oldAcc + 3);
-					
-					System.out.println("Head Position after completing Operation " +head.getProcessNum()+":   " + headPosition[deviceNumber]);
-					// sets the head location to the next closest request
-					newHead = closest(headPosition[deviceNumber], Q[deviceNumber]);
-
-					Q[deviceNumber].remove(newHead);
-					Q[deviceNumber].addFirst(newHead);
-
-
-				} catch (MemoryFault e1) {
-					// TODO Auto-generated catch block
-					e1.printStackTrace();
-				}
+		// the handler leaves the CPU's registers alone, but not where memory
+		// is mapped
+		if (process_table_position == -1) {
+			machine.memory.relocate(WAIT_REGISTERS.base, WAIT_REGISTERS.limit);
+			machine.cpu.setPc(0);
+		} else {
+			ProcessControlBlock pcb = process_table.get(process_table_position);
+			machine.memory.relocate(pcb.getBase(), pcb.getLimit());
+		}
 
-				((MemoryController) machine.memory).setBase(process_table[newHead.getProcessNum()].getBase());
-				((MemoryController) machine.memory).setLimit(process_table[newHead.getProcessNum()].getLimit());
-				if (newHead.getOpNum() == DeviceControllerOperations.WRITE) {
+		// System.out.println("Ops in Dev "+deviceNumber+": " +
+		// Q[Machine.CONSOLE].size());
+	}
 
-					// load parameters from memory
-					int Acc = process_table[newHead.getProcessNum()].getAcc();
-					try {
+	// true once every process that was started has ended
 
-						performWrite(machine.memory.load(Acc), machine.memory.load(Acc + 1),
-								machine.memory.load(Acc + 2), machine.memory.load(Acc + 3),
-								machine.memory.load(Acc + 4));
+	private boolean allTerminated() {
+		return process_table.size() == endedWithIO;
+	}
 
-					} catch (MemoryFault e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
+	/*
+	 * End a process, closing the files it left open as CLOSE would, and give
+	 * its memory and its slot in the process table back, unless it still has
+	 * ring operations in flight.
+	 */
 
-					}
-				} else {
+	private void endProcess(ProcessControlBlock pcb) {
+		pcb.setStatus(ProcessState.TERMINATED);
+		stats.ended(pcb);
+		realTimeScheduler.leave(pcb);
+		for (OpenFile file : pcb.getFiles()) {
+			if (file != null) {
+				flushFile(file);
+			}
+		}
+		pcb.closeFiles();
+		if (pcb.getRing() != null && pcb.getRing().inFlight > 0) {
+			endedWithIO++;
+			return;
+		}
+		releaseProcess(pcb);
+	}
+
+	/*
+	 * Stop this machine, after a fault it cannot recover from, and fail every
+	 * job that was running or waiting to, so that whoever is waiting for them
+	 * hears of it. Other machines in the same process carry on.
+	 */
+
+	private void halt(Throwable cause) {
+		for (ProcessControlBlock pcb : process_table.processes()) {
+			if (pcb.getJob() != null) {
+				pcb.getJob().failed(cause);
+			}
+		}
+		for (Job job : jobQueue.removeAll()) {
+			job.failed(cause);
+		}
+		// work handed to the CPU's thread will never be done now
+		halted = true;
+		FutureTask<?> task;
+		while ((task = deferred.poll()) != null) {
+			task.cancel(false);
+		}
+		log.flush();
+		try {
+			machine.powerDown();
+		} catch (InterruptedException e) {
+			// only waiting for the CPU's thread is interruptible, and this is it
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void releaseProcess(ProcessControlBlock pcb) {
+		freeMemory(pcb.getBase(), pcb.getLimit());
+		process_table.release(pcb);
+		pumpSwapper();
+		if (pcb.getJob() != null) {
+			pcb.getJob().ended(pcb.getCpuTime());
+		}
+		admitJobs();
+	}
+
+	/*
+	 * Use part of a disk as swap space. Processes are then swapped out to
+	 * make room for those waiting to be swapped in, rather than the latter
+	 * waiting for processes to end.
+	 */
+
+	public void swapOn(int deviceNum, int start, int length) {
+		CheckValid.deviceNumber(machine, deviceNum);
+		if (diskScheduler[deviceNum] == null) {
+			throw new IllegalArgumentException("Not a disk : " + deviceNum);
+		}
+		if (deviceNum == fileSystemDevice) {
+			throw new IllegalArgumentException("The file system is on disk " + deviceNum);
+		}
+		if (start < 0 || length <= 0 || start + length > Disk.NUM_PLATTERS * Disk.PLATTER_SIZE) {
+			throw new IllegalArgumentException("Bad swap area : " + start + ", " + length);
+		}
+		swapSpace = new SwapSpace(deviceNum, start, length);
+	}
 
-					// load parameters from memory
-					int Acc = process_table[newHead.getProcessNum()].getAcc();
-					try {
+	// queue a process that is not in memory to be swapped in; it waits
+	// until it is
 
-						performRead(machine.memory.load(Acc), machine.memory.load(Acc + 1),
-								machine.memory.load(Acc + 2), machine.memory.load(Acc + 3));
+	private void wantSwapIn(ProcessControlBlock pcb) {
+		pcb.setStatus(ProcessState.WAITING);
+		if (!pcb.isSwapInWanted()) {
+			pcb.setSwapInWanted(true);
+			swapIn.add(pcb);
+		}
+	}
 
-					} catch (MemoryFault e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
+	/*
+	 * The medium-term scheduler. Swap in the first process waiting to come
+	 * in if memory has room for it; if not, swap out a process to make room.
+	 * One image moves at a time.
+	 */
 
+	private void pumpSwapper() {
+		while (!swapBusy && !swapIn.isEmpty()) {
+			ProcessControlBlock pcb = swapIn.peek();
+			if (pcb.getResidence() != Residence.SWAPPED) {
+				// still on its way out
+				return;
+			}
+			int address = findFreeSpace(pcb.getLimit());
+			if (address == -1) {
+				ProcessControlBlock victim = swapSpace == null ? null : chooseVictim(pcb.getLimit());
+				if (victim != null) {
+					swapOut(victim);
 				}
+				return;
 			}
+			swapIn.remove();
+			swapIn(pcb, address);
+		}
+	}
+
+	/*
+	 * Bring a process into memory at the given address, from its program if it
+	 * has never been in memory, otherwise from the swap disk. A process whose
+	 * image cannot be brought in is ended, and its job fails.
+	 */
 
+	private void swapIn(ProcessControlBlock pcb, int address) {
+		pcb.setBase(address);
+		if (pcb.getImage() != null) {
+			Program image = pcb.getImage();
+			pcb.setImage(null);
+			try {
+				loadProgram(address, image);
+			} catch (MemoryFault e) {
+				swapInFailed(pcb, e);
+				return;
+			}
+			swappedIn(pcb, ProcessScheduler.Reason.NEW);
+			return;
 		}
-		showIOR("Interrupt");
+		swapBusy = true;
+		pcb.setResidence(Residence.SWAPPING_IN);
+		IORequest read = IORequest.kernel(DeviceControllerOperations.READ, swapSpace.getDevice(),
+				pcb.getSwapPosition(), pcb.getLimit(), address, null);
+		read.onComplete = () -> {
+			swapSpace.free(pcb.getSwapPosition(), pcb.getLimit());
+			pcb.setSwapPosition(-1);
+			swapBusy = false;
+			if (read.isFailed()) {
+				swapInFailed(pcb, new IOException("Cannot read process " + pcb.getPid() + " from swap"));
+			} else {
+				swapIns++;
+				swappedIn(pcb, ProcessScheduler.Reason.WOKEN);
+			}
+			pumpSwapper();
+		};
+		submitKernelRequest(read);
+	}
 
-		if (process_table_position == -1) {
-			((MemoryController) machine.memory).setBase(0);
-			((MemoryController) machine.memory).setLimit(4);
-			machine.cpu.setPc(0);
-		} else {
-			machine.cpu.acc = process_table[process_table_position].getAcc();
-			machine.cpu.x = process_table[process_table_position].getX();
-			machine.cpu.setPc(process_table[process_table_position].getPc());
-			((MemoryController) machine.memory).setBase(process_table[process_table_position].getBase());
-			((MemoryController) machine.memory).setLimit(process_table[process_table_position].getLimit());
+	private void swappedIn(ProcessControlBlock pcb, ProcessScheduler.Reason reason) {
+		pcb.setResidence(Residence.RESIDENT);
+		pcb.setSwapInWanted(false);
+		makeReady(pcb, reason);
+	}
+
+	// end a process whose image did not make it into memory, giving back the
+	// memory it was to have, and fail its job rather than end it
+
+	private void swapInFailed(ProcessControlBlock pcb, Throwable cause) {
+		log.warn(Category.MEMORY, "Cannot swap in process %d", pcb.getPid());
+		Job job = pcb.getJob();
+		pcb.setJob(null);
+		pcb.setResidence(Residence.RESIDENT);
+		pcb.setSwapInWanted(false);
+		endProcess(pcb);
+		if (job != null) {
+			job.failed(cause);
 		}
+	}
 
-		// System.out.println("Ops in Dev "+deviceNumber+": " +
-		// Q[Machine.CONSOLE].size());
+	/*
+	 * Write a process's image to the swap disk, and free its memory once it is
+	 * there.
+	 */
+
+	private void swapOut(ProcessControlBlock pcb) {
+		int position = swapSpace.allocate(pcb.getLimit());
+		if (position == -1) {
+			return;
+		}
+		swapBusy = true;
+		pcb.setResidence(Residence.SWAPPING_OUT);
+		pcb.setSwapPosition(position);
+		submitKernelRequest(IORequest.kernel(DeviceControllerOperations.WRITE, swapSpace.getDevice(), position,
+				pcb.getLimit(), pcb.getBase(), () -> {
+					freeMemory(pcb.getBase(), pcb.getLimit());
+					pcb.setResidence(Residence.SWAPPED);
+					swapBusy = false;
+					swapOuts++;
+					pumpSwapper();
+				}));
+	}
+
+	/*
+	 * Choose a process to swap out: one that is not running, not real-time,
+	 * and has no I/O to or from its memory under way. Blocked processes go
+	 * before ready ones, the longest blocked first, then the ready ones least
+	 * entitled to the CPU. One big enough to make the room needed is preferred.
+	 *
+	 * This looks at every process, but only runs when memory is short and an
+	 * image is about to be written to disk anyway.
+	 */
+
+	private ProcessControlBlock chooseVictim(int needed) {
+		ProcessControlBlock best = null;
+		for (ProcessControlBlock pcb : process_table.processes()) {
+			if (pcb.getPid() == process_table_position || pcb.getResidence() != Residence.RESIDENT
+					|| pcb.isRealTime() || pcb.getMemoryTransfers() > 0
+					|| (pcb.getRing() != null && pcb.getRing().inFlight > 0)
+					|| (pcb.getStatus() != ProcessState.READY && pcb.getStatus() != ProcessState.WAITING)) {
+				continue;
+			}
+			if (best == null || betterVictim(pcb, best, needed)) {
+				best = pcb;
+			}
+		}
+		return best;
+	}
+
+	private static boolean betterVictim(ProcessControlBlock a, ProcessControlBlock b, int needed) {
+		if ((a.getLimit() >= needed) != (b.getLimit() >= needed)) {
+			return a.getLimit() >= needed;
+		}
+		if (a.getStatus() != b.getStatus()) {
+			return a.getStatus() == ProcessState.WAITING;
+		}
+		if (a.getStatus() == ProcessState.WAITING) {
+			return a.getStatusTime() < b.getStatusTime();
+		}
+		if (a.getNice() != b.getNice()) {
+			return a.getNice() > b.getNice();
+		}
+		return a.getPriority() > b.getPriority();
+	}
+
+	// whether a request moves words to or from memory, as disk requests do
+	// and console requests do not
+
+	private boolean transfersMemory(IORequest request) {
+		return request.getDevice() >= machine.devices.length || diskScheduler[request.getDevice()] != null;
+	}
+
+	// queueing latency and seek distance for each disk
+
+	private void showDiskLatency() {
+		for (int i = 0; i < machine.devices.length; i++) {
+			if (diskScheduler[i] != null) {
+				machine.out.println("Disk " + i + ": " + diskScheduler[i] + ", operations=" + diskOperations[i]
+						+ ", merged=" + mergedRequests[i] + ", " + deviceStats[i]);
+			}
+		}
+	}
+
+	/*
+	 * Complete every request carried by every command a disk has finished --
+	 * possibly none, if an earlier interrupt already collected them -- and
+	 * start the disk on more.
+	 */
+
+	private void completeDiskCommands(int deviceNumber) {
+		// completing a request can queue new ones, so the requests are
+		// completed once they are all off the queue
+		LinkedList<IORequest> done = new LinkedList<>();
+		DeviceCommand command;
+		while ((command = machine.devices[deviceNumber].controlRegister.completed.poll()) != null) {
+			outstanding[deviceNumber]--;
+			Iterator<IORequest> it = Q[deviceNumber].iterator();
+			while (it.hasNext()) {
+				IORequest request = it.next();
+				if (request.getTag() == command.tag) {
+					it.remove();
+					request.setFailed(command.failed);
+					done.add(request);
+				}
+			}
+			log.debug(Category.DISK, "Completed command %d on disk %d", command.tag, deviceNumber);
+		}
+		for (IORequest request : done) {
+			deviceStats[deviceNumber].completed(request);
+			checkIOCompletion(deviceNumber, request);
+		}
+		startNextDiskRequest(deviceNumber);
+		pumpRebuild();
 	}
 
+	// every device's queue, traced after each system call and interrupt.
+	// The queues change as soon as the handler returns, so they are written
+	// out here rather than by the log's thread.
+
 	private void showIOR(String Message) {
-		System.out.println("IO Queues: " + Message);
-		for (int i = 0; i < Machine.NUM_DEVICES; i++) {
-			System.out.print(i + ": ");
+		if (!log.isEnabled(Level.TRACE, Category.IO)) {
+			return;
+		}
+		StringBuilder queues = new StringBuilder("IO Queues: " + Message);
+		for (int i = 0; i < machine.devices.length; i++) {
+			queues.append(System.lineSeparator()).append(i).append(": ");
 			for (IORequest R : Q[i]) {
-				System.out.print(R);
-				System.out.print(", ");
+				queues.append(R).append(", ");
 
 			}
-			System.out.println();
+			if (diskScheduler[i] != null) {
+				for (IORequest R : diskScheduler[i].pending()) {
+					queues.append(R).append(", ");
+				}
+			}
 
 		}
+		log.trace(Category.IO, queues.toString());
 	}
 
 }
\ No newline at end of file
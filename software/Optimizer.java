@@ -0,0 +1,728 @@
+package s340.software;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import s340.hardware.Opcode;
+
+/*
+ * An optimizer for S340 programs, which removes instructions that cannot
+ * change what a program does, so it runs fewer instructions and takes fewer
+ * timer traps.
+ *
+ * It builds a control flow graph from the jumps and works out which values
+ * the accumulator and the index register can hold at each instruction. With
+ * that it
+ *
+ *   - folds conditional jumps on a known accumulator into a JMP, or nothing,
+ *   - removes instructions that set a register to the value it already holds,
+ *     such as a LOADI of the constant already loaded, a LOAD of the word just
+ *     stored, or a STORE of the value the word already holds,
+ *   - removes a STORE overwritten by another before anything can read it,
+ *   - threads jumps to a JMP straight to where that JMP goes, and removes
+ *     jumps to the next instruction,
+ *   - removes code that cannot be reached,
+ *
+ * and then closes up the gaps, moving jump targets to match. The data size
+ * grows by the words removed, so the program's data stays where it was.
+ *
+ * What is known about memory is only carried within a basic block, and none
+ * of it past a SYSCALL, which may read its parameter block and write any word;
+ * a SYSCALL also leaves the accumulator and index register unknown. So
+ * parameter blocks are always written before the call, loops that wait on a
+ * word that I/O is filling always read it again, and only registers are
+ * followed from block to block.
+ *
+ * Addresses are only changed where they are jump targets. A program that
+ * uses addresses inside its own code as data, jumps to the middle of an
+ * instruction or outside its code, or can run off the end of its code, is
+ * returned unchanged.
+ */
+
+public class Optimizer
+{
+
+	// what is known about a register at the start of a block -- nothing yet,
+	// a constant, or that it could hold anything
+
+	private static final long UNREACHED = Long.MIN_VALUE;
+	private static final long VARYING = Long.MIN_VALUE + 1;
+
+	// values within a block are constants or, for values that are not known,
+	// numbered symbols
+
+	private static final long CONSTANT = 1L << 32;
+	private static final long SYMBOL = 2L << 32;
+
+	// instructions removed, conditional jumps folded and jumps threaded, over
+	// every program optimized
+
+	private long removed;
+	private long folded;
+	private long threaded;
+
+	// the program being optimized
+
+	private int[] code;
+	private int start;
+	private int count;
+
+	// per instruction -- what the registers hold on the way in, whether it is
+	// the first of a basic block, and whether it is removed
+
+	private long[] accIn;
+	private long[] xIn;
+	private boolean[] leader;
+	private boolean[] dead;
+
+	private int nextSymbol;
+
+	/*
+	 * Optimize a program.
+	 *
+	 * @return the optimized program, or the same program if it cannot be
+	 * optimized safely.
+	 */
+
+	public Program optimize(Program program)
+	{
+		code = program.getCode().clone();
+		start = program.getStart();
+		if (code.length % 2 != 0 || code.length == 0)
+		{
+			return program;
+		}
+		count = code.length / 2;
+		if (!checkAddresses())
+		{
+			return program;
+		}
+		findLeaders();
+		if (!propagate())
+		{
+			return program;
+		}
+		dead = new boolean[count];
+		for (int i = 0; i < count; i++)
+		{
+			dead[i] = accIn[i] == UNREACHED;
+		}
+		simplify();
+		// removing code can leave a jump to the next instruction, and
+		// removing that can leave more code unreachable
+		while (threadJumps())
+		{
+			removeUnreachable();
+		}
+		findLeaders();
+		removeDeadWrites();
+		return compact(program);
+	}
+
+	/*
+	 * Check that no instruction uses an address inside the code as data, and
+	 * that every jump lands on an instruction.
+	 */
+
+	private boolean checkAddresses()
+	{
+		for (int i = 0; i < count; i++)
+		{
+			int opcode = opcode(i);
+			int operand = operand(i);
+			if (opcode < 0 || opcode >= Opcode.instructions.length)
+			{
+				return false;
+			}
+			if (isJump(opcode))
+			{
+				int target = operand - start;
+				if (target < 0 || target >= code.length || target % 2 != 0)
+				{
+					return false;
+				}
+			}
+			else if (readsMemory(opcode) || opcode == Opcode.STORE || opcode == Opcode.STOREX)
+			{
+				if (operand >= start && operand < start + code.length)
+				{
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Mark the instructions that start basic blocks -- the first, the targets
+	 * of jumps, and those after a jump -- skipping any removed.
+	 */
+
+	private void findLeaders()
+	{
+		leader = new boolean[count + 1];
+		leader[live(0)] = true;
+		for (int i = 0; i < count; i++)
+		{
+			if (dead != null && dead[i])
+			{
+				continue;
+			}
+			if (isJump(opcode(i)))
+			{
+				leader[live(target(i))] = true;
+				leader[live(i + 1)] = true;
+			}
+		}
+	}
+
+	/*
+	 * Work out the registers at the start of every block reached, following
+	 * only the branches a known accumulator can take.
+	 *
+	 * @return false if the program can run off the end of its code, or uses a
+	 * parameter block inside it.
+	 */
+
+	private boolean propagate()
+	{
+		accIn = new long[count];
+		xIn = new long[count];
+		Arrays.fill(accIn, UNREACHED);
+		Arrays.fill(xIn, UNREACHED);
+		accIn[0] = VARYING;
+		xIn[0] = VARYING;
+		ArrayDeque<Integer> work = new ArrayDeque<>();
+		work.add(0);
+		long[] state = new long[2];
+		while (!work.isEmpty())
+		{
+			int i = work.remove();
+			state[0] = enter(accIn[i]);
+			state[1] = enter(xIn[i]);
+			Map<Integer, Long> memory = new HashMap<>();
+			while (true)
+			{
+				int opcode = opcode(i);
+				if (opcode == Opcode.SYSCALL && isConstant(state[0]))
+				{
+					int block = value(state[0]);
+					if (block >= start && block < start + code.length)
+					{
+						return false;
+					}
+				}
+				int next = i + 1;
+				if (opcode == Opcode.END)
+				{
+					break;
+				}
+				if (isJump(opcode))
+				{
+					int taken = taken(opcode, state[0]);
+					if (taken != 0)
+					{
+						flow(target(i), state, work);
+					}
+					if (opcode == Opcode.JMP || taken == 1)
+					{
+						break;
+					}
+				}
+				else
+				{
+					transfer(i, state, memory);
+				}
+				if (next == count)
+				{
+					return false;
+				}
+				if (leader[next])
+				{
+					flow(next, state, work);
+					break;
+				}
+				accIn[next] = state[0];
+				xIn[next] = state[1];
+				i = next;
+			}
+		}
+		return true;
+	}
+
+	// carry the registers into a block, queueing it if that tells it more
+
+	private void flow(int to, long[] state, ArrayDeque<Integer> work)
+	{
+		long acc = meet(accIn[to], leave(state[0]));
+		long x = meet(xIn[to], leave(state[1]));
+		if (acc != accIn[to] || x != xIn[to])
+		{
+			accIn[to] = acc;
+			xIn[to] = x;
+			if (!work.contains(to))
+			{
+				work.add(to);
+			}
+		}
+	}
+
+	private static long meet(long a, long b)
+	{
+		if (a == UNREACHED)
+		{
+			return b;
+		}
+		return a == b ? a : VARYING;
+	}
+
+	// a register's value going into a block, and coming out of one
+
+	private long enter(long value)
+	{
+		return value == VARYING ? symbol() : value;
+	}
+
+	private static long leave(long value)
+	{
+		return isConstant(value) ? value : VARYING;
+	}
+
+	/*
+	 * Work out what an instruction other than a jump leaves in the registers
+	 * and memory, as {acc, x}.
+	 *
+	 * @return true if it changes nothing.
+	 */
+
+	private boolean transfer(int i, long[] state, Map<Integer, Long> memory)
+	{
+		long acc = state[0];
+		long x = state[1];
+		int operand = operand(i);
+		switch (opcode(i))
+		{
+			case Opcode.LOAD:
+				Long word = memory.get(operand);
+				if (word == null)
+				{
+					word = symbol();
+					memory.put(operand, word);
+				}
+				state[0] = word;
+				break;
+			case Opcode.LOADI:
+				state[0] = constant(operand);
+				break;
+			case Opcode.LOADX:
+				state[0] = symbol();
+				break;
+			case Opcode.STORE:
+				Long old = memory.put(operand, acc);
+				return old != null && old == acc;
+			case Opcode.STOREX:
+				memory.clear();
+				break;
+			case Opcode.TAX:
+				state[1] = acc;
+				break;
+			case Opcode.TXA:
+				state[0] = x;
+				break;
+			case Opcode.INCA:
+				state[0] = arithmetic(Opcode.ADD, acc, constant(1));
+				break;
+			case Opcode.INCX:
+				state[1] = arithmetic(Opcode.ADD, x, constant(1));
+				break;
+			case Opcode.ADDI:
+				state[0] = arithmetic(Opcode.ADD, acc, constant(operand));
+				break;
+			case Opcode.SUBI:
+				state[0] = arithmetic(Opcode.SUB, acc, constant(operand));
+				break;
+			case Opcode.ADD:
+			case Opcode.SUB:
+			case Opcode.MUL:
+			case Opcode.DIV:
+				Long by = memory.get(operand);
+				state[0] = arithmetic(opcode(i), acc, by == null ? symbol() : by);
+				break;
+			case Opcode.SYSCALL:
+				memory.clear();
+				state[0] = symbol();
+				state[1] = symbol();
+				break;
+			case Opcode.INPUT:
+				state[0] = symbol();
+				break;
+			default:
+				break;
+		}
+		return state[0] == acc && state[1] == x;
+	}
+
+	// the result of arithmetic on two values, which is only known if both are
+
+	private long arithmetic(int opcode, long a, long b)
+	{
+		if (opcode == Opcode.ADD && b == constant(0) || opcode == Opcode.SUB && b == constant(0))
+		{
+			return a;
+		}
+		if (!isConstant(a) || !isConstant(b))
+		{
+			return symbol();
+		}
+		switch (opcode)
+		{
+			case Opcode.ADD:
+				return constant(value(a) + value(b));
+			case Opcode.SUB:
+				return constant(value(a) - value(b));
+			case Opcode.MUL:
+				return constant(value(a) * value(b));
+			default:
+				return value(b) == 0 ? symbol() : constant(value(a) / value(b));
+		}
+	}
+
+	/*
+	 * Fold the branches that can only go one way, and remove the instructions
+	 * that change nothing.
+	 */
+
+	private void simplify()
+	{
+		long[] state = new long[2];
+		Map<Integer, Long> memory = new HashMap<>();
+		for (int i = 0; i < count; i++)
+		{
+			if (dead[i])
+			{
+				continue;
+			}
+			// within a block the registers carry on from the instruction before
+			if (leader[i])
+			{
+				memory.clear();
+				state[0] = enter(accIn[i]);
+				state[1] = enter(xIn[i]);
+			}
+			int opcode = opcode(i);
+			if (isJump(opcode))
+			{
+				int taken = taken(opcode, state[0]);
+				if (opcode != Opcode.JMP && taken == 1)
+				{
+					code[2 * i] = Opcode.JMP;
+					folded++;
+				}
+				else if (taken == 0)
+				{
+					dead[i] = true;
+					folded++;
+				}
+			}
+			else
+			{
+				// the state moves on exactly once, whether or not the
+				// instruction goes. A trap, a call, input, output and an
+				// indexed store happen whatever the registers hold.
+				boolean unchanged = transfer(i, state, memory);
+				if (unchanged && !hasEffect(opcode))
+				{
+					dead[i] = true;
+				}
+			}
+		}
+	}
+
+	/*
+	 * Send jumps that land on a JMP to where it goes, and remove jumps to the
+	 * instruction that follows anyway.
+	 *
+	 * @return whether any jump changed.
+	 */
+
+	private boolean threadJumps()
+	{
+		boolean changed = false;
+		for (int i = 0; i < count; i++)
+		{
+			if (dead[i] || !isJump(opcode(i)))
+			{
+				continue;
+			}
+			int target = follow(target(i));
+			if (target != live(target(i)))
+			{
+				code[2 * i + 1] = start + 2 * target;
+				threaded++;
+				changed = true;
+			}
+			if (target == live(i + 1))
+			{
+				dead[i] = true;
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	// where control ends up from an instruction, through removed instructions
+	// and unconditional jumps
+
+	private int follow(int i)
+	{
+		int target = live(i);
+		for (int hops = 0; hops < count && target < count && opcode(target) == Opcode.JMP; hops++)
+		{
+			int next = live(target(target));
+			if (next == target)
+			{
+				break;
+			}
+			target = next;
+		}
+		return target;
+	}
+
+	// the first instruction still there at or after i, or count if none
+
+	private int live(int i)
+	{
+		while (i < count && dead != null && dead[i])
+		{
+			i++;
+		}
+		return i;
+	}
+
+	/*
+	 * Remove the instructions that can no longer be reached, now that branches
+	 * have been folded and jumps threaded.
+	 */
+
+	private void removeUnreachable()
+	{
+		boolean[] reached = new boolean[count];
+		ArrayDeque<Integer> work = new ArrayDeque<>();
+		work.add(live(0));
+		while (!work.isEmpty())
+		{
+			int i = work.remove();
+			while (i < count && !reached[i])
+			{
+				reached[i] = true;
+				int opcode = opcode(i);
+				if (isJump(opcode))
+				{
+					work.add(live(target(i)));
+					if (opcode == Opcode.JMP)
+					{
+						break;
+					}
+				}
+				if (opcode == Opcode.END)
+				{
+					break;
+				}
+				i = live(i + 1);
+			}
+		}
+		for (int i = 0; i < count; i++)
+		{
+			if (!dead[i] && !reached[i])
+			{
+				dead[i] = true;
+			}
+		}
+	}
+
+	/*
+	 * Remove stores that another store to the same word overwrites, and
+	 * constants and copies put in the accumulator that another value replaces,
+	 * within a block, before anything can read them.
+	 */
+
+	private void removeDeadWrites()
+	{
+		boolean accLive = true;
+		for (int i = count - 1; i >= 0; i--)
+		{
+			if (dead[i])
+			{
+				continue;
+			}
+			int opcode = opcode(i);
+			if (!accLive && (opcode == Opcode.LOADI || opcode == Opcode.TXA || opcode == Opcode.INCA
+					|| opcode == Opcode.ADDI || opcode == Opcode.SUBI))
+			{
+				dead[i] = true;
+				continue;
+			}
+			if (opcode == Opcode.LOADI || opcode == Opcode.LOAD || opcode == Opcode.LOADX || opcode == Opcode.TXA
+					|| opcode == Opcode.INPUT)
+			{
+				accLive = false;
+			}
+			else if (opcode != Opcode.INCX)
+			{
+				// everything else reads the accumulator, or may, or ends a
+				// block after which it may be read
+				accLive = true;
+			}
+			if (leader[i])
+			{
+				accLive = true;
+			}
+		}
+
+		Map<Integer, Integer> pending = new HashMap<>();
+		for (int i = 0; i < count; i++)
+		{
+			if (dead[i])
+			{
+				continue;
+			}
+			if (leader[i])
+			{
+				pending.clear();
+			}
+			int opcode = opcode(i);
+			int operand = operand(i);
+			if (opcode == Opcode.STORE)
+			{
+				Integer earlier = pending.put(operand, i);
+				if (earlier != null)
+				{
+					dead[earlier] = true;
+				}
+			}
+			else if (opcode == Opcode.LOADX || opcode == Opcode.SYSCALL || isJump(opcode))
+			{
+				pending.clear();
+			}
+			else if (readsMemory(opcode))
+			{
+				pending.remove(operand);
+			}
+		}
+	}
+
+	/*
+	 * Close up the removed instructions and move the jump targets to match.
+	 */
+
+	private Program compact(Program program)
+	{
+		int[] position = new int[count + 1];
+		int kept = 0;
+		for (int i = 0; i < count; i++)
+		{
+			position[i] = kept;
+			if (!dead[i])
+			{
+				kept++;
+			}
+		}
+		position[count] = kept;
+		int[] optimized = new int[2 * kept];
+		for (int i = 0; i < count; i++)
+		{
+			if (dead[i])
+			{
+				continue;
+			}
+			int opcode = opcode(i);
+			optimized[2 * position[i]] = opcode;
+			optimized[2 * position[i] + 1] = isJump(opcode) ? start + 2 * position[live(target(i))] : operand(i);
+		}
+		removed += count - kept;
+		return new Program(optimized, start, program.getDataSize() + code.length - optimized.length);
+	}
+
+	/*
+	 * Whether a conditional jump is taken on the accumulator: 1 if it is, 0 if
+	 * it is not, and -1 if that is not known.
+	 */
+
+	private static int taken(int opcode, long acc)
+	{
+		if (opcode == Opcode.JMP)
+		{
+			return 1;
+		}
+		if (!isConstant(acc))
+		{
+			return -1;
+		}
+		int value = value(acc);
+		boolean taken = opcode == Opcode.JPOS ? value > 0 : opcode == Opcode.JZERO ? value == 0 : value < 0;
+		return taken ? 1 : 0;
+	}
+
+	private int opcode(int i)
+	{
+		return code[2 * i];
+	}
+
+	private int operand(int i)
+	{
+		return code[2 * i + 1];
+	}
+
+	private int target(int i)
+	{
+		return (operand(i) - start) / 2;
+	}
+
+	private static boolean isJump(int opcode)
+	{
+		return opcode == Opcode.JMP || opcode == Opcode.JPOS || opcode == Opcode.JZERO || opcode == Opcode.JNEG;
+	}
+
+	private static boolean readsMemory(int opcode)
+	{
+		return opcode == Opcode.LOAD || opcode == Opcode.LOADX || opcode == Opcode.ADD || opcode == Opcode.SUB
+				|| opcode == Opcode.MUL || opcode == Opcode.DIV;
+	}
+
+	// instructions that do something besides setting registers and memory,
+	// so they stay even when they change neither
+
+	private static boolean hasEffect(int opcode)
+	{
+		return opcode == Opcode.DIV || opcode == Opcode.SYSCALL || opcode == Opcode.INPUT || opcode == Opcode.END
+				|| opcode == Opcode.OUTPUT || opcode == Opcode.STOREX;
+	}
+
+	private long symbol()
+	{
+		return SYMBOL | nextSymbol++;
+	}
+
+	private static long constant(int value)
+	{
+		return CONSTANT | (value & 0xffffffffL);
+	}
+
+	private static boolean isConstant(long value)
+	{
+		return value != UNREACHED && value != VARYING && (value & ~0xffffffffL) == CONSTANT;
+	}
+
+	private static int value(long value)
+	{
+		return (int) value;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "Optimizer removed=" + removed + ", folded=" + folded + ", threaded=" + threaded;
+	}
+}
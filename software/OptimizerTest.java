@@ -0,0 +1,217 @@
+package s340.software;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import s340.hardware.Opcode;
+
+/*
+ * Checks that the optimizer does not change what programs do. Each program
+ * is run before and after optimizing on a small interpreter of its own, and
+ * a program that ends must end the same way with the same output.
+ */
+
+public class OptimizerTest {
+
+	// instructions a program may run before it is taken to loop for ever
+
+	private static final int STEP_LIMIT = 10000;
+
+	public static void main(String[] args) {
+		incrementBeforeFoldedJump();
+		randomPrograms(20000);
+		System.out.println("OptimizerTest passed");
+	}
+
+	/*
+	 * An INCA in front of a JZERO was once counted twice, so the JZERO was
+	 * folded into a JMP back to the INCA and the program never ended.
+	 */
+
+	private static void incrementBeforeFoldedJump() {
+		int[] code = new int[18];
+		int at = 0;
+		at = put(code, at, Opcode.STOREX, 65);
+		at = put(code, at, Opcode.JMP, 48);
+		at = put(code, at, Opcode.END, 0);
+		at = put(code, at, Opcode.END, 0);
+		at = put(code, at, Opcode.LOADI, -2);
+		at = put(code, at, Opcode.INCA, 0);
+		at = put(code, at, Opcode.JZERO, 50);
+		at = put(code, at, Opcode.STORE, 67);
+		put(code, at, Opcode.END, 0);
+		Program program = new Program(code, 40, 20);
+
+		Run before = run(program);
+		Run after = run(new Optimizer().optimize(program));
+		check(before.outcome == Opcode.END, "the program ends");
+		check(after.outcome == Opcode.END, "the optimized program ends, not " + after.outcome);
+	}
+
+	/*
+	 * Random branchy programs, with loops, folding chances and dead stores,
+	 * from a fixed seed so a failure can be repeated.
+	 */
+
+	private static void randomPrograms(int count) {
+		int[] opcodes = { Opcode.LOAD, Opcode.LOADI, Opcode.STORE, Opcode.TAX, Opcode.TXA, Opcode.INCA, Opcode.INCX,
+				Opcode.ADD, Opcode.ADDI, Opcode.SUB, Opcode.SUBI, Opcode.MUL, Opcode.DIV, Opcode.JMP, Opcode.JPOS,
+				Opcode.JZERO, Opcode.JNEG, Opcode.OUTPUT, Opcode.END };
+		Random random = new Random(340);
+		int checked = 0;
+		for (int n = 0; n < count; n++) {
+			int instructions = 4 + random.nextInt(14);
+			int[] code = new int[2 * instructions];
+			int data = code.length;
+			for (int i = 0; i < instructions - 1; i++) {
+				int opcode = opcodes[random.nextInt(opcodes.length)];
+				int operand;
+				if (opcode == Opcode.JMP || opcode == Opcode.JPOS || opcode == Opcode.JZERO
+						|| opcode == Opcode.JNEG) {
+					operand = 2 * random.nextInt(instructions);
+				} else if (opcode == Opcode.LOADI || opcode == Opcode.ADDI || opcode == Opcode.SUBI) {
+					operand = random.nextInt(7) - 3;
+				} else {
+					operand = data + random.nextInt(4);
+				}
+				put(code, 2 * i, opcode, operand);
+			}
+			put(code, code.length - 2, Opcode.END, 0);
+			Program program = new Program(code, 0, 8);
+
+			Run before = run(program);
+			if (before.outcome == -1) {
+				continue;
+			}
+			Run after = run(new Optimizer().optimize(program));
+			check(after.outcome == before.outcome && after.output.equals(before.output),
+					"program " + n + " ran " + before + " but optimized ran " + after);
+			checked++;
+		}
+		check(checked > count / 4, "too few random programs end : " + checked);
+	}
+
+	private static int put(int[] code, int at, int opcode, int operand) {
+		code[at] = opcode;
+		code[at + 1] = operand;
+		return at + 2;
+	}
+
+	// how a run ended -- END, DIV for a division by zero, or -1 if it did not
+	// end -- and what it output
+
+	private static class Run {
+		int outcome = -1;
+		List<Integer> output = new ArrayList<>();
+
+		@Override
+		public String toString() {
+			return (outcome == -1 ? "no end" : Opcode.instructions[outcome]) + " " + output;
+		}
+	}
+
+	/*
+	 * Run a program the way the CPU would, with its code at its start
+	 * address.
+	 */
+
+	private static Run run(Program program) {
+		int[] code = program.getCode();
+		int[] memory = new int[program.getStart() + code.length + program.getDataSize()];
+		System.arraycopy(code, 0, memory, program.getStart(), code.length);
+		Run run = new Run();
+		int pc = program.getStart();
+		int acc = 0;
+		int x = 0;
+		for (int step = 0; step < STEP_LIMIT; step++) {
+			int opcode = memory[pc];
+			int operand = memory[pc + 1];
+			pc += 2;
+			switch (opcode) {
+			case Opcode.LOAD:
+				acc = memory[operand];
+				break;
+			case Opcode.LOADI:
+				acc = operand;
+				break;
+			case Opcode.LOADX:
+				acc = memory[operand + x];
+				break;
+			case Opcode.STORE:
+				memory[operand] = acc;
+				break;
+			case Opcode.STOREX:
+				memory[operand + x] = acc;
+				break;
+			case Opcode.TAX:
+				x = acc;
+				break;
+			case Opcode.TXA:
+				acc = x;
+				break;
+			case Opcode.INCA:
+				acc++;
+				break;
+			case Opcode.INCX:
+				x++;
+				break;
+			case Opcode.ADD:
+				acc += memory[operand];
+				break;
+			case Opcode.ADDI:
+				acc += operand;
+				break;
+			case Opcode.SUB:
+				acc -= memory[operand];
+				break;
+			case Opcode.SUBI:
+				acc -= operand;
+				break;
+			case Opcode.MUL:
+				acc *= memory[operand];
+				break;
+			case Opcode.DIV:
+				if (memory[operand] == 0) {
+					run.outcome = Opcode.DIV;
+					return run;
+				}
+				acc /= memory[operand];
+				break;
+			case Opcode.JMP:
+				pc = operand;
+				break;
+			case Opcode.JPOS:
+				if (acc > 0) {
+					pc = operand;
+				}
+				break;
+			case Opcode.JZERO:
+				if (acc == 0) {
+					pc = operand;
+				}
+				break;
+			case Opcode.JNEG:
+				if (acc < 0) {
+					pc = operand;
+				}
+				break;
+			case Opcode.OUTPUT:
+				run.output.add(acc);
+				break;
+			case Opcode.END:
+				run.outcome = Opcode.END;
+				return run;
+			default:
+				throw new IllegalArgumentException("Cannot run opcode " + opcode);
+			}
+		}
+		return run;
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}
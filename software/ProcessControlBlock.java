@@ -1,33 +1,98 @@
 package s340.software;
 
+import s340.hardware.RegisterState;
+import s340.software.fs.OpenFile;
+
 public class ProcessControlBlock {
+	// the process's slot in the process table
+	final int pid;
 	ProcessState status;
-	public int x;
-	public int acc;
-	public int pc;
-	public int base;
-	public int limit;
+	// when the status last changed, from System.nanoTime
+	long statusTime;
+	// when the process was created and first ran, and the nanoseconds it has
+	// spent in each status before the current one
+	final long createTime;
+	long firstRunTime;
+	final long[] stateTime = new long[ProcessState.values().length];
+	// the registers, saved while the process is not running
+	final RegisterState registers = new RegisterState();
+
+	// the process's I/O rings, once it has set them up
+	IORing ring;
+
+	// the files the process has open, by file descriptor
+	public static final int MAX_OPEN_FILES = 8;
+	OpenFile[] files = new OpenFile[MAX_OPEN_FILES];
+
+	// the process's CPU scheduling priority, and when it was last set
+	int priority;
+	long priorityTime;
+
+	// how nice the process is to others, from MIN_NICE to MAX_NICE, the
+	// instructions it has run, and its weighted virtual runtime
+	public static final int MIN_NICE = -20;
+	public static final int MAX_NICE = 19;
+	int nice;
+	long cpuTime;
+	long vruntime;
+
+	// for a real-time process, its period and the instructions it may run in
+	// each, the end of its current period, what is left of this period's
+	// budget, and the deadlines it has missed. period is 0 otherwise
+	long period;
+	long budget;
+	long deadline;
+	long runtime;
+	long deadlineMisses;
+
+	// where the process's image is, where it is on the swap disk if it is
+	// there, and the program to load if it has never been in memory.
+	// memoryTransfers counts I/O into or out of its memory that has not
+	// finished; it cannot be swapped out until there is none
+	Residence residence = Residence.RESIDENT;
+	int swapPosition = -1;
+	Program image;
+	int memoryTransfers;
+	boolean swapInWanted;
+
+	// the job this process runs, if it came from the job queue
+	Job job;
+
+	// the executable this process was started from, if its code is loaded a
+	// page at a time
+	Executable executable;
 	
 	//all pcbs start as "NEW"
 	
 	public int getBase() {
-		return base;
+		return registers.base;
 	}
 
 	public void setBase(int base) {
-		this.base = base;
+		registers.base = base;
 	}
 
 	public int getLimit() {
-		return limit;
+		return registers.limit;
 	}
 
 	public void setLimit(int limit) {
-		this.limit = limit;
+		registers.limit = limit;
 	}
 
-	public ProcessControlBlock(){
+	public ProcessControlBlock(int pid){
+		this.pid = pid;
 		this.status = ProcessState.NEW;
+		createTime = System.nanoTime();
+		statusTime = createTime;
+	}
+
+	public int getPid() {
+		return pid;
+	}
+
+	public RegisterState getRegisters() {
+		return registers;
 	}
 	
 	//getters and setters for registers and status
@@ -36,25 +101,171 @@ public class ProcessControlBlock {
 		return status;
 	}
 	public void setStatus(ProcessState status) {
+		if (status != this.status) {
+			long now = System.nanoTime();
+			stateTime[this.status.ordinal()] += now - statusTime;
+			statusTime = now;
+			if (status == ProcessState.RUNNING && firstRunTime == 0) {
+				firstRunTime = now;
+			}
+		}
 		this.status = status;
 	}
+	public long getCreateTime() {
+		return createTime;
+	}
+	/*
+	 * Nanoseconds from the process being created to it first running, or -1
+	 * if it has not run yet.
+	 */
+	public long getResponseTime() {
+		return firstRunTime == 0 ? -1 : firstRunTime - createTime;
+	}
+	/*
+	 * Nanoseconds the process has spent in a status, up to now.
+	 */
+	public long getStateTime(ProcessState state, long now) {
+		long time = stateTime[state.ordinal()];
+		return state == status ? time + now - statusTime : time;
+	}
+	public long getStatusTime() {
+		return statusTime;
+	}
+	public Residence getResidence() {
+		return residence;
+	}
+	public void setResidence(Residence residence) {
+		this.residence = residence;
+	}
+	public int getSwapPosition() {
+		return swapPosition;
+	}
+	public void setSwapPosition(int swapPosition) {
+		this.swapPosition = swapPosition;
+	}
+	public Program getImage() {
+		return image;
+	}
+	public void setImage(Program image) {
+		this.image = image;
+	}
+	public int getMemoryTransfers() {
+		return memoryTransfers;
+	}
+	public void addMemoryTransfers(int n) {
+		memoryTransfers += n;
+	}
+	public boolean isSwapInWanted() {
+		return swapInWanted;
+	}
+	public void setSwapInWanted(boolean swapInWanted) {
+		this.swapInWanted = swapInWanted;
+	}
+	public Executable getExecutable() {
+		return executable;
+	}
+	public void setExecutable(Executable executable) {
+		this.executable = executable;
+	}
+	public Job getJob() {
+		return job;
+	}
+	public void setJob(Job job) {
+		this.job = job;
+	}
 	public int getX() {
-		return x;
+		return registers.x;
 	}
 	public void setX(int x) {
-		this.x = x;
+		registers.x = x;
 	}
 	public int getAcc() {
-		return acc;
+		return registers.acc;
 	}
 	public void setAcc(int acc) {
-		this.acc = acc;
+		registers.acc = acc;
+	}
+	public IORing getRing() {
+		return ring;
+	}
+	public void setRing(IORing ring) {
+		this.ring = ring;
+	}
+	public OpenFile[] getFiles() {
+		return files;
+	}
+	public void closeFiles() {
+		for (int i = 0; i < files.length; i++) {
+			files[i] = null;
+		}
+	}
+	public int getPriority() {
+		return priority;
+	}
+	public long getPriorityTime() {
+		return priorityTime;
+	}
+	public void setPriority(int priority, long time) {
+		this.priority = priority;
+		this.priorityTime = time;
+	}
+	public int getNice() {
+		return nice;
+	}
+	public void setNice(int nice) {
+		if (nice < MIN_NICE || nice > MAX_NICE) {
+			throw new IllegalArgumentException("Bad nice value : " + nice);
+		}
+		this.nice = nice;
+	}
+	public long getCpuTime() {
+		return cpuTime;
+	}
+	public void addCpuTime(long instructions) {
+		this.cpuTime += instructions;
+	}
+	public long getVruntime() {
+		return vruntime;
+	}
+	public void setVruntime(long vruntime) {
+		this.vruntime = vruntime;
+	}
+	public boolean isRealTime() {
+		return period > 0;
+	}
+	public long getPeriod() {
+		return period;
+	}
+	public long getBudget() {
+		return budget;
+	}
+	public void setReservation(long period, long budget) {
+		this.period = period;
+		this.budget = budget;
+	}
+	public long getDeadline() {
+		return deadline;
+	}
+	public void setDeadline(long deadline) {
+		this.deadline = deadline;
+	}
+	public long getRuntime() {
+		return runtime;
+	}
+	public void setRuntime(long runtime) {
+		this.runtime = runtime;
+	}
+	public long getDeadlineMisses() {
+		return deadlineMisses;
+	}
+	public void missedDeadline() {
+		deadlineMisses++;
 	}
 	public int getPc() {
-		return pc;
+		return registers.pc;
 	}
 	public void setPc(int pc) {
-		this.pc = pc;
+		registers.pc = pc;
 	}
 	
 }
@@ -0,0 +1,147 @@
+package s340.software;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * The process table. A process's id is its slot in the table, so finding a
+ * process is an array lookup.
+ *
+ * The table starts small and doubles when every slot is in use. The ids of
+ * processes that have ended are kept on a stack and handed out again before
+ * the table grows, so starting or ending a process is O(1) however many
+ * processes there are.
+ */
+
+public class ProcessTable {
+
+	private final int maxSize;
+
+	// the slots, null for ids that are free or not handed out yet
+
+	private ProcessControlBlock[] table;
+
+	// ids that have been freed, most recent on top
+
+	private int[] free;
+	private int numFree;
+
+	// ids at or above this have never been handed out
+
+	private int nextPid;
+
+	// the number of processes in the table
+
+	private int size;
+
+	/*
+	 * @param initialSize -- the number of slots to start with.
+	 *
+	 * @param maxSize -- the most processes the table will ever hold.
+	 */
+
+	public ProcessTable(int initialSize, int maxSize) {
+		if (initialSize <= 0 || maxSize < initialSize) {
+			throw new IllegalArgumentException("Bad process table size : " + initialSize + ", " + maxSize);
+		}
+		this.maxSize = maxSize;
+		table = new ProcessControlBlock[initialSize];
+		free = new int[initialSize];
+	}
+
+	/*
+	 * Make a new process, in a freed slot if there is one.
+	 *
+	 * @return the new process, or null if the table is full.
+	 */
+
+	public ProcessControlBlock allocate() {
+		int pid;
+		if (numFree > 0) {
+			pid = free[--numFree];
+		} else if (nextPid < maxSize) {
+			if (nextPid == table.length) {
+				grow();
+			}
+			pid = nextPid++;
+		} else {
+			return null;
+		}
+		ProcessControlBlock pcb = new ProcessControlBlock(pid);
+		table[pid] = pcb;
+		size++;
+		return pcb;
+	}
+
+	private void grow() {
+		int newLength = (int) Math.min((long) table.length * 2, maxSize);
+		ProcessControlBlock[] bigger = new ProcessControlBlock[newLength];
+		System.arraycopy(table, 0, bigger, 0, table.length);
+		table = bigger;
+	}
+
+	/*
+	 * Give a process's slot back, so its id can be used again.
+	 */
+
+	public void release(ProcessControlBlock pcb) {
+		int pid = pcb.getPid();
+		if (table[pid] != pcb) {
+			throw new IllegalArgumentException("Not in the process table : " + pid);
+		}
+		table[pid] = null;
+		if (numFree == free.length) {
+			int[] bigger = new int[free.length * 2];
+			System.arraycopy(free, 0, bigger, 0, numFree);
+			free = bigger;
+		}
+		free[numFree++] = pid;
+		size--;
+	}
+
+	/*
+	 * The process with the given id, or null if there is none.
+	 */
+
+	public ProcessControlBlock get(int pid) {
+		return pid >= 0 && pid < table.length ? table[pid] : null;
+	}
+
+	/*
+	 * The number of processes in the table.
+	 */
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/*
+	 * The number of slots, in use or not.
+	 */
+
+	public int capacity() {
+		return table.length;
+	}
+
+	/*
+	 * Every process in the table, in id order. This looks at every slot, so
+	 * it is only for things that have to visit every process anyway.
+	 */
+
+	public List<ProcessControlBlock> processes() {
+		// the table may be read from another thread while it grows
+		ProcessControlBlock[] slots = table;
+		int end = Math.min(nextPid, slots.length);
+		List<ProcessControlBlock> processes = new ArrayList<>(size);
+		for (int pid = 0; pid < end; pid++) {
+			if (slots[pid] != null) {
+				processes.add(slots[pid]);
+			}
+		}
+		return processes;
+	}
+}
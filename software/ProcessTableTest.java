@@ -0,0 +1,81 @@
+package s340.software;
+
+import java.util.List;
+
+/*
+ * Checks that the process table hands out ids in order, reuses the most
+ * recently freed first, grows only when every slot is in use, and stops at
+ * its maximum size.
+ */
+
+public class ProcessTableTest {
+
+	public static void main(String[] args) {
+		reuse();
+		growth();
+		badRelease();
+		System.out.println("ProcessTableTest passed");
+	}
+
+	private static void reuse() {
+		ProcessTable table = new ProcessTable(4, 4);
+		ProcessControlBlock[] pcbs = new ProcessControlBlock[4];
+		for (int i = 0; i < pcbs.length; i++) {
+			pcbs[i] = table.allocate();
+			check(pcbs[i].getPid() == i, "new id " + pcbs[i].getPid() + ", not " + i);
+		}
+		check(table.allocate() == null, "a full table made a process");
+
+		table.release(pcbs[1]);
+		table.release(pcbs[3]);
+		check(table.size() == 2 && table.get(1) == null, "released processes are still there");
+		check(table.allocate().getPid() == 3, "the last id freed is not reused first");
+		ProcessControlBlock again = table.allocate();
+		check(again.getPid() == 1 && again != pcbs[1], "id 1 is not reused for a new process");
+		check(table.get(1) == again, "get does not find the new process");
+		check(table.allocate() == null, "a full table made a process after reuse");
+		check(table.size() == 4, "size " + table.size());
+	}
+
+	private static void growth() {
+		ProcessTable table = new ProcessTable(2, 10);
+		table.release(table.allocate());
+		table.allocate();
+		table.allocate();
+		check(table.capacity() == 2, "grew while an id was free : " + table.capacity());
+		table.allocate();
+		check(table.capacity() == 4, "capacity " + table.capacity() + " after doubling");
+		for (int i = 3; i < 10; i++) {
+			check(table.allocate() != null, "stopped at " + i);
+		}
+		check(table.capacity() == 10, "grew past its maximum : " + table.capacity());
+		check(table.allocate() == null, "made more than the maximum");
+
+		table.release(table.get(4));
+		table.release(table.get(7));
+		List<ProcessControlBlock> processes = table.processes();
+		check(processes.size() == 8, "processes " + processes.size());
+		for (int i = 1; i < processes.size(); i++) {
+			check(processes.get(i - 1).getPid() < processes.get(i).getPid(), "processes are not in id order");
+		}
+		check(table.get(-1) == null && table.get(10) == null, "found a process outside the table");
+	}
+
+	private static void badRelease() {
+		ProcessTable table = new ProcessTable(2, 2);
+		ProcessControlBlock pcb = table.allocate();
+		table.release(pcb);
+		try {
+			table.release(pcb);
+		} catch (IllegalArgumentException ex) {
+			return;
+		}
+		throw new AssertionError("released a process twice");
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}
@@ -1,6 +1,6 @@
 package s340.software;
 
-import java.util.LinkedList;
+import java.util.Arrays;
 
 import s340.hardware.Opcode;
 
@@ -11,21 +11,26 @@ import s340.hardware.Opcode;
 public class ProgramBuilder
 {
 
-	private final LinkedList<Integer> instructions;
+	private int[] instructions;
+	private int length;
 	private int start;
 	private int size;
 
 	public ProgramBuilder()
 	{
-		instructions = new LinkedList<>();
+		instructions = new int[64];
 		size = 0;
 		start = 0;
 	}
 
 	private void instruction(int opcode, int operand)
 	{
-		instructions.add(opcode);
-		instructions.add(operand);
+		if (length + 2 > instructions.length)
+		{
+			instructions = Arrays.copyOf(instructions, instructions.length * 2);
+		}
+		instructions[length++] = opcode;
+		instructions[length++] = operand;
 	}
 
 	private void instruction(int opcode)
@@ -35,7 +40,7 @@ public class ProgramBuilder
 
 	private int S()
 	{
-		return instructions.size() - 2 + start;
+		return length - 2 + start;
 	}
 
 	public int load(int address)
@@ -191,13 +196,6 @@ public class ProgramBuilder
 	public Program build()
 	{
 		end();
-		int[] code = new int[instructions.size()];
-		int j = 0;
-		for (int i : instructions)
-		{
-			code[j++] = i;
-		}
-
-		return new Program(code, start, size);
+		return new Program(Arrays.copyOf(instructions, length), start, size);
 	}
 }
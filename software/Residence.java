@@ -0,0 +1,10 @@
+package s340.software;
+
+/*
+ * Where a process's memory image is -- in memory, on the swap disk, or on its
+ * way between them.
+ */
+
+public enum Residence {
+	RESIDENT, SWAPPING_OUT, SWAPPED, SWAPPING_IN
+}
@@ -0,0 +1,103 @@
+package s340.software;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * The snapshot file format, for saving an idle machine and its operating
+ * system and starting others from it. A snapshot is a run of words, MAGIC
+ * and VERSION and then whatever the operating system writes, read and
+ * written through a memory-mapped file so that memory and the disk images go
+ * in and out as bulk copies.
+ */
+
+public class Snapshot implements Closeable {
+
+	public static final int MAGIC = 0x53333453;
+	public static final int VERSION = 2;
+
+	private final FileChannel channel;
+	private final MappedByteBuffer mapped;
+	private final IntBuffer words;
+
+	private Snapshot(FileChannel channel, MappedByteBuffer mapped) {
+		this.channel = channel;
+		this.mapped = mapped;
+		this.words = mapped.asIntBuffer();
+	}
+
+	/*
+	 * Start a snapshot, replacing the file if there is one.
+	 *
+	 * @param size -- the number of words that will be written, not counting
+	 * MAGIC and VERSION.
+	 */
+
+	public static Snapshot create(Path file, int size) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		Snapshot snapshot = new Snapshot(channel,
+				channel.map(FileChannel.MapMode.READ_WRITE, 0, (size + 2L) * Integer.BYTES));
+		snapshot.put(MAGIC);
+		snapshot.put(VERSION);
+		return snapshot;
+	}
+
+	/*
+	 * Open a snapshot to read it back, positioned after MAGIC and VERSION.
+	 */
+
+	public static Snapshot open(Path file) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		Snapshot snapshot = new Snapshot(channel, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		if (snapshot.words.remaining() < 2 || snapshot.get() != MAGIC || snapshot.get() != VERSION) {
+			snapshot.close();
+			throw new IOException("Not a snapshot : " + file);
+		}
+		return snapshot;
+	}
+
+	public void put(int word) {
+		words.put(word);
+	}
+
+	public void put(int[] from) {
+		words.put(from);
+	}
+
+	public void putLong(long value) {
+		words.put((int) (value >>> 32));
+		words.put((int) value);
+	}
+
+	public int get() {
+		return words.get();
+	}
+
+	public void get(int[] to) {
+		words.get(to);
+	}
+
+	public long getLong() {
+		long high = words.get();
+		return high << 32 | words.get() & 0xFFFFFFFFL;
+	}
+
+	/*
+	 * Finish with the file. A snapshot being written is forced to the disk
+	 * first.
+	 */
+
+	@Override
+	public void close() throws IOException {
+		if (!mapped.isReadOnly()) {
+			mapped.force();
+		}
+		channel.close();
+	}
+}
@@ -0,0 +1,152 @@
+package s340.software;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import s340.hardware.Machine;
+import s340.hardware.MachineConfiguration;
+
+/*
+ * Checks that a snapshot taken while processes are running carries on, on
+ * another machine, to the same results, and that a snapshot is refused while
+ * jobs are waiting.
+ */
+
+public class SnapshotTest {
+
+	private static final int[] COUNTS = { 1000000, 1500000, 2000000 };
+
+	public static void main(String[] args) throws Exception {
+		Path directory = Files.createTempDirectory("snapshot");
+		try {
+			roundTrip(directory);
+			jobsWaiting(directory);
+		} finally {
+			try (Stream<Path> files = Files.walk(directory)) {
+				files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+			}
+		}
+		System.out.println("SnapshotTest passed");
+	}
+
+	/*
+	 * Snapshot a machine part way through three programs, let it finish, and
+	 * restore the snapshot onto a second machine, which finishes them too.
+	 * Each keeps a counter in its index register and a sum in memory, so a
+	 * process restored with the wrong registers or memory gets the wrong sum.
+	 */
+
+	private static void roundTrip(Path directory) throws Exception {
+		Path file = directory.resolve("snapshot");
+		ByteArrayOutputStream first = new ByteArrayOutputStream();
+		Machine machine = machine(directory.resolve("first"), first);
+		OperatingSystem os = new OperatingSystem(machine);
+		machine.powerUp(os);
+		try {
+			List<Job> jobs = new ArrayList<>();
+			for (int i = 0; i < COUNTS.length; i++) {
+				jobs.add(os.submit(0, program(COUNTS[i], i + 1)));
+			}
+			Thread.sleep(100);
+			os.snapshot(file);
+			check(outputs(first).isEmpty(), "the programs ended before the snapshot");
+			for (Job job : jobs) {
+				job.getExit().get(20, TimeUnit.SECONDS);
+			}
+		} finally {
+			machine.powerDown();
+		}
+
+		ByteArrayOutputStream second = new ByteArrayOutputStream();
+		machine = machine(directory.resolve("second"), second);
+		os = new OperatingSystem(machine);
+		machine.powerUp(os);
+		try {
+			os.restore(file);
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+			while (outputs(second).size() < COUNTS.length && System.nanoTime() < deadline) {
+				Thread.sleep(10);
+			}
+		} finally {
+			machine.powerDown();
+		}
+		List<String> expected = new ArrayList<>();
+		for (int i = 0; i < COUNTS.length; i++) {
+			expected.add("Output = " + COUNTS[i] * (i + 1));
+		}
+		check(outputs(first).equals(expected), "the first machine printed " + outputs(first));
+		check(outputs(second).equals(expected), "the restored machine printed " + outputs(second));
+	}
+
+	private static void jobsWaiting(Path directory) throws Exception {
+		Machine machine = machine(directory.resolve("third"), new ByteArrayOutputStream());
+		OperatingSystem os = new OperatingSystem(machine);
+		machine.powerUp(os);
+		try {
+			// the second job waits for the first to give its memory back
+			ProgramBuilder builder = new ProgramBuilder();
+			builder.size(machine.MEMORY_SIZE / 2);
+			builder.jmp(0);
+			os.submit(0, builder.build());
+			os.submit(0, builder.build());
+			try {
+				os.snapshot(directory.resolve("refused"));
+				check(false, "took a snapshot with a job waiting");
+			} catch (IllegalStateException ex) {
+				check(ex.getMessage().equals("Jobs are waiting to be admitted"), ex.getMessage());
+			}
+		} finally {
+			machine.powerDown();
+		}
+	}
+
+	private static Machine machine(Path directory, ByteArrayOutputStream output) throws Exception {
+		Files.createDirectories(directory);
+		return new Machine(new MachineConfiguration().directory(directory)
+				.output(new PrintStream(output, true)).console().disk().disks(1, 10));
+	}
+
+	// adds step to a sum count times, then prints the sum
+
+	private static Program program(int count, int step) {
+		ProgramBuilder builder = new ProgramBuilder();
+		builder.size(200);
+		builder.loadi(count);
+		builder.tax();
+		int top = builder.load(100);
+		builder.addi(step);
+		builder.store(100);
+		builder.txa();
+		builder.subi(1);
+		builder.tax();
+		builder.jpos(top);
+		builder.load(100);
+		builder.output();
+		builder.end();
+		return builder.build();
+	}
+
+	private static List<String> outputs(ByteArrayOutputStream output) {
+		List<String> outputs = new ArrayList<>();
+		for (String line : output.toString().split("\n")) {
+			if (line.startsWith("Output = ")) {
+				outputs.add(line.trim());
+			}
+		}
+		outputs.sort(null);
+		return outputs;
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package s340.software;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * The part of a disk that holds the images of swapped out processes.
+ *
+ * Free runs are kept by start address, so an image is placed first fit and a
+ * freed run is merged with the free runs on either side of it.
+ */
+
+public class SwapSpace {
+
+	private final int device;
+	private final int start;
+	private final int size;
+
+	// free runs, start to length
+
+	private final TreeMap<Integer, Integer> free = new TreeMap<>();
+	private int freeWords;
+
+	/*
+	 * @param device -- the disk.
+	 *
+	 * @param start -- the first linear disk address to use.
+	 *
+	 * @param size -- how many words to use.
+	 */
+
+	public SwapSpace(int device, int start, int size) {
+		this.device = device;
+		this.start = start;
+		this.size = size;
+		free.put(start, size);
+		freeWords = size;
+	}
+
+	public int getDevice() {
+		return device;
+	}
+
+	public int getStart() {
+		return start;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/*
+	 * Take a run of the given length.
+	 *
+	 * @return its linear disk address, or -1 if no free run is long enough.
+	 */
+
+	public int allocate(int length) {
+		for (Map.Entry<Integer, Integer> run : free.entrySet()) {
+			if (run.getValue() >= length) {
+				// read before removing it, since removing an entry may reuse
+				// its node for another run
+				int start = run.getKey();
+				int runLength = run.getValue();
+				free.remove(start);
+				if (runLength > length) {
+					free.put(start + length, runLength - length);
+				}
+				freeWords -= length;
+				return start;
+			}
+		}
+		return -1;
+	}
+
+	/*
+	 * Give back a run taken with allocate.
+	 */
+
+	public void free(int start, int length) {
+		int end = start + length;
+		Map.Entry<Integer, Integer> before = free.lowerEntry(start);
+		if (before != null && before.getKey() + before.getValue() == start) {
+			start = before.getKey();
+			free.remove(start);
+		}
+		Integer after = free.remove(end);
+		if (after != null) {
+			end += after;
+		}
+		free.put(start, end - start);
+		freeWords += length;
+	}
+
+	@Override
+	public String toString() {
+		return "device=" + device + ", free=" + freeWords + "/" + size;
+	}
+}
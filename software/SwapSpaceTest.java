@@ -0,0 +1,71 @@
+package s340.software;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/*
+ * Checks that the swap area never hands out a run that overlaps another
+ * live one, or lies outside the area, however allocations and frees are
+ * mixed, and that freed runs merge back into one.
+ */
+
+public class SwapSpaceTest {
+
+	private static final int START = 100;
+	private static final int SIZE = 1000;
+
+	public static void main(String[] args) {
+		random(new Random(340), 100000);
+		System.out.println("SwapSpaceTest passed");
+	}
+
+	private static void random(Random random, int steps) {
+		SwapSpace swap = new SwapSpace(2, START, SIZE);
+		List<int[]> live = new ArrayList<>();
+		for (int step = 0; step < steps; step++) {
+			if (live.isEmpty() || random.nextInt(3) > 0) {
+				int length = 1 + random.nextInt(60);
+				int at = swap.allocate(length);
+				if (at == -1) {
+					check(used(live) + length > SIZE || live.size() > 1, "step " + step + " refused " + length
+							+ " with " + (SIZE - used(live)) + " free in one run");
+					continue;
+				}
+				int[] run = { at, length };
+				check(at >= START && at + length <= START + SIZE, "step " + step + " ran outside the area : "
+						+ at + "+" + length);
+				for (int[] other : live) {
+					check(at + length <= other[0] || other[0] + other[1] <= at,
+							"step " + step + " gave " + at + "+" + length + " over " + other[0] + "+" + other[1]);
+				}
+				live.add(run);
+			} else {
+				int[] run = live.remove(random.nextInt(live.size()));
+				swap.free(run[0], run[1]);
+			}
+			check(swap.toString().endsWith("free=" + (SIZE - used(live)) + "/" + SIZE),
+					"step " + step + " " + swap + " with " + used(live) + " used");
+		}
+
+		// with everything given back, the area is one run again
+		for (int[] run : live) {
+			swap.free(run[0], run[1]);
+		}
+		check(swap.allocate(SIZE) == START, "the free runs did not merge back into one");
+	}
+
+	private static int used(List<int[]> live) {
+		int used = 0;
+		for (int[] run : live) {
+			used += run[1];
+		}
+		return used;
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}
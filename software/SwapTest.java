@@ -0,0 +1,152 @@
+package s340.software;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import s340.hardware.DeviceControllerOperations;
+import s340.hardware.Machine;
+import s340.hardware.MachineConfiguration;
+import s340.hardware.device.Disk;
+import s340.hardware.exception.MemoryFault;
+
+/*
+ * Checks, on a whole machine, that processes swapped out to make room for
+ * others come back with their memory as they left it, and that a process
+ * that cannot be read back from swap fails its job without stopping the
+ * others.
+ */
+
+public class SwapTest {
+
+	// more jobs than fit in memory at once, each counting in its memory
+
+	private static final int JOBS = 30;
+	private static final int SIZE = 800;
+	private static final int COUNT = 30000;
+
+	public static void main(String[] args) throws Exception {
+		Path directory = Files.createTempDirectory("swap");
+		try {
+			swap(directory.resolve("swap"));
+			unreadable(directory.resolve("unreadable"));
+		} finally {
+			try (Stream<Path> files = Files.walk(directory)) {
+				files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+			}
+		}
+		System.out.println("SwapTest passed");
+	}
+
+	private static void swap(Path directory) throws Exception {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		Machine machine = new Machine(new MachineConfiguration().directory(directory)
+				.output(new PrintStream(output, true)).console().disk().disks(1, 10));
+		OperatingSystem os = new OperatingSystem(machine);
+		machine.powerUp(os);
+		try {
+			os.swapOn(Machine.DISK2, 0, Disk.NUM_PLATTERS * Disk.PLATTER_SIZE);
+			List<Job> jobs = submit(os);
+			for (Job job : jobs) {
+				job.getExit().get(30, TimeUnit.SECONDS);
+			}
+		} finally {
+			machine.powerDown();
+		}
+
+		List<String> expected = new ArrayList<>();
+		for (int i = 0; i < JOBS; i++) {
+			expected.add("Output = " + (COUNT + i));
+		}
+		expected.sort(null);
+		check(outputs(output).equals(expected), "printed " + outputs(output));
+		check(os.swapOuts > 0, "nothing was swapped out");
+		check(os.swapIns == os.swapOuts, "swapped out " + os.swapOuts + " but in " + os.swapIns);
+	}
+
+	/*
+	 * A swap disk that writes but cannot read. Every process swapped out is
+	 * lost, and only its job fails.
+	 */
+
+	private static void unreadable(Path directory) throws Exception {
+		PrintStream output = new PrintStream(new ByteArrayOutputStream(), true);
+		Machine machine = new Machine(new MachineConfiguration().directory(directory).output(output).console().disk()
+				.add((n, interruptRegisters, controlRegister) -> new Disk(n, interruptRegisters, controlRegister,
+						new int[10], directory, output) {
+					@Override
+					public void doOperation(int[] register) throws IOException {
+						if (register[0] == DeviceControllerOperations.READ
+								|| register[0] == DeviceControllerOperations.READ_SCATTER) {
+							throw new IOException("Unreadable");
+						}
+						super.doOperation(register);
+					}
+				}));
+		OperatingSystem os = new OperatingSystem(machine);
+		machine.powerUp(os);
+		int failed = 0;
+		try {
+			os.swapOn(Machine.DISK2, 0, Disk.NUM_PLATTERS * Disk.PLATTER_SIZE);
+			for (Job job : submit(os)) {
+				try {
+					job.getExit().get(30, TimeUnit.SECONDS);
+				} catch (ExecutionException ex) {
+					check(ex.getCause() instanceof IOException
+							&& ex.getCause().getMessage().matches("Cannot read process \\d+ from swap"),
+							"failed with " + ex.getCause());
+					failed++;
+				}
+			}
+		} finally {
+			machine.powerDown();
+		}
+		check(failed > 0, "no job failed");
+		check(failed == os.swapOuts, failed + " jobs failed, but " + os.swapOuts + " were swapped out");
+	}
+
+	private static List<Job> submit(OperatingSystem os) throws MemoryFault {
+		List<Job> jobs = new ArrayList<>();
+		for (int i = 0; i < JOBS; i++) {
+			ProgramBuilder builder = new ProgramBuilder();
+			builder.size(SIZE);
+			builder.loadi(0);
+			builder.store(SIZE - 100);
+			int top = builder.load(SIZE - 100);
+			builder.addi(1);
+			builder.store(SIZE - 100);
+			builder.subi(COUNT);
+			builder.jneg(top);
+			builder.load(SIZE - 100);
+			builder.addi(i);
+			builder.output();
+			jobs.add(os.submit(0, builder.build()));
+		}
+		return jobs;
+	}
+
+	private static List<String> outputs(ByteArrayOutputStream output) {
+		List<String> outputs = new ArrayList<>();
+		for (String line : output.toString().split("\n")) {
+			if (line.startsWith("Output = ")) {
+				outputs.add(line.trim());
+			}
+		}
+		outputs.sort(null);
+		return outputs;
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}
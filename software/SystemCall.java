@@ -6,10 +6,24 @@ package s340.software;
 
 public class SystemCall
 {
-	public final static int NUM_SYSTEM_CALLS = 4;
+	public final static int NUM_SYSTEM_CALLS = 14;
 	public final static int SBRK = 0;
 	public final static int WRITE_CONSOLE	 = 1;
 	public final static int READ	 = 2;
 	public final static int WRITE	 = 3;
+	public final static int IO_SETUP	 = 4;
+	public final static int IO_ENTER	 = 5;
+	public final static int OPEN	 = 6;
+	public final static int CLOSE	 = 7;
+	public final static int FREAD	 = 8;
+	public final static int FWRITE	 = 9;
+	public final static int SEEK	 = 10;
+	public final static int NICE	 = 11;
+	public final static int REAL_TIME	 = 12;
+	public final static int NEXT_PERIOD	 = 13;
+
+	// OPEN flags
+	public final static int OPEN_CREATE	 = 1;
+	public final static int OPEN_TRUNCATE	 = 2;
 
 }
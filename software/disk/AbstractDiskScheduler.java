@@ -0,0 +1,158 @@
+package s340.software.disk;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+import s340.software.IORequest;
+import s340.software.LatencyHistogram;
+
+/*
+ * Bookkeeping shared by the disk schedulers -- the waiting requests, the
+ * queueing latency and the seek distance. Subclasses only pick the next
+ * request.
+ *
+ * Waiting requests are indexed twice: by linear disk address in a tree, so the
+ * nearest request in either direction is found in O(log n), and in arrival
+ * order, so the oldest is found and any request removed in O(1).
+ */
+
+public abstract class AbstractDiskScheduler implements DiskScheduler {
+
+	private final TreeMap<Integer, ArrayDeque<IORequest>> byPosition = new TreeMap<>();
+	private final LinkedHashSet<IORequest> byArrival = new LinkedHashSet<>();
+
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private long seekDistance;
+
+	/*
+	 * Choose, without removing it, the request to service next. Only called
+	 * when there is something waiting.
+	 */
+
+	protected abstract IORequest select(int headPosition);
+
+	/*
+	 * How far the head moves to get from headPosition to the request that was
+	 * just selected.
+	 */
+
+	protected long seek(int headPosition, IORequest request) {
+		return distance(headPosition, request);
+	}
+
+	/*
+	 * How far the head moves straight from headPosition to the request.
+	 */
+
+	protected final long distance(int headPosition, IORequest request) {
+		return Math.abs(request.getPosition() - headPosition);
+	}
+
+	/*
+	 * The oldest request at the lowest address at or above position, or null.
+	 */
+
+	protected IORequest ceiling(int position) {
+		Map.Entry<Integer, ArrayDeque<IORequest>> entry = byPosition.ceilingEntry(position);
+		return entry == null ? null : entry.getValue().peekFirst();
+	}
+
+	/*
+	 * The oldest request at the highest address at or below position, or null.
+	 */
+
+	protected IORequest floor(int position) {
+		Map.Entry<Integer, ArrayDeque<IORequest>> entry = byPosition.floorEntry(position);
+		return entry == null ? null : entry.getValue().peekFirst();
+	}
+
+	/*
+	 * The request that has been waiting longest.
+	 */
+
+	protected IORequest oldest() {
+		return byArrival.iterator().next();
+	}
+
+	@Override
+	public void add(IORequest request) {
+		byPosition.computeIfAbsent(request.getPosition(), k -> new ArrayDeque<>()).addLast(request);
+		byArrival.add(request);
+	}
+
+	@Override
+	public IORequest next(int headPosition) {
+		if (byArrival.isEmpty()) {
+			return null;
+		}
+		IORequest request = select(headPosition);
+		remove(request);
+		latency.record(System.nanoTime() - request.getSubmitTime());
+		seekDistance += seek(headPosition, request);
+		return request;
+	}
+
+	@Override
+	public IORequest take(int from, int to, int start, Predicate<IORequest> filter) {
+		IORequest found = null;
+		for (ArrayDeque<IORequest> atPosition : byPosition.subMap(from, true, to, true).values()) {
+			for (IORequest request : atPosition) {
+				if ((found == null || request.getSubmitTime() < found.getSubmitTime()) && filter.test(request)) {
+					found = request;
+				}
+			}
+		}
+		if (found != null) {
+			remove(found);
+			latency.record(System.nanoTime() - found.getSubmitTime());
+			if (found.getPosition() < start) {
+				seekDistance += distance(start, found);
+			}
+		}
+		return found;
+	}
+
+	private void remove(IORequest request) {
+		byArrival.remove(request);
+		ArrayDeque<IORequest> atPosition = byPosition.get(request.getPosition());
+		atPosition.remove(request);
+		if (atPosition.isEmpty()) {
+			byPosition.remove(request.getPosition());
+		}
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return byArrival.isEmpty();
+	}
+
+	@Override
+	public int size() {
+		return byArrival.size();
+	}
+
+	@Override
+	public Collection<IORequest> pending() {
+		return Collections.unmodifiableSet(byArrival);
+	}
+
+	@Override
+	public LatencyHistogram latency() {
+		return latency;
+	}
+
+	@Override
+	public long seekDistance() {
+		return seekDistance;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[" + latency + ", seek=" + seekDistance + "]";
+	}
+}
@@ -0,0 +1,60 @@
+package s340.software.disk;
+
+import s340.software.IORequest;
+
+/*
+ * C-LOOK with a deadline on every request. Normally the head sweeps as in
+ * C-LOOK, but once the oldest waiting request has been queued for longer than
+ * the deadline it is serviced next, wherever it is. No request waits much
+ * longer than the deadline plus one service time, which bounds the tail
+ * latency that plain SSTF or the elevators leave unbounded.
+ */
+
+public class DeadlineScheduler extends ElevatorScheduler {
+
+	public static final long DEFAULT_DEADLINE_NANOS = 10000000L;
+
+	private final long deadlineNanos;
+	private long expired;
+
+	public DeadlineScheduler(int capacity, long deadlineNanos) {
+		super(true, false, capacity);
+		this.deadlineNanos = deadlineNanos;
+	}
+
+	public DeadlineScheduler(int capacity) {
+		this(capacity, DEFAULT_DEADLINE_NANOS);
+	}
+
+	@Override
+	protected IORequest select(int headPosition) {
+		IORequest oldest = oldest();
+		if (System.nanoTime() - oldest.getSubmitTime() >= deadlineNanos) {
+			expired++;
+			return oldest;
+		}
+		return super.select(headPosition);
+	}
+
+	// an expired request is gone to straight, and C-LOOK's sweeps and
+	// wraps cost the straight distance as well
+
+	@Override
+	protected long seek(int headPosition, IORequest request) {
+		return distance(headPosition, request);
+	}
+
+	/*
+	 * How many requests were serviced out of order because their deadline
+	 * had passed.
+	 */
+
+	public long getExpired() {
+		return expired;
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() + "[expired=" + expired + "]";
+	}
+}
@@ -0,0 +1,21 @@
+package s340.software.disk;
+
+/*
+ * How busy each disk is, for volumes that choose between disks holding the
+ * same data.
+ */
+
+public interface DiskLoad {
+
+	/*
+	 * The linear disk address the head of a disk is over.
+	 */
+
+	int headPosition(int deviceNum);
+
+	/*
+	 * How many requests are waiting for or being serviced by a disk.
+	 */
+
+	int queueLength(int deviceNum);
+}
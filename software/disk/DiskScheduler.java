@@ -0,0 +1,64 @@
+package s340.software.disk;
+
+import java.util.Collection;
+import java.util.function.Predicate;
+
+import s340.software.IORequest;
+import s340.software.LatencyHistogram;
+
+/*
+ * A disk scheduling policy. It holds the requests that are waiting for one
+ * disk and decides which of them the disk services next.
+ */
+
+public interface DiskScheduler {
+
+	/*
+	 * Queue a request for the disk.
+	 */
+
+	void add(IORequest request);
+
+	/*
+	 * Remove and return the request the disk should service next, or null if
+	 * nothing is waiting.
+	 *
+	 * @param headPosition -- the linear disk address the head is over.
+	 */
+
+	IORequest next(int headPosition);
+
+	/*
+	 * Remove and return the oldest waiting request whose position is between
+	 * from and to, inclusive, and that the filter accepts, or null. Used to
+	 * pick up requests that can ride along with the one being started.
+	 *
+	 * @param start -- where the command being built starts. A request that
+	 * starts before it moves the head back that far, which is charged to the
+	 * seek distance.
+	 */
+
+	IORequest take(int from, int to, int start, Predicate<IORequest> filter);
+
+	boolean isEmpty();
+
+	int size();
+
+	/*
+	 * The requests still waiting, in no particular order.
+	 */
+
+	Collection<IORequest> pending();
+
+	/*
+	 * Time each request spent queued before the disk started on it.
+	 */
+
+	LatencyHistogram latency();
+
+	/*
+	 * Total distance the head has travelled under this policy.
+	 */
+
+	long seekDistance();
+}
@@ -0,0 +1,107 @@
+package s340.software.disk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import s340.hardware.DeviceControllerOperations;
+import s340.software.IORequest;
+
+/*
+ * Checks the order each disk scheduling policy services requests in, and the
+ * seek distance it charges, on the usual queue of requests with the head
+ * starting at 53 on a disk of 1000 words.
+ */
+
+public class DiskSchedulerTest {
+
+	private static final int CAPACITY = 1000;
+	private static final int HEAD = 53;
+	private static final int[] QUEUE = { 98, 183, 37, 122, 14, 124, 65, 67 };
+
+	public static void main(String[] args) {
+		order(DiskSchedulingPolicy.FCFS, new int[] { 98, 183, 37, 122, 14, 124, 65, 67 }, 640);
+		order(DiskSchedulingPolicy.SSTF, new int[] { 65, 67, 37, 14, 98, 122, 124, 183 }, 236);
+		order(DiskSchedulingPolicy.SCAN, new int[] { 65, 67, 98, 122, 124, 183, 37, 14 }, 1931);
+		order(DiskSchedulingPolicy.LOOK, new int[] { 65, 67, 98, 122, 124, 183, 37, 14 }, 299);
+		order(DiskSchedulingPolicy.C_SCAN, new int[] { 65, 67, 98, 122, 124, 183, 14, 37 }, 1982);
+		order(DiskSchedulingPolicy.C_LOOK, new int[] { 65, 67, 98, 122, 124, 183, 14, 37 }, 322);
+		order(DiskSchedulingPolicy.DEADLINE, new int[] { 65, 67, 98, 122, 124, 183, 14, 37 }, 322);
+		expiredDeadlines();
+		takeChargesSeek();
+		System.out.println("DiskSchedulerTest passed");
+	}
+
+	/*
+	 * Queue everything, then take requests one at a time with the head left
+	 * where each one was.
+	 */
+
+	private static void order(DiskSchedulingPolicy policy, int[] expected, long seek) {
+		DiskScheduler scheduler = policy.create(CAPACITY);
+		for (int position : QUEUE) {
+			scheduler.add(request(position));
+		}
+		int[] serviced = drain(scheduler);
+		check(Arrays.equals(serviced, expected), policy + " serviced " + Arrays.toString(serviced));
+		check(scheduler.seekDistance() == seek, policy + " seek " + scheduler.seekDistance() + ", not " + seek);
+		check(scheduler.latency().getCount() == QUEUE.length, policy + " recorded latency");
+	}
+
+	/*
+	 * With a deadline already passed, every request is the oldest one past
+	 * its deadline, so they go first come, first served.
+	 */
+
+	private static void expiredDeadlines() {
+		DeadlineScheduler scheduler = new DeadlineScheduler(CAPACITY, 0);
+		for (int position : QUEUE) {
+			scheduler.add(request(position));
+		}
+		int[] serviced = drain(scheduler);
+		check(Arrays.equals(serviced, QUEUE), "expired deadlines serviced " + Arrays.toString(serviced));
+		check(scheduler.getExpired() == QUEUE.length, "expired " + scheduler.getExpired());
+		check(scheduler.seekDistance() == 640, "expired seek " + scheduler.seekDistance());
+	}
+
+	/*
+	 * Requests taken to ride along with a command are the oldest in range
+	 * first, and only one that starts before the command moves the head.
+	 */
+
+	private static void takeChargesSeek() {
+		DiskScheduler scheduler = DiskSchedulingPolicy.FCFS.create(CAPACITY);
+		scheduler.add(request(40));
+		scheduler.add(request(10));
+		scheduler.add(request(90));
+		IORequest first = scheduler.take(0, 50, 30, r -> true);
+		check(first.getPosition() == 40, "took " + first.getPosition() + " first");
+		check(scheduler.seekDistance() == 0, "a request after the start moved the head");
+		IORequest second = scheduler.take(0, 50, 30, r -> true);
+		check(second.getPosition() == 10, "took " + second.getPosition() + " second");
+		check(scheduler.seekDistance() == 20, "seek " + scheduler.seekDistance() + " after moving back");
+		check(scheduler.take(0, 50, 30, r -> true) == null, "took a request out of range");
+		check(scheduler.size() == 1, "size " + scheduler.size());
+	}
+
+	private static int[] drain(DiskScheduler scheduler) {
+		List<Integer> serviced = new ArrayList<>();
+		int head = HEAD;
+		IORequest request;
+		while ((request = scheduler.next(head)) != null) {
+			serviced.add(request.getPosition());
+			head = request.getPosition();
+		}
+		return serviced.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	private static IORequest request(int position) {
+		return new IORequest(DeviceControllerOperations.READ, 0, 1, 0, position, 1, 0);
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}
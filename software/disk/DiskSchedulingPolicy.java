@@ -0,0 +1,35 @@
+package s340.software.disk;
+
+/*
+ * The disk scheduling policies the operating system can use for a disk.
+ */
+
+public enum DiskSchedulingPolicy {
+	FCFS, SSTF, SCAN, C_SCAN, LOOK, C_LOOK, DEADLINE;
+
+	/*
+	 * Create a scheduler with this policy for a disk of the given capacity in
+	 * words.
+	 */
+
+	public DiskScheduler create(int capacity) {
+		switch (this) {
+		case FCFS:
+			return new FcfsScheduler();
+		case SSTF:
+			return new SstfScheduler();
+		case SCAN:
+			return ElevatorScheduler.scan(capacity);
+		case C_SCAN:
+			return ElevatorScheduler.cscan(capacity);
+		case LOOK:
+			return ElevatorScheduler.look(capacity);
+		case C_LOOK:
+			return ElevatorScheduler.clook(capacity);
+		case DEADLINE:
+			return new DeadlineScheduler(capacity);
+		default:
+			throw new IllegalArgumentException("Unknown disk scheduling policy : " + this);
+		}
+	}
+}
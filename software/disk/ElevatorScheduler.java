@@ -0,0 +1,89 @@
+package s340.software.disk;
+
+import s340.software.IORequest;
+
+/*
+ * The elevator family of disk schedulers. The head sweeps in one direction
+ * servicing requests in address order, then
+ *
+ *   SCAN   -- runs on to the edge of the disk and sweeps back,
+ *   LOOK   -- turns round at the last request and sweeps back,
+ *   C-SCAN -- runs on to the edge and returns to address 0 without servicing,
+ *   C-LOOK -- returns straight to the lowest waiting request.
+ *
+ * The order requests are serviced in is the same for SCAN and LOOK (and for
+ * C-SCAN and C-LOOK); what differs is the head travel to the edges, which is
+ * charged to the seek distance.
+ */
+
+public class ElevatorScheduler extends AbstractDiskScheduler {
+
+	private final boolean circular;
+	private final boolean toEdge;
+
+	// the last linear address on the disk
+	private final int edge;
+
+	private boolean up = true;
+	private long lastSeek;
+
+	public ElevatorScheduler(boolean circular, boolean toEdge, int capacity) {
+		this.circular = circular;
+		this.toEdge = toEdge;
+		this.edge = capacity - 1;
+	}
+
+	public static ElevatorScheduler scan(int capacity) {
+		return new ElevatorScheduler(false, true, capacity);
+	}
+
+	public static ElevatorScheduler look(int capacity) {
+		return new ElevatorScheduler(false, false, capacity);
+	}
+
+	public static ElevatorScheduler cscan(int capacity) {
+		return new ElevatorScheduler(true, true, capacity);
+	}
+
+	public static ElevatorScheduler clook(int capacity) {
+		return new ElevatorScheduler(true, false, capacity);
+	}
+
+	@Override
+	protected IORequest select(int headPosition) {
+		IORequest ahead = nearest(headPosition, up);
+		if (ahead != null) {
+			lastSeek = Math.abs(ahead.getPosition() - headPosition);
+			return ahead;
+		}
+
+		int turn = up ? edge : 0;
+		if (circular) {
+			// fly back to the far end and keep sweeping the same way
+			IORequest first = nearest(up ? 0 : edge, up);
+			int wrap = up ? 0 : edge;
+			lastSeek = (toEdge ? Math.abs(turn - headPosition) + edge : 0) + Math.abs(first.getPosition() - (toEdge ? wrap : headPosition));
+			return first;
+		}
+
+		up = !up;
+		IORequest behind = nearest(headPosition, up);
+		lastSeek = toEdge ? Math.abs(turn - headPosition) + Math.abs(turn - behind.getPosition())
+				: Math.abs(behind.getPosition() - headPosition);
+		return behind;
+	}
+
+	@Override
+	protected long seek(int headPosition, IORequest request) {
+		return lastSeek;
+	}
+
+	/*
+	 * The closest waiting request at or beyond the position in the given
+	 * direction, oldest first on ties.
+	 */
+
+	private IORequest nearest(int position, boolean upwards) {
+		return upwards ? ceiling(position) : floor(position);
+	}
+}
@@ -0,0 +1,15 @@
+package s340.software.disk;
+
+import s340.software.IORequest;
+
+/*
+ * First come, first served.
+ */
+
+public class FcfsScheduler extends AbstractDiskScheduler {
+
+	@Override
+	protected IORequest select(int headPosition) {
+		return oldest();
+	}
+}
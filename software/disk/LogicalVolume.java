@@ -0,0 +1,65 @@
+package s340.software.disk;
+
+import java.util.List;
+
+import s340.hardware.device.Disk;
+import s340.software.IORequest;
+
+/*
+ * A logical disk built from several physical ones. The operating system gives
+ * it a device number of its own, and it turns each request made on that
+ * number into pieces for its member disks. The request completes when every
+ * piece has.
+ */
+
+public abstract class LogicalVolume {
+
+	// how many words one member disk holds
+	protected static final int MEMBER_CAPACITY = Disk.NUM_PLATTERS * Disk.PLATTER_SIZE;
+
+	protected final int[] members;
+
+	protected LogicalVolume(int... members) {
+		if (members.length == 0) {
+			throw new IllegalArgumentException("A volume needs at least one disk");
+		}
+		this.members = members.clone();
+	}
+
+	public int[] getMembers() {
+		return members.clone();
+	}
+
+	/*
+	 * How many words the volume holds.
+	 */
+
+	public abstract int capacity();
+
+	/*
+	 * Split a request on the volume into requests on its member disks.
+	 *
+	 * @param load -- how busy each member is.
+	 */
+
+	public abstract List<IORequest> split(IORequest request, DiskLoad load);
+
+	/*
+	 * A request on the volume has completed -- all its pieces are done.
+	 */
+
+	public void finished(IORequest request) {
+	}
+
+	/*
+	 * A piece of a request, on the given member disk.
+	 *
+	 * @param position -- the linear address on the member disk.
+	 * @param offset -- how far into the request's memory the piece starts.
+	 */
+
+	protected IORequest piece(IORequest request, int member, int position, int length, int offset) {
+		return new IORequest(request.getOpNum(), request.getProcessNum(), member, position / Disk.PLATTER_SIZE,
+				position % Disk.PLATTER_SIZE, length, request.getMemory() + offset);
+	}
+}
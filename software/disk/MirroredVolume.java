@@ -0,0 +1,201 @@
+package s340.software.disk;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import s340.hardware.DeviceControllerOperations;
+import s340.software.IORequest;
+
+/*
+ * RAID-1. Every member disk holds the whole volume. Writes go to all of them;
+ * each read goes to just one, chosen by how busy the members are, so reads
+ * scale with the number of disks.
+ *
+ * A member that has been replaced is rebuilt in the background one chunk at a
+ * time, from the start of the disk up. Until then it still receives every
+ * write, but is only read below the rebuild cursor. A chunk that a write
+ * lands on while it is being copied is copied again.
+ */
+
+public class MirroredVolume extends LogicalVolume {
+
+	public enum ReadPolicy {
+		// the member whose head is nearest the request
+		NEAREST_HEAD,
+		// the member with the fewest requests queued, then the nearest head
+		SHORTEST_QUEUE
+	}
+
+	private final ReadPolicy readPolicy;
+
+	// writes made on the volume and not finished yet
+	private final List<IORequest> writing = new ArrayList<>();
+
+	// the member being rebuilt, or -1, and how much of it is in sync
+	private int rebuilding = -1;
+	private int cursor;
+
+	// the chunk being copied, and whether a write touched it meanwhile
+	private int chunkStart;
+	private int chunkLength;
+	private boolean dirty;
+
+	public MirroredVolume(int... members) {
+		this(ReadPolicy.SHORTEST_QUEUE, members);
+	}
+
+	public MirroredVolume(ReadPolicy readPolicy, int... members) {
+		super(members);
+		this.readPolicy = readPolicy;
+	}
+
+	@Override
+	public int capacity() {
+		return MEMBER_CAPACITY;
+	}
+
+	@Override
+	public List<IORequest> split(IORequest request, DiskLoad load) {
+		List<IORequest> pieces = new ArrayList<>();
+		if (request.getOpNum() == DeviceControllerOperations.WRITE) {
+			for (int member : members) {
+				pieces.add(piece(request, member, request.getPosition(), request.getLength(), 0));
+			}
+			writing.add(request);
+			if (overlapsChunk(request)) {
+				dirty = true;
+			}
+		} else {
+			pieces.add(piece(request, choose(request, load), request.getPosition(), request.getLength(), 0));
+		}
+		return pieces;
+	}
+
+	@Override
+	public void finished(IORequest request) {
+		writing.remove(request);
+	}
+
+	/*
+	 * Pick the member to read a request from.
+	 */
+
+	private int choose(IORequest request, DiskLoad load) {
+		int best = -1;
+		int bestQueue = 0;
+		int bestDistance = 0;
+		for (int member : members) {
+			if (!readable(member, request)) {
+				continue;
+			}
+			int queue = readPolicy == ReadPolicy.SHORTEST_QUEUE ? load.queueLength(member) : 0;
+			int distance = Math.abs(load.headPosition(member) - request.getPosition());
+			if (best < 0 || queue < bestQueue || (queue == bestQueue && distance < bestDistance)) {
+				best = member;
+				bestQueue = queue;
+				bestDistance = distance;
+			}
+		}
+		return best;
+	}
+
+	private boolean readable(int member, IORequest request) {
+		return member != rebuilding || request.getEnd() <= cursor;
+	}
+
+	private boolean overlapsChunk(IORequest request) {
+		return chunkLength > 0 && request.getPosition() < chunkStart + chunkLength
+				&& request.getEnd() > chunkStart;
+	}
+
+	/*
+	 * Start rebuilding a member from the others.
+	 */
+
+	public void startRebuild(int member) {
+		boolean found = false;
+		for (int m : members) {
+			found |= m == member;
+		}
+		if (!found || members.length < 2) {
+			throw new IllegalArgumentException("Cannot rebuild disk " + member + " of " + this);
+		}
+		if (rebuilding >= 0) {
+			throw new IllegalStateException("Already rebuilding disk " + rebuilding + " of " + this);
+		}
+		rebuilding = member;
+		cursor = 0;
+		chunkLength = 0;
+	}
+
+	public boolean isRebuilding() {
+		return rebuilding >= 0;
+	}
+
+	public int getRebuilding() {
+		return rebuilding;
+	}
+
+	public int getCursor() {
+		return cursor;
+	}
+
+	/*
+	 * The next chunk to copy, as a start address and length, or null if no
+	 * chunk can start now -- a write to it is still under way, or the rebuild
+	 * is over.
+	 *
+	 * @param maxLength -- the most words the chunk may hold.
+	 */
+
+	public int[] nextChunk(int maxLength) {
+		if (rebuilding < 0 || chunkLength > 0) {
+			return null;
+		}
+		int start = cursor;
+		int length = Math.min(maxLength, capacity() - cursor);
+		for (IORequest request : writing) {
+			if (request.getPosition() < start + length && request.getEnd() > start) {
+				return null;
+			}
+		}
+		chunkStart = start;
+		chunkLength = length;
+		dirty = false;
+		return new int[] { start, length };
+	}
+
+	/*
+	 * A member other than the one being rebuilt to copy a chunk from.
+	 */
+
+	public int source(DiskLoad load) {
+		int best = -1;
+		for (int member : members) {
+			if (member != rebuilding && (best < 0 || load.queueLength(member) < load.queueLength(best))) {
+				best = member;
+			}
+		}
+		return best;
+	}
+
+	/*
+	 * The chunk has been copied. Move past it, unless a write landed on it
+	 * while it was being copied.
+	 */
+
+	public void chunkCopied() {
+		if (!dirty) {
+			cursor += chunkLength;
+		}
+		chunkLength = 0;
+		if (cursor >= capacity()) {
+			rebuilding = -1;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "MirroredVolume[disks=" + members.length + ", reads=" + readPolicy + "]";
+	}
+}
@@ -0,0 +1,130 @@
+package s340.software.disk;
+
+import java.util.List;
+
+import s340.hardware.DeviceControllerOperations;
+import s340.hardware.device.Disk;
+import s340.software.IORequest;
+
+/*
+ * Checks that a mirrored volume writes to every disk and reads from the one
+ * its policy picks, and how it rebuilds a replaced disk around writes made
+ * meanwhile.
+ */
+
+public class MirroredVolumeTest {
+
+	private static final int CAPACITY = Disk.NUM_PLATTERS * Disk.PLATTER_SIZE;
+
+	public static void main(String[] args) {
+		writes();
+		reads();
+		rebuild();
+		System.out.println("MirroredVolumeTest passed");
+	}
+
+	private static void writes() {
+		MirroredVolume volume = new MirroredVolume(1, 2, 3);
+		check(volume.capacity() == CAPACITY, "capacity " + volume.capacity());
+		List<IORequest> pieces = volume.split(request(DeviceControllerOperations.WRITE, 120, 30), new Load());
+		check(pieces.size() == 3, "wrote to " + pieces.size() + " disks");
+		for (int i = 0; i < 3; i++) {
+			IORequest piece = pieces.get(i);
+			check(piece.getDevice() == i + 1 && piece.getPosition() == 120 && piece.getLength() == 30
+					&& piece.getMemory() == 7 && piece.getOpNum() == DeviceControllerOperations.WRITE,
+					"write piece " + i + " is " + piece);
+		}
+	}
+
+	/*
+	 * Disk 1's head is nearest, but disk 2 has the shorter queue.
+	 */
+
+	private static void reads() {
+		Load load = new Load();
+		load.heads = new int[] { 0, 100, 500, 900 };
+		load.queues = new int[] { 0, 3, 1, 1 };
+		IORequest read = request(DeviceControllerOperations.READ, 120, 30);
+		check(readFrom(new MirroredVolume(MirroredVolume.ReadPolicy.NEAREST_HEAD, 1, 2, 3), read, load) == 1,
+				"nearest head did not read disk 1");
+		check(readFrom(new MirroredVolume(1, 2, 3), read, load) == 2, "shortest queue did not read disk 2");
+	}
+
+	/*
+	 * Disk 1 is rebuilt from disk 2 a chunk at a time. It is not read above
+	 * the rebuild cursor, a chunk waits for a write under way on it, and a
+	 * chunk written while it is copied is copied again.
+	 */
+
+	private static void rebuild() {
+		MirroredVolume volume = new MirroredVolume(MirroredVolume.ReadPolicy.NEAREST_HEAD, 1, 2);
+		Load load = new Load();
+		load.heads = new int[] { 0, 0, CAPACITY - 1 };
+		volume.startRebuild(1);
+		check(volume.isRebuilding() && volume.getRebuilding() == 1, "not rebuilding disk 1");
+		check(volume.source(load) == 2, "copying from disk " + volume.source(load));
+		IORequest read = request(DeviceControllerOperations.READ, 0, 10);
+		check(readFrom(volume, read, load) == 2, "read disk 1 before it was rebuilt");
+
+		IORequest write = request(DeviceControllerOperations.WRITE, 50, 10);
+		volume.split(write, load);
+		check(volume.nextChunk(100) == null, "started a chunk under a write");
+		volume.finished(write);
+		int[] chunk = volume.nextChunk(100);
+		check(chunk != null && chunk[0] == 0 && chunk[1] == 100, "first chunk");
+		check(volume.nextChunk(100) == null, "started two chunks at once");
+
+		write = request(DeviceControllerOperations.WRITE, 90, 20);
+		volume.split(write, load);
+		volume.chunkCopied();
+		check(volume.getCursor() == 0, "moved past a chunk written while it was copied");
+		volume.finished(write);
+
+		// copy the rest with no writes in the way
+		while (volume.nextChunk(CAPACITY) != null) {
+			volume.chunkCopied();
+		}
+		check(!volume.isRebuilding(), "still rebuilding at " + volume.getCursor());
+		check(readFrom(volume, read, load) == 1, "did not read disk 1 once it was rebuilt");
+
+		try {
+			volume.startRebuild(3);
+			check(false, "rebuilt a disk not in the volume");
+		} catch (IllegalArgumentException ex) {
+			check(ex.getMessage().startsWith("Cannot rebuild disk 3"), ex.getMessage());
+		}
+	}
+
+	private static int readFrom(MirroredVolume volume, IORequest read, DiskLoad load) {
+		List<IORequest> pieces = volume.split(read, load);
+		check(pieces.size() == 1, "read from " + pieces.size() + " disks");
+		return pieces.get(0).getDevice();
+	}
+
+	private static IORequest request(int operation, int position, int length) {
+		return new IORequest(operation, 3, 9, position / Disk.PLATTER_SIZE, position % Disk.PLATTER_SIZE, length,
+				7);
+	}
+
+	private static class Load implements DiskLoad {
+
+		int[] heads = new int[4];
+		int[] queues = new int[4];
+
+		@Override
+		public int headPosition(int deviceNum) {
+			return heads[deviceNum];
+		}
+
+		@Override
+		public int queueLength(int deviceNum) {
+			return queues[deviceNum];
+		}
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package s340.software.disk;
+
+import s340.software.IORequest;
+
+/*
+ * Shortest seek time first -- always the request nearest the head. Ties go to
+ * the request that has waited longest. Requests far from a busy region can
+ * starve.
+ */
+
+public class SstfScheduler extends AbstractDiskScheduler {
+
+	@Override
+	protected IORequest select(int headPosition) {
+		IORequest above = ceiling(headPosition);
+		IORequest below = floor(headPosition);
+		if (above == null) {
+			return below;
+		}
+		if (below == null) {
+			return above;
+		}
+		int up = above.getPosition() - headPosition;
+		int down = headPosition - below.getPosition();
+		if (up == down) {
+			return above.getSubmitTime() <= below.getSubmitTime() ? above : below;
+		}
+		return up < down ? above : below;
+	}
+}
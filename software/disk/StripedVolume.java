@@ -0,0 +1,62 @@
+package s340.software.disk;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import s340.software.IORequest;
+
+/*
+ * RAID-0. The volume is cut into stripe units dealt out to the member disks
+ * in turn, so a long transfer keeps every disk busy at once.
+ */
+
+public class StripedVolume extends LogicalVolume {
+
+	private final int stripeUnit;
+
+	/*
+	 * @param stripeUnit -- how many consecutive words go to one disk before
+	 * moving on to the next.
+	 * @param members -- the device numbers of the disks.
+	 */
+
+	public StripedVolume(int stripeUnit, int... members) {
+		super(members);
+		if (stripeUnit < 1 || stripeUnit > MEMBER_CAPACITY) {
+			throw new IllegalArgumentException("Bad stripe unit : " + stripeUnit);
+		}
+		this.stripeUnit = stripeUnit;
+	}
+
+	public int getStripeUnit() {
+		return stripeUnit;
+	}
+
+	// only whole stripe units are used on each disk
+	@Override
+	public int capacity() {
+		return MEMBER_CAPACITY / stripeUnit * stripeUnit * members.length;
+	}
+
+	@Override
+	public List<IORequest> split(IORequest request, DiskLoad load) {
+		List<IORequest> pieces = new ArrayList<>();
+		int position = request.getPosition();
+		int offset = 0;
+		while (offset < request.getLength()) {
+			int unit = position / stripeUnit;
+			int within = position % stripeUnit;
+			int length = Math.min(request.getLength() - offset, stripeUnit - within);
+			int member = members[unit % members.length];
+			pieces.add(piece(request, member, unit / members.length * stripeUnit + within, length, offset));
+			position += length;
+			offset += length;
+		}
+		return pieces;
+	}
+
+	@Override
+	public String toString() {
+		return "StripedVolume[unit=" + stripeUnit + ", disks=" + members.length + "]";
+	}
+}
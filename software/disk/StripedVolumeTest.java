@@ -0,0 +1,108 @@
+package s340.software.disk;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import s340.hardware.DeviceControllerOperations;
+import s340.hardware.device.Disk;
+import s340.software.IORequest;
+
+/*
+ * Checks how a striped volume cuts requests into pieces for its disks, and
+ * that no two words of the volume land on the same word of a disk.
+ */
+
+public class StripedVolumeTest {
+
+	private static final int UNIT = 10;
+
+	public static void main(String[] args) {
+		split();
+		layout();
+		limits();
+		System.out.println("StripedVolumeTest passed");
+	}
+
+	/*
+	 * Words 15 to 44 of a volume striped over disks 1 and 2: the end of unit
+	 * 1 on disk 2, then a whole unit on each disk, then the start of unit 4.
+	 */
+
+	private static void split() {
+		StripedVolume volume = new StripedVolume(UNIT, 1, 2);
+		List<IORequest> pieces = volume.split(request(15, 30, 100), null);
+		int[][] expected = { { 2, 5, 5, 100 }, { 1, 10, 10, 105 }, { 2, 10, 10, 115 }, { 1, 20, 5, 125 } };
+		check(pieces.size() == expected.length, "split into " + pieces.size() + " pieces");
+		for (int i = 0; i < expected.length; i++) {
+			IORequest piece = pieces.get(i);
+			check(piece.getDevice() == expected[i][0] && piece.getPosition() == expected[i][1]
+					&& piece.getLength() == expected[i][2] && piece.getMemory() == expected[i][3],
+					"piece " + i + " is disk " + piece.getDevice() + " at " + piece.getPosition() + "+"
+							+ piece.getLength() + " from " + piece.getMemory());
+			check(piece.getOpNum() == DeviceControllerOperations.READ && piece.getProcessNum() == 3,
+					"piece " + i + " lost its operation or process");
+		}
+
+		// inside one unit, the request goes to one disk whole
+		pieces = volume.split(request(21, 8, 0), null);
+		check(pieces.size() == 1 && pieces.get(0).getDevice() == 1 && pieces.get(0).getPosition() == 11,
+				"a request inside one unit was split");
+	}
+
+	/*
+	 * Every word of the volume is somewhere different, and the disks fill
+	 * evenly.
+	 */
+
+	private static void layout() {
+		StripedVolume volume = new StripedVolume(7, 1, 2, 3);
+		int capacity = volume.capacity();
+		int perDisk = Disk.NUM_PLATTERS * Disk.PLATTER_SIZE / 7 * 7;
+		check(capacity == 3 * perDisk, "capacity " + capacity);
+		Set<Long> used = new HashSet<>();
+		for (int position = 0; position < capacity; position += 50) {
+			int length = Math.min(50, capacity - position);
+			int words = 0;
+			for (IORequest piece : volume.split(request(position, length, position), null)) {
+				check(piece.getEnd() <= perDisk, "piece past the end of disk " + piece.getDevice());
+				check(piece.getMemory() == position + words, "pieces out of order at " + position);
+				for (int word = piece.getPosition(); word < piece.getEnd(); word++) {
+					check(used.add((long) piece.getDevice() << 32 | word),
+							"disk " + piece.getDevice() + " word " + word + " used twice");
+				}
+				words += piece.getLength();
+			}
+			check(words == length, "pieces at " + position + " add up to " + words);
+		}
+		check(used.size() == capacity, "used " + used.size() + " words");
+	}
+
+	private static void limits() {
+		for (int unit : new int[] { 0, Disk.NUM_PLATTERS * Disk.PLATTER_SIZE + 1 }) {
+			try {
+				new StripedVolume(unit, 1, 2);
+				check(false, "made a volume with stripe unit " + unit);
+			} catch (IllegalArgumentException ex) {
+				check(ex.getMessage().equals("Bad stripe unit : " + unit), ex.getMessage());
+			}
+		}
+		try {
+			new StripedVolume(UNIT);
+			check(false, "made a volume with no disks");
+		} catch (IllegalArgumentException ex) {
+			check(ex.getMessage().equals("A volume needs at least one disk"), ex.getMessage());
+		}
+	}
+
+	private static IORequest request(int position, int length, int memory) {
+		return new IORequest(DeviceControllerOperations.READ, 3, 9, position / Disk.PLATTER_SIZE,
+				position % Disk.PLATTER_SIZE, length, memory);
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}
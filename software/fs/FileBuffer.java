@@ -0,0 +1,118 @@
+package s340.software.fs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * A piece of one file held in kernel memory -- either read ahead of a process
+ * reading the file in order, or written by a process appending to the file
+ * and not yet given blocks on the disk.
+ */
+
+public class FileBuffer {
+
+	public enum State {
+		// not holding anything
+		FREE,
+		// being read from the disk
+		LOADING,
+		// the same as the disk
+		CLEAN,
+		// appended to the file, with no blocks on the disk yet
+		DIRTY,
+		// being written to the disk
+		FLUSHING
+	}
+
+	public static final int SIZE = 30;
+
+	private final int address;
+
+	State state = State.FREE;
+	int inode = -1;
+	int start;
+	int length;
+
+	// a write landed on the buffer while it was loading, so what arrives from
+	// the disk is out of date
+	boolean stale;
+
+	// reads waiting for the buffer to load, as {process, memory address, file
+	// offset, length}
+	final List<int[]> waiting = new ArrayList<>();
+
+	FileBuffer(int address) {
+		this.address = address;
+	}
+
+	// the physical address of the buffer
+	public int getAddress() {
+		return address;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	public int getInode() {
+		return inode;
+	}
+
+	public int getStart() {
+		return start;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	public int getEnd() {
+		return start + length;
+	}
+
+	public boolean isStale() {
+		return stale;
+	}
+
+	public void setStale() {
+		stale = true;
+	}
+
+	public List<int[]> getWaiting() {
+		return waiting;
+	}
+
+	// whether the buffer's words are the latest version of that part of the
+	// file
+	public boolean holdsData() {
+		return state == State.CLEAN || state == State.DIRTY || state == State.FLUSHING;
+	}
+
+	public boolean covers(int offset, int length) {
+		return offset >= start && offset + length <= getEnd();
+	}
+
+	public boolean overlaps(int offset, int length) {
+		return offset < getEnd() && offset + length > start;
+	}
+
+	/*
+	 * Give the buffer a new part of a file.
+	 */
+
+	public void fill(State state, int inode, int start, int length) {
+		this.state = state;
+		this.inode = inode;
+		this.start = start;
+		this.length = length;
+		this.stale = false;
+	}
+
+	public void append(int length) {
+		this.length += length;
+	}
+
+	public void setState(State state) {
+		this.state = state;
+	}
+}
@@ -0,0 +1,94 @@
+package s340.software.fs;
+
+/*
+ * The file buffers, in a fixed area of kernel memory. A file has at most one
+ * buffer at a time.
+ */
+
+public class FileCache {
+
+	public static final int NUM_BUFFERS = 4;
+	public static final int MEMORY_SIZE = NUM_BUFFERS * FileBuffer.SIZE;
+
+	private final FileBuffer[] buffers = new FileBuffer[NUM_BUFFERS];
+
+	// which buffer to take next when none is free
+	private int hand;
+
+	/*
+	 * @param address -- where the buffers start in physical memory.
+	 */
+
+	public FileCache(int address) {
+		for (int i = 0; i < NUM_BUFFERS; i++) {
+			buffers[i] = new FileBuffer(address + i * FileBuffer.SIZE);
+		}
+	}
+
+	/*
+	 * The buffer holding part of a file, or null.
+	 */
+
+	public FileBuffer find(int inode) {
+		for (FileBuffer buffer : buffers) {
+			if (buffer.state != FileBuffer.State.FREE && buffer.inode == inode) {
+				return buffer;
+			}
+		}
+		return null;
+	}
+
+	/*
+	 * A buffer for a file -- its own if it has one that is not busy, else a
+	 * free one, else a clean one taken from another file in turn. Null if the
+	 * file's buffer is busy or every buffer is.
+	 */
+
+	public FileBuffer take(int inode) {
+		FileBuffer own = find(inode);
+		if (own != null) {
+			return own.state == FileBuffer.State.CLEAN ? own : null;
+		}
+		for (FileBuffer buffer : buffers) {
+			if (buffer.state == FileBuffer.State.FREE) {
+				return buffer;
+			}
+		}
+		for (int i = 0; i < NUM_BUFFERS; i++) {
+			FileBuffer buffer = buffers[(hand + i) % NUM_BUFFERS];
+			if (buffer.state == FileBuffer.State.CLEAN) {
+				hand = (hand + i + 1) % NUM_BUFFERS;
+				return buffer;
+			}
+		}
+		return null;
+	}
+
+	/*
+	 * Whether any buffer holds words not written to the disk yet.
+	 */
+
+	public boolean isDirty() {
+		for (FileBuffer buffer : buffers) {
+			if (buffer.state == FileBuffer.State.DIRTY) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * Words appended to files and not yet given blocks, in blocks each file
+	 * will need.
+	 */
+
+	public int reservedBlocks(FileSystem fileSystem) {
+		int blocks = 0;
+		for (FileBuffer buffer : buffers) {
+			if (buffer.state == FileBuffer.State.DIRTY) {
+				blocks += fileSystem.blocksToGrow(buffer.inode, buffer.getEnd());
+			}
+		}
+		return blocks;
+	}
+}
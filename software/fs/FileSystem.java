@@ -0,0 +1,427 @@
+package s340.software.fs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import s340.hardware.device.Disk;
+
+/*
+ * A small inode file system laid out on one disk, in blocks of ten words:
+ *
+ *   block 0      -- the superblock
+ *   block 1      -- the free block bitmap, one bit per block
+ *   blocks 2-9   -- the inode table, ten inodes of eight words
+ *   blocks 10-99 -- file data
+ *
+ * An inode is its type, its size in words and three extents, each a first
+ * block and a number of blocks. A file is grown a whole extent at a time,
+ * placed right after its last one when the blocks there are free, so most
+ * files are one run of blocks on the disk. Inode 0 is the root directory,
+ * whose data is a list of two word entries -- a file name packed into an
+ * int, and the file's inode number plus one.
+ *
+ * All the metadata -- the first ten blocks and the root directory's blocks --
+ * is kept here in a cache. Changes are made to the cache and the blocks they
+ * touch are marked dirty; the operating system writes dirty blocks straight
+ * back to the disk.
+ */
+
+public class FileSystem {
+
+	public static final int BLOCK_SIZE = 10;
+	public static final int NUM_BLOCKS = Disk.NUM_PLATTERS * Disk.PLATTER_SIZE / BLOCK_SIZE;
+
+	public static final int MAGIC = 0x53333431;
+
+	// the superblock
+	public static final int SUPERBLOCK = 0;
+	public static final int SB_MAGIC = 0;
+	public static final int SB_NUM_BLOCKS = 1;
+	public static final int SB_NUM_INODES = 2;
+	public static final int SB_BITMAP = 3;
+	public static final int SB_INODES = 4;
+	public static final int SB_DATA = 5;
+
+	public static final int BITMAP_BLOCK = 1;
+
+	// the inode table
+	public static final int INODE_BLOCK = 2;
+	public static final int INODE_SIZE = 8;
+	public static final int NUM_INODES = 10;
+	public static final int TYPE = 0;
+	public static final int SIZE = 1;
+	public static final int EXTENTS = 2;
+	public static final int EXTENT_SIZE = 2;
+	public static final int NUM_EXTENTS = (INODE_SIZE - EXTENTS) / EXTENT_SIZE;
+
+	public static final int FREE = 0;
+	public static final int FILE = 1;
+	public static final int DIRECTORY = 2;
+
+	public static final int ROOT = 0;
+	public static final int ENTRY_SIZE = 2;
+	public static final int DIRECTORY_BLOCKS = (NUM_INODES * ENTRY_SIZE + BLOCK_SIZE - 1) / BLOCK_SIZE;
+
+	public static final int DATA_BLOCK = INODE_BLOCK + NUM_INODES * INODE_SIZE / BLOCK_SIZE;
+	public static final int MAX_FILE_SIZE = (NUM_BLOCKS - DATA_BLOCK) * BLOCK_SIZE;
+
+	// the metadata blocks, then the root directory's blocks
+	public static final int CACHE_SIZE = (DATA_BLOCK + DIRECTORY_BLOCKS) * BLOCK_SIZE;
+
+	private final int[] cache = new int[CACHE_SIZE];
+	private final boolean[] dirty = new boolean[CACHE_SIZE / BLOCK_SIZE];
+
+	// where the last block was allocated, so new files follow on from it
+	private int rotor = DATA_BLOCK;
+
+	/*
+	 * The cached metadata. The operating system reads the disk into it when
+	 * the file system is mounted.
+	 */
+
+	public int[] getCache() {
+		return cache;
+	}
+
+	public int getRotor() {
+		return rotor;
+	}
+
+	public void setRotor(int rotor) {
+		this.rotor = rotor;
+	}
+
+	public boolean isFormatted() {
+		return cache[SB_MAGIC] == MAGIC;
+	}
+
+	/*
+	 * Lay out an empty file system, with an empty root directory. Every
+	 * metadata block becomes dirty.
+	 */
+
+	public void format() {
+		for (int i = 0; i < CACHE_SIZE; i++) {
+			cache[i] = 0;
+		}
+		cache[SB_MAGIC] = MAGIC;
+		cache[SB_NUM_BLOCKS] = NUM_BLOCKS;
+		cache[SB_NUM_INODES] = NUM_INODES;
+		cache[SB_BITMAP] = BITMAP_BLOCK;
+		cache[SB_INODES] = INODE_BLOCK;
+		cache[SB_DATA] = DATA_BLOCK;
+		for (int block = 0; block < DATA_BLOCK; block++) {
+			setUsed(block, true);
+			dirty[block] = true;
+		}
+		cache[inode(ROOT) + TYPE] = DIRECTORY;
+	}
+
+	/*
+	 * The disk block a cache slot holds, or -1 if the slot is not in use.
+	 */
+
+	public int slotBlock(int slot) {
+		if (slot < DATA_BLOCK) {
+			return slot;
+		}
+		int index = slot - DATA_BLOCK;
+		return index * BLOCK_SIZE < cache[inode(ROOT) + SIZE] ? block(ROOT, index) : -1;
+	}
+
+	/*
+	 * The disk block holding a file's n'th block.
+	 */
+
+	private int block(int number, int n) {
+		int at = inode(number) + EXTENTS;
+		for (int i = 0; i < NUM_EXTENTS; i++, at += EXTENT_SIZE) {
+			if (n < cache[at + 1]) {
+				return cache[at] + n;
+			}
+			n -= cache[at + 1];
+		}
+		return -1;
+	}
+
+	/*
+	 * Take the cache slots changed since the last call.
+	 */
+
+	public List<Integer> takeDirty() {
+		List<Integer> slots = new ArrayList<>();
+		for (int slot = 0; slot < dirty.length; slot++) {
+			if (dirty[slot]) {
+				dirty[slot] = false;
+				slots.add(slot);
+			}
+		}
+		return slots;
+	}
+
+	/*
+	 * The inode number of the file with the given name, or -1.
+	 */
+
+	public int lookup(int name) {
+		int entries = cache[inode(ROOT) + SIZE] / ENTRY_SIZE;
+		for (int i = 0; i < entries; i++) {
+			int entry = DATA_BLOCK * BLOCK_SIZE + i * ENTRY_SIZE;
+			if (cache[entry] == name) {
+				return cache[entry + 1] - 1;
+			}
+		}
+		return -1;
+	}
+
+	/*
+	 * Create an empty file, returning its inode number, or -1 if there is no
+	 * free inode or no room in the directory.
+	 */
+
+	public int create(int name) {
+		int number = -1;
+		for (int i = 0; i < NUM_INODES && number < 0; i++) {
+			if (cache[inode(i) + TYPE] == FREE) {
+				number = i;
+			}
+		}
+		if (number < 0) {
+			return -1;
+		}
+
+		// add an entry to the end of the directory
+		int index = cache[inode(ROOT) + SIZE] / ENTRY_SIZE;
+		if ((index + 1) * ENTRY_SIZE > DIRECTORY_BLOCKS * BLOCK_SIZE
+				|| map(ROOT, index * ENTRY_SIZE, ENTRY_SIZE) == null) {
+			return -1;
+		}
+
+		int entry = DATA_BLOCK * BLOCK_SIZE + index * ENTRY_SIZE;
+		cache[entry] = name;
+		cache[entry + 1] = number + 1;
+		dirty[entry / BLOCK_SIZE] = true;
+
+		cache[inode(number) + TYPE] = FILE;
+		cache[inode(number) + SIZE] = 0;
+		dirtyInode(number);
+		return number;
+	}
+
+	public int size(int number) {
+		return cache[inode(number) + SIZE];
+	}
+
+	/*
+	 * How many more blocks a file needs to reach the given size.
+	 */
+
+	public int blocksToGrow(int number, int size) {
+		int have = (cache[inode(number) + SIZE] + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		return Math.max(0, (size + BLOCK_SIZE - 1) / BLOCK_SIZE - have);
+	}
+
+	public int freeBlocks() {
+		int free = 0;
+		for (int block = DATA_BLOCK; block < NUM_BLOCKS; block++) {
+			if (!isUsed(block)) {
+				free++;
+			}
+		}
+		return free;
+	}
+
+	/*
+	 * Free all of a file's blocks.
+	 */
+
+	public void truncate(int number) {
+		int at = inode(number) + EXTENTS;
+		for (int i = 0; i < NUM_EXTENTS; i++, at += EXTENT_SIZE) {
+			for (int block = 0; block < cache[at + 1]; block++) {
+				setUsed(cache[at] + block, false);
+			}
+			cache[at] = 0;
+			cache[at + 1] = 0;
+		}
+		cache[inode(number) + SIZE] = 0;
+		dirtyInode(number);
+	}
+
+	/*
+	 * Find where part of a file is on the disk, as runs of {disk address,
+	 * length, offset into the transfer}. Blocks that follow each other on the
+	 * disk make one run. Writing past the end of the file allocates blocks and
+	 * grows it.
+	 *
+	 * @return the runs, or null if the file cannot grow that far.
+	 */
+
+	public List<int[]> map(int number, int offset, int length) {
+		int at = inode(number);
+		if (offset < 0 || length < 0 || offset + length > MAX_FILE_SIZE) {
+			return null;
+		}
+		if (offset + length > cache[at + SIZE] && !grow(number, offset + length)) {
+			return null;
+		}
+
+		List<int[]> runs = new ArrayList<>();
+		int done = 0;
+		while (done < length) {
+			int position = offset + done;
+			int piece = Math.min(length - done, BLOCK_SIZE - position % BLOCK_SIZE);
+			int address = block(number, position / BLOCK_SIZE) * BLOCK_SIZE + position % BLOCK_SIZE;
+			int[] last = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+			if (last != null && last[0] + last[1] == address) {
+				last[1] += piece;
+			} else {
+				runs.add(new int[] { address, piece, done });
+			}
+			done += piece;
+		}
+		return runs;
+	}
+
+	/*
+	 * Allocate blocks for a file up to a new size. The blocks right after the
+	 * file's last extent are tried first, to make it longer; then the first
+	 * free run long enough for them all; then the longest free runs there are,
+	 * as long as the file has extents left to hold them.
+	 */
+
+	private boolean grow(int number, int size) {
+		int at = inode(number);
+		int have = (cache[at + SIZE] + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		int need = (size + BLOCK_SIZE - 1) / BLOCK_SIZE - have;
+
+		// the last extent in use, if any
+		int last = -1;
+		for (int i = 0; i < NUM_EXTENTS; i++) {
+			if (cache[at + EXTENTS + i * EXTENT_SIZE + 1] > 0) {
+				last = i;
+			}
+		}
+
+		List<int[]> added = new ArrayList<>();
+		if (last >= 0 && need > 0) {
+			int extent = at + EXTENTS + last * EXTENT_SIZE;
+			int next = cache[extent] + cache[extent + 1];
+			int length = freeRun(next, need);
+			if (length > 0) {
+				added.add(new int[] { next, length, last });
+				need -= length;
+			}
+		}
+		int free = last + 1;
+		while (need > 0) {
+			int[] run = findFree(need);
+			if (run == null || free == NUM_EXTENTS) {
+				for (int[] extent : added) {
+					for (int block = 0; block < extent[1]; block++) {
+						setUsed(extent[0] + block, false);
+					}
+				}
+				return false;
+			}
+			added.add(new int[] { run[0], run[1], free++ });
+			for (int block = 0; block < run[1]; block++) {
+				setUsed(run[0] + block, true);
+			}
+			need -= run[1];
+		}
+
+		for (int[] extent : added) {
+			int entry = at + EXTENTS + extent[2] * EXTENT_SIZE;
+			if (cache[entry + 1] == 0) {
+				cache[entry] = extent[0];
+			}
+			cache[entry + 1] += extent[1];
+			rotor = extent[0] + extent[1];
+		}
+		cache[at + SIZE] = size;
+		dirtyInode(number);
+		return true;
+	}
+
+	// claim up to length free blocks starting at block, returning how many
+
+	private int freeRun(int block, int length) {
+		int claimed = 0;
+		while (claimed < length && block + claimed < NUM_BLOCKS && !isUsed(block + claimed)) {
+			setUsed(block + claimed, true);
+			claimed++;
+		}
+		return claimed;
+	}
+
+	/*
+	 * The first free run of blocks at least length long, searching from the
+	 * last allocation and wrapping round, as {first block, length}; or failing
+	 * that the longest free run; or null if the disk is full.
+	 */
+
+	private int[] findFree(int length) {
+		int[] longest = null;
+		int block = rotor < NUM_BLOCKS ? rotor : DATA_BLOCK;
+		for (int scanned = 0; scanned < NUM_BLOCKS - DATA_BLOCK;) {
+			if (isUsed(block)) {
+				scanned++;
+				block = block + 1 < NUM_BLOCKS ? block + 1 : DATA_BLOCK;
+				continue;
+			}
+			int start = block;
+			int run = 0;
+			while (run < length && block < NUM_BLOCKS && !isUsed(block)) {
+				run++;
+				block++;
+			}
+			scanned += run;
+			if (run == length) {
+				return new int[] { start, run };
+			}
+			if (longest == null || run > longest[1]) {
+				longest = new int[] { start, run };
+			}
+			if (block == NUM_BLOCKS) {
+				block = DATA_BLOCK;
+			}
+		}
+		return longest;
+	}
+
+	private boolean isUsed(int block) {
+		return (cache[BITMAP_BLOCK * BLOCK_SIZE + block / 32] & (1 << (block % 32))) != 0;
+	}
+
+	private void setUsed(int block, boolean used) {
+		int word = BITMAP_BLOCK * BLOCK_SIZE + block / 32;
+		if (used) {
+			cache[word] |= 1 << (block % 32);
+		} else {
+			cache[word] &= ~(1 << (block % 32));
+		}
+		dirty[BITMAP_BLOCK] = true;
+	}
+
+	private static int inode(int number) {
+		return INODE_BLOCK * BLOCK_SIZE + number * INODE_SIZE;
+	}
+
+	private void dirtyInode(int number) {
+		dirty[inode(number) / BLOCK_SIZE] = true;
+		dirty[(inode(number) + INODE_SIZE - 1) / BLOCK_SIZE] = true;
+	}
+
+	/*
+	 * Pack up to four characters into a file name.
+	 */
+
+	public static int name(String name) {
+		int packed = 0;
+		for (int i = 0; i < Math.min(4, name.length()); i++) {
+			packed = (packed << 8) | (name.charAt(i) & 0xff);
+		}
+		return packed;
+	}
+}
@@ -0,0 +1,120 @@
+package s340.software.fs;
+
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Checks where the file system puts files' blocks as they grow, and the runs
+ * map reports for them, on a freshly formatted file system.
+ */
+
+public class FileSystemTest {
+
+	public static void main(String[] args) {
+		directory();
+		growInPlace();
+		extents();
+		limits();
+		System.out.println("FileSystemTest passed");
+	}
+
+	private static void directory() {
+		FileSystem fs = formatted();
+		check(fs.isFormatted(), "not formatted");
+		check(fs.lookup(FileSystem.name("a")) == -1, "found a file on an empty disk");
+		int a = fs.create(FileSystem.name("a"));
+		int b = fs.create(FileSystem.name("b"));
+		check(a == 1 && b == 2, "inodes " + a + ", " + b);
+		check(fs.lookup(FileSystem.name("a")) == a && fs.lookup(FileSystem.name("b")) == b, "lookup");
+		check(fs.size(a) == 0, "a new file is not empty");
+		for (int i = 3; i < FileSystem.NUM_INODES; i++) {
+			check(fs.create(i) == i, "inode " + i);
+		}
+		check(fs.create(100) == -1, "made a file with no inode free");
+	}
+
+	/*
+	 * A file written a bit at a time stays one run of blocks while the blocks
+	 * after it are free.
+	 */
+
+	private static void growInPlace() {
+		FileSystem fs = formatted();
+		int a = fs.create(FileSystem.name("a"));
+		int free = fs.freeBlocks();
+
+		// the directory took the first data block, so the file follows it
+		int first = (FileSystem.DATA_BLOCK + 1) * FileSystem.BLOCK_SIZE;
+		checkRuns(fs.map(a, 0, 25), new int[][] { { first, 25, 0 } }, "first write");
+		check(fs.size(a) == 25 && fs.freeBlocks() == free - 3, "size " + fs.size(a));
+
+		checkRuns(fs.map(a, 25, 10), new int[][] { { first + 25, 10, 0 } }, "append");
+		check(fs.size(a) == 35 && fs.freeBlocks() == free - 4, "size " + fs.size(a));
+
+		// reading inside the file allocates nothing
+		checkRuns(fs.map(a, 5, 20), new int[][] { { first + 5, 20, 0 } }, "read");
+		check(fs.size(a) == 35 && fs.freeBlocks() == free - 4, "a read grew the file");
+		check(fs.blocksToGrow(a, 41) == 1 && fs.blocksToGrow(a, 40) == 0, "blocks to grow");
+	}
+
+	/*
+	 * Once another file is in the way, growing starts a new extent, and a
+	 * file with every extent used cannot grow past its neighbours.
+	 */
+
+	private static void extents() {
+		FileSystem fs = formatted();
+		int a = fs.create(FileSystem.name("a"));
+		int b = fs.create(FileSystem.name("b"));
+		int base = FileSystem.DATA_BLOCK + 1;
+		int size = FileSystem.BLOCK_SIZE;
+
+		fs.map(a, 0, size);
+		fs.map(b, 0, size);
+		checkRuns(fs.map(a, size - 5, 10), new int[][] { { base * size + 5, 5, 0 }, { (base + 2) * size, 5, 5 } },
+				"second extent");
+		fs.map(b, size, size);
+		fs.map(a, 2 * size, size);
+		check(fs.size(a) == 3 * size, "size " + fs.size(a));
+		fs.map(b, 2 * size, size);
+
+		int free = fs.freeBlocks();
+		check(fs.map(a, 3 * size, 1) == null, "grew past three extents");
+		check(fs.size(a) == 3 * size && fs.freeBlocks() == free, "a failed grow kept its blocks");
+
+		fs.truncate(a);
+		check(fs.size(a) == 0 && fs.freeBlocks() == free + 3, "truncate freed " + (fs.freeBlocks() - free));
+		checkRuns(fs.map(a, 0, 3 * size), new int[][] { { (base + 6) * size, 3 * size, 0 } }, "after truncate");
+	}
+
+	private static void limits() {
+		FileSystem fs = formatted();
+		int a = fs.create(FileSystem.name("a"));
+		check(fs.map(a, -1, 1) == null && fs.map(a, 0, -1) == null, "bad offsets mapped");
+		check(fs.map(a, 0, FileSystem.MAX_FILE_SIZE + 1) == null, "mapped past the largest file");
+		check(fs.size(a) == 0, "a refused map grew the file");
+		List<int[]> runs = fs.map(a, 0, 0);
+		check(runs != null && runs.isEmpty(), "an empty map");
+	}
+
+	private static FileSystem formatted() {
+		FileSystem fs = new FileSystem();
+		fs.format();
+		return fs;
+	}
+
+	private static void checkRuns(List<int[]> runs, int[][] expected, String what) {
+		check(runs != null, what + " could not be mapped");
+		check(runs.size() == expected.length, what + " made " + runs.size() + " runs");
+		for (int i = 0; i < expected.length; i++) {
+			check(Arrays.equals(runs.get(i), expected[i]),
+					what + " run " + i + " is " + Arrays.toString(runs.get(i)));
+		}
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}
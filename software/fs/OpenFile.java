@@ -0,0 +1,39 @@
+package s340.software.fs;
+
+/*
+ * An entry in a process's open file table -- which file, and how far into it
+ * the next read or write starts.
+ */
+
+public class OpenFile {
+
+	private final int inode;
+	private int offset;
+
+	// where the last read on this file ended, to spot reads in order
+	private int readEnd = -1;
+
+	public OpenFile(int inode) {
+		this.inode = inode;
+	}
+
+	public int getInode() {
+		return inode;
+	}
+
+	public int getOffset() {
+		return offset;
+	}
+
+	public void setOffset(int offset) {
+		this.offset = offset;
+	}
+
+	public int getReadEnd() {
+		return readEnd;
+	}
+
+	public void setReadEnd(int readEnd) {
+		this.readEnd = readEnd;
+	}
+}
@@ -0,0 +1,10 @@
+package s340.software.log;
+
+/*
+ * The part of the operating system an event comes from. Each category is
+ * turned on and off by itself.
+ */
+
+public enum Category {
+	PROCESS, MEMORY, IO, DISK, FILE;
+}
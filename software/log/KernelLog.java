@@ -0,0 +1,303 @@
+package s340.software.log;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * The operating system's log, which keeps printing off the CPU thread.
+ *
+ * An event is a format string and up to three numbers, put in a ring of
+ * fixed slots without taking a lock or allocating anything. A background
+ * thread takes events out of the ring, formats them, and prints them. A
+ * caller with anything else to show builds the message itself, after asking
+ * isEnabled, so that nothing is built for a category that is off.
+ *
+ * Each slot carries a sequence number saying whose turn it is: the producer
+ * whose event goes there, or the drainer. When the ring is full, events are
+ * dropped and counted rather than holding the CPU up.
+ *
+ * Every category starts off, so nothing is printed, not even warnings,
+ * until something is enabled.
+ */
+
+public class KernelLog {
+
+	public static final int DEFAULT_CAPACITY = 1 << 14;
+
+	// how long the drainer sleeps when the ring is empty
+
+	private static final long IDLE_NANOS = 1_000_000;
+
+	// the most detailed level each category logs, or -1 for none. Replaced
+	// whole when it changes, so the CPU thread only reads it.
+
+	private volatile int[] thresholds = new int[Category.values().length];
+
+	// the slots, and whose turn each is
+
+	private final int mask;
+	private final AtomicLongArray sequence;
+	private final long[] times;
+	private final Level[] levels;
+	private final Category[] categories;
+	private final String[] formats;
+	private final int[] numArgs;
+	private final long[] args;
+
+	// the next event to be put in, and the next to be taken out
+
+	private final AtomicLong head = new AtomicLong();
+	private volatile long tail;
+
+	private final AtomicLong dropped = new AtomicLong();
+	private long droppedReported;
+
+	private final PrintStream out;
+	private final long startTime = System.nanoTime();
+	private final Thread drainer;
+	private volatile boolean closed;
+
+	public KernelLog(PrintStream out) {
+		this(out, DEFAULT_CAPACITY);
+	}
+
+	/*
+	 * @param out -- where events are printed.
+	 *
+	 * @param capacity -- the number of events the ring holds, a power of two.
+	 */
+
+	public KernelLog(PrintStream out, int capacity) {
+		if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("Bad log capacity : " + capacity);
+		}
+		this.out = out;
+		mask = capacity - 1;
+		sequence = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			sequence.set(i, i);
+		}
+		times = new long[capacity];
+		levels = new Level[capacity];
+		categories = new Category[capacity];
+		formats = new String[capacity];
+		numArgs = new int[capacity];
+		args = new long[capacity * 3];
+		Arrays.fill(thresholds, -1);
+
+		drainer = new Thread(this::drain, "s340-log");
+		drainer.setDaemon(true);
+		drainer.start();
+	}
+
+	/*
+	 * Log events in the category at the level given and above.
+	 */
+
+	public void enable(Category category, Level level) {
+		int[] changed = thresholds.clone();
+		changed[category.ordinal()] = level.ordinal();
+		thresholds = changed;
+	}
+
+	/*
+	 * Log nothing from the category, not even warnings.
+	 */
+
+	public void disable(Category category) {
+		int[] changed = thresholds.clone();
+		changed[category.ordinal()] = -1;
+		thresholds = changed;
+	}
+
+	/*
+	 * Set the levels from a list like "DEBUG" for every category, or
+	 * "MEMORY=DEBUG,IO=TRACE,DISK=OFF" for some of them.
+	 */
+
+	public void configure(String spec) {
+		for (String part : spec.split(",")) {
+			part = part.trim();
+			if (part.isEmpty()) {
+				continue;
+			}
+			int equals = part.indexOf('=');
+			String level = part.substring(equals + 1).trim().toUpperCase();
+			Category[] which = equals < 0 ? Category.values()
+					: new Category[] { Category.valueOf(part.substring(0, equals).trim().toUpperCase()) };
+			for (Category category : which) {
+				if (level.equals("OFF")) {
+					disable(category);
+				} else {
+					enable(category, Level.valueOf(level));
+				}
+			}
+		}
+	}
+
+	public boolean isEnabled(Level level, Category category) {
+		return level.ordinal() <= thresholds[category.ordinal()];
+	}
+
+	public void warn(Category category, String message) {
+		log(Level.WARN, category, message, 0, 0, 0, 0);
+	}
+
+	public void warn(Category category, String format, long a) {
+		log(Level.WARN, category, format, 1, a, 0, 0);
+	}
+
+	public void warn(Category category, String format, long a, long b) {
+		log(Level.WARN, category, format, 2, a, b, 0);
+	}
+
+	public void info(Category category, String message) {
+		log(Level.INFO, category, message, 0, 0, 0, 0);
+	}
+
+	public void info(Category category, String format, long a) {
+		log(Level.INFO, category, format, 1, a, 0, 0);
+	}
+
+	public void debug(Category category, String message) {
+		log(Level.DEBUG, category, message, 0, 0, 0, 0);
+	}
+
+	public void debug(Category category, String format, long a) {
+		log(Level.DEBUG, category, format, 1, a, 0, 0);
+	}
+
+	public void debug(Category category, String format, long a, long b) {
+		log(Level.DEBUG, category, format, 2, a, b, 0);
+	}
+
+	public void debug(Category category, String format, long a, long b, long c) {
+		log(Level.DEBUG, category, format, 3, a, b, c);
+	}
+
+	public void trace(Category category, String message) {
+		log(Level.TRACE, category, message, 0, 0, 0, 0);
+	}
+
+	/*
+	 * Put an event in the ring. The format is only used with String.format if
+	 * there are numbers to go in it, so a message built by the caller is
+	 * printed as it is.
+	 */
+
+	private void log(Level level, Category category, String format, int n, long a, long b, long c) {
+		if (!isEnabled(level, category)) {
+			return;
+		}
+		long position;
+		int slot;
+		while (true) {
+			position = head.get();
+			slot = (int) position & mask;
+			long turn = sequence.get(slot);
+			if (turn < position) {
+				// the drainer has not got to this slot since it last went round
+				dropped.incrementAndGet();
+				return;
+			}
+			if (turn == position && head.compareAndSet(position, position + 1)) {
+				break;
+			}
+		}
+		times[slot] = System.nanoTime();
+		levels[slot] = level;
+		categories[slot] = category;
+		formats[slot] = format;
+		numArgs[slot] = n;
+		args[slot * 3] = a;
+		args[slot * 3 + 1] = b;
+		args[slot * 3 + 2] = c;
+		sequence.lazySet(slot, position + 1);
+	}
+
+	/*
+	 * Wait until every event logged so far has been printed.
+	 */
+
+	public void flush() {
+		long end = head.get();
+		while (tail < end && drainer.isAlive()) {
+			LockSupport.parkNanos(IDLE_NANOS);
+		}
+		out.flush();
+	}
+
+	/*
+	 * Print what is left and stop the drainer.
+	 */
+
+	public void close() {
+		closed = true;
+		LockSupport.unpark(drainer);
+		try {
+			drainer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		out.flush();
+	}
+
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	private void drain() {
+		StringBuilder line = new StringBuilder();
+		while (true) {
+			boolean stopping = closed;
+			if (!drainOnce(line)) {
+				if (stopping) {
+					return;
+				}
+				out.flush();
+				LockSupport.parkNanos(IDLE_NANOS);
+			}
+		}
+	}
+
+	// print every event in the ring, returning false if there were none
+
+	private boolean drainOnce(StringBuilder line) {
+		boolean any = false;
+		long position = tail;
+		while (true) {
+			int slot = (int) position & mask;
+			if (sequence.get(slot) != position + 1) {
+				break;
+			}
+			line.setLength(0);
+			long micros = (times[slot] - startTime) / 1000;
+			line.append(String.format("%d.%06d %-5s %-7s ", micros / 1_000_000, micros % 1_000_000, levels[slot],
+					categories[slot]));
+			if (numArgs[slot] == 0) {
+				line.append(formats[slot]);
+			} else {
+				line.append(String.format(formats[slot], args[slot * 3], args[slot * 3 + 1], args[slot * 3 + 2]));
+			}
+			formats[slot] = null;
+			out.println(line);
+			sequence.lazySet(slot, position + mask + 1);
+			tail = ++position;
+			any = true;
+		}
+		long lost = dropped.get();
+		if (lost != droppedReported) {
+			out.println("Log ring full, " + (lost - droppedReported) + " events dropped");
+			droppedReported = lost;
+		}
+		return any;
+	}
+
+	@Override
+	public String toString() {
+		return "logged=" + head.get() + ", dropped=" + dropped.get();
+	}
+}
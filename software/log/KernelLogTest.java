@@ -0,0 +1,145 @@
+package s340.software.log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/*
+ * Checks which events the kernel log prints and how, that events from many
+ * threads all come out, and that a full ring drops events and says so rather
+ * than waiting.
+ */
+
+public class KernelLogTest {
+
+	public static void main(String[] args) throws Exception {
+		levels();
+		threads();
+		full();
+		System.out.println("KernelLogTest passed");
+	}
+
+	private static void levels() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		KernelLog log = new KernelLog(new PrintStream(bytes, true));
+		log.warn(Category.DISK, "off");
+		check(!log.isEnabled(Level.WARN, Category.DISK), "warnings are on before anything was enabled");
+
+		log.configure("DEBUG, io=trace, FILE=off");
+		check(log.isEnabled(Level.DEBUG, Category.MEMORY) && !log.isEnabled(Level.TRACE, Category.MEMORY),
+				"MEMORY is not at DEBUG");
+		check(log.isEnabled(Level.TRACE, Category.IO), "IO is not at TRACE");
+		check(!log.isEnabled(Level.WARN, Category.FILE), "FILE is on");
+		log.trace(Category.MEMORY, "too detailed");
+		log.warn(Category.FILE, "turned off");
+		log.debug(Category.MEMORY, "Moved %d words to %d", 40, 1200);
+		log.trace(Category.IO, "100% as it is");
+		log.disable(Category.IO);
+		log.warn(Category.IO, "disabled");
+		log.enable(Category.FILE, Level.WARN);
+		log.warn(Category.FILE, "Process %d, file %d, offset %d", 3, 4);
+		log.close();
+
+		List<String> lines = lines(bytes);
+		check(lines.size() == 3, "printed " + lines);
+		check(lines.get(0).matches("\\d+\\.\\d{6} DEBUG MEMORY  Moved 40 words to 1200"), lines.get(0));
+		check(lines.get(1).endsWith(" TRACE IO      100% as it is"), lines.get(1));
+		check(lines.get(2).endsWith(" WARN  FILE    Process 3, file 4, offset 0"), lines.get(2));
+		check(log.toString().equals("logged=3, dropped=0"), log.toString());
+	}
+
+	/*
+	 * Several threads logging at once, into a ring big enough for them all.
+	 */
+
+	private static void threads() throws InterruptedException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		KernelLog log = new KernelLog(new PrintStream(bytes, true), 1 << 14);
+		log.configure("INFO");
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			int id = t;
+			threads[t] = new Thread(() -> {
+				for (int i = 0; i < 2000; i++) {
+					log.info(Category.PROCESS, "thread " + id + " event %d", i);
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		log.flush();
+
+		// each thread's events come out in the order it logged them
+		int[] next = new int[threads.length];
+		for (String line : lines(bytes)) {
+			String[] words = line.split(" ");
+			int id = Integer.parseInt(words[words.length - 3]);
+			check(Integer.parseInt(words[words.length - 1]) == next[id]++, "out of order : " + line);
+		}
+		for (int t = 0; t < threads.length; t++) {
+			check(next[t] == 2000, "thread " + t + " printed " + next[t] + " events");
+		}
+		log.close();
+	}
+
+	/*
+	 * While the drainer is stuck printing the first event, a ring of four
+	 * takes three more and drops the rest.
+	 */
+
+	private static void full() throws InterruptedException {
+		CountDownLatch printing = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		OutputStream stuck = new OutputStream() {
+			@Override
+			public void write(int b) {
+				printing.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				bytes.write(b);
+			}
+		};
+		KernelLog log = new KernelLog(new PrintStream(stuck, true), 4);
+		log.configure("WARN");
+		log.warn(Category.DISK, "event %d", 0);
+		printing.await();
+		for (int i = 1; i < 10; i++) {
+			log.warn(Category.DISK, "event %d", i);
+		}
+		check(log.getDropped() == 6, "dropped " + log.getDropped());
+		release.countDown();
+		log.close();
+
+		List<String> lines = lines(bytes);
+		check(lines.size() == 5, "printed " + lines);
+		for (int i = 0; i < 4; i++) {
+			check(lines.get(i).endsWith("event " + i), lines.get(i));
+		}
+		check(lines.get(4).equals("Log ring full, 6 events dropped"), lines.get(4));
+	}
+
+	private static List<String> lines(ByteArrayOutputStream bytes) {
+		List<String> lines = new ArrayList<>();
+		for (String line : bytes.toString().split("\n")) {
+			if (!line.isEmpty()) {
+				lines.add(line);
+			}
+		}
+		return lines;
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}
@@ -0,0 +1,10 @@
+package s340.software.log;
+
+/*
+ * How much an event matters, most important first. A category logs the
+ * events at or above the level it is set to.
+ */
+
+public enum Level {
+	WARN, INFO, DEBUG, TRACE;
+}
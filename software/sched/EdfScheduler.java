@@ -0,0 +1,214 @@
+package s340.software.sched;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.TreeSet;
+import java.util.function.LongSupplier;
+
+import s340.software.ProcessControlBlock;
+
+/*
+ * Earliest deadline first, for real-time processes.
+ *
+ * A real-time process reserves a budget of instructions in every period of
+ * its own choosing, and its deadline is the end of the current period. Of the
+ * processes with budget left, the one whose deadline is soonest runs. One
+ * that has used its budget, or says it is done for this period, is held until
+ * its next period starts. Reservations are only granted while the total
+ * utilization -- the sum of budget over period -- stays within
+ * maxUtilization, and up to 1 EDF meets every deadline.
+ *
+ * A deadline is missed when the period ends with budget still unused, which
+ * happens when the process was blocked, or when the real-time load was more
+ * than the CPU could give it.
+ *
+ * The operating system asks this class first and only runs best-effort
+ * processes when it has nothing, with their quantum cut short to the next
+ * release so that real-time processes are not held up.
+ */
+
+public class EdfScheduler implements ProcessScheduler {
+
+	private static final Comparator<ProcessControlBlock> BY_DEADLINE = Comparator
+			.comparingLong(ProcessControlBlock::getDeadline).thenComparingInt(ProcessControlBlock::getPid);
+
+	// processes with budget left, and processes waiting for their next period,
+	// which starts at their current deadline
+
+	private final TreeSet<ProcessControlBlock> ready = new TreeSet<>(BY_DEADLINE);
+	private final TreeSet<ProcessControlBlock> throttled = new TreeSet<>(BY_DEADLINE);
+
+	private final LongSupplier clock;
+	private final double maxUtilization;
+	private double utilization;
+
+	// reservations granted and refused, periods ended and deadlines missed
+
+	private long admitted;
+	private long rejected;
+	private long periods;
+	private long misses;
+
+	/*
+	 * @param maxUtilization -- the share of the CPU real-time processes may
+	 * reserve between them, at most 1.
+	 *
+	 * @param clock -- the time, in instructions.
+	 */
+
+	public EdfScheduler(double maxUtilization, LongSupplier clock) {
+		if (maxUtilization <= 0 || maxUtilization > 1) {
+			throw new IllegalArgumentException("Bad utilization : " + maxUtilization);
+		}
+		this.maxUtilization = maxUtilization;
+		this.clock = clock;
+	}
+
+	/*
+	 * Make a process real-time, with its first period starting now. It must
+	 * not be queued.
+	 *
+	 * @return false if the reservation does not fit, in which case nothing
+	 * changes.
+	 */
+
+	public boolean admit(ProcessControlBlock pcb, long period, long budget) {
+		if (period <= 0 || budget <= 0 || budget > period) {
+			rejected++;
+			return false;
+		}
+		double share = (double) budget / period;
+		double others = pcb.isRealTime() ? utilization - (double) pcb.getBudget() / pcb.getPeriod() : utilization;
+		if (others + share > maxUtilization) {
+			rejected++;
+			return false;
+		}
+		utilization = others + share;
+		pcb.setReservation(period, budget);
+		pcb.setDeadline(clock.getAsLong() + period);
+		pcb.setRuntime(budget);
+		admitted++;
+		return true;
+	}
+
+	/*
+	 * Give up a process's reservation. It must not be queued.
+	 */
+
+	public void leave(ProcessControlBlock pcb) {
+		if (!pcb.isRealTime()) {
+			return;
+		}
+		utilization -= (double) pcb.getBudget() / pcb.getPeriod();
+		pcb.setReservation(0, 0);
+	}
+
+	/*
+	 * The process has done its work for this period; hold it until the next.
+	 */
+
+	public void periodDone(ProcessControlBlock pcb) {
+		pcb.setRuntime(0);
+	}
+
+	@Override
+	public void ready(ProcessControlBlock pcb, Reason reason) {
+		catchUp(pcb, clock.getAsLong());
+		if (pcb.getRuntime() > 0) {
+			ready.add(pcb);
+		} else {
+			throttled.add(pcb);
+		}
+	}
+
+	/*
+	 * Move a process whose deadline has passed on to the period it is in now,
+	 * with a full budget.
+	 */
+
+	private void catchUp(ProcessControlBlock pcb, long now) {
+		if (now < pcb.getDeadline()) {
+			return;
+		}
+		if (pcb.getRuntime() > 0) {
+			pcb.missedDeadline();
+			misses++;
+		}
+		long ended = (now - pcb.getDeadline()) / pcb.getPeriod() + 1;
+		periods += ended;
+		pcb.setDeadline(pcb.getDeadline() + ended * pcb.getPeriod());
+		pcb.setRuntime(pcb.getBudget());
+	}
+
+	@Override
+	public ProcessControlBlock next() {
+		long now = clock.getAsLong();
+		while (!throttled.isEmpty() && throttled.first().getDeadline() <= now) {
+			ProcessControlBlock pcb = throttled.pollFirst();
+			catchUp(pcb, now);
+			ready.add(pcb);
+		}
+		while (!ready.isEmpty() && ready.first().getDeadline() <= now) {
+			ProcessControlBlock pcb = ready.pollFirst();
+			catchUp(pcb, now);
+			ready.add(pcb);
+		}
+		return ready.pollFirst();
+	}
+
+	/*
+	 * A real-time process runs until its budget is gone or the next period
+	 * starts for someone, whichever is sooner.
+	 */
+
+	@Override
+	public int quantum(ProcessControlBlock pcb) {
+		long quantum = Math.min(pcb.getRuntime(), untilNextRelease());
+		return (int) Math.max(1, Math.min(quantum, Integer.MAX_VALUE));
+	}
+
+	/*
+	 * Instructions until a held process gets its next period, or
+	 * Long.MAX_VALUE if none is held.
+	 */
+
+	public long untilNextRelease() {
+		if (throttled.isEmpty()) {
+			return Long.MAX_VALUE;
+		}
+		return Math.max(1, throttled.first().getDeadline() - clock.getAsLong());
+	}
+
+	@Override
+	public void charge(ProcessControlBlock pcb, long instructions) {
+		pcb.setRuntime(Math.max(0, pcb.getRuntime() - instructions));
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return ready.isEmpty() && throttled.isEmpty();
+	}
+
+	@Override
+	public int size() {
+		return ready.size() + throttled.size();
+	}
+
+	@Override
+	public Collection<ProcessControlBlock> pending() {
+		Collection<ProcessControlBlock> pending = new ArrayList<>(ready);
+		pending.addAll(throttled);
+		return pending;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("EDF utilization=%.2f, admitted=%d, rejected=%d, periods=%d, misses=%d", utilization,
+				admitted, rejected, periods, misses);
+	}
+}
@@ -0,0 +1,127 @@
+package s340.software.sched;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.TreeSet;
+
+import s340.software.ProcessControlBlock;
+
+/*
+ * A fair share scheduler in the style of Linux's CFS.
+ *
+ * Each process has a virtual runtime: the instructions it has run, scaled by
+ * NICE_0_WEIGHT over its weight, in 1/65536ths of an instruction so that
+ * heavy processes still move forward. Its weight comes from its nice value, each
+ * step of nice being worth about 25% more or less CPU. The ready processes
+ * are kept in a tree ordered by virtual runtime and the one that has had the
+ * least runs next, so over time each gets CPU in proportion to its weight.
+ *
+ * A process's slice is its share of targetLatency, by weight, but never less
+ * than minGranularity. New and woken processes start no further behind than
+ * the smallest virtual runtime in the queue, so a process that was away
+ * cannot then hog the CPU to catch up.
+ *
+ * Queueing and picking a process are O(log n).
+ */
+
+public class FairScheduler implements ProcessScheduler {
+
+	// the weight of nice 0, and of each nice value from MIN_NICE to MAX_NICE
+
+	public static final int NICE_0_WEIGHT = 1024;
+	private static final int VRUNTIME_SHIFT = 16;
+	private static final int[] WEIGHTS = {
+			/* -20 */ 88761, 71755, 56483, 46273, 36291,
+			/* -15 */ 29154, 23254, 18705, 14949, 11916,
+			/* -10 */ 9548, 7620, 6100, 4904, 3906,
+			/* -5 */ 3121, 2501, 1991, 1586, 1277,
+			/* 0 */ 1024, 820, 655, 526, 423,
+			/* 5 */ 335, 272, 215, 172, 137,
+			/* 10 */ 110, 87, 70, 56, 45,
+			/* 15 */ 36, 29, 23, 18, 15 };
+
+	private final TreeSet<ProcessControlBlock> queue = new TreeSet<>(
+			Comparator.comparingLong(ProcessControlBlock::getVruntime).thenComparingInt(ProcessControlBlock::getPid));
+
+	// the total weight of the queued processes
+
+	private long queueWeight;
+
+	// the smallest virtual runtime seen; it only goes up
+
+	private long minVruntime;
+
+	private final int targetLatency;
+	private final int minGranularity;
+
+	/*
+	 * @param targetLatency -- the instructions in which every ready process
+	 * should get to run once.
+	 *
+	 * @param minGranularity -- the shortest slice any process gets.
+	 */
+
+	public FairScheduler(int targetLatency, int minGranularity) {
+		if (minGranularity <= 0 || targetLatency < minGranularity) {
+			throw new IllegalArgumentException("Bad latency : " + targetLatency + ", " + minGranularity);
+		}
+		this.targetLatency = targetLatency;
+		this.minGranularity = minGranularity;
+	}
+
+	public static int weight(int nice) {
+		return WEIGHTS[nice - ProcessControlBlock.MIN_NICE];
+	}
+
+	@Override
+	public void ready(ProcessControlBlock pcb, Reason reason) {
+		if (reason == Reason.NEW || reason == Reason.WOKEN) {
+			pcb.setVruntime(Math.max(pcb.getVruntime(), minVruntime));
+		}
+		queue.add(pcb);
+		queueWeight += weight(pcb.getNice());
+	}
+
+	@Override
+	public ProcessControlBlock next() {
+		ProcessControlBlock pcb = queue.pollFirst();
+		if (pcb != null) {
+			queueWeight -= weight(pcb.getNice());
+			minVruntime = Math.max(minVruntime, pcb.getVruntime());
+		}
+		return pcb;
+	}
+
+	@Override
+	public int quantum(ProcessControlBlock pcb) {
+		long weight = weight(pcb.getNice());
+		long slice = targetLatency * weight / (queueWeight + weight);
+		return (int) Math.max(slice, minGranularity);
+	}
+
+	@Override
+	public void charge(ProcessControlBlock pcb, long instructions) {
+		pcb.setVruntime(pcb.getVruntime() + (instructions << VRUNTIME_SHIFT) * NICE_0_WEIGHT / weight(pcb.getNice()));
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return queue.isEmpty();
+	}
+
+	@Override
+	public int size() {
+		return queue.size();
+	}
+
+	@Override
+	public Collection<ProcessControlBlock> pending() {
+		return new ArrayList<>(queue);
+	}
+
+	@Override
+	public String toString() {
+		return "CFS minVruntime=" + minVruntime;
+	}
+}
@@ -0,0 +1,183 @@
+package s340.software.sched;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.function.LongSupplier;
+
+import s340.software.ProcessControlBlock;
+
+/*
+ * A multi-level feedback queue.
+ *
+ * There is a ready queue per priority level, level 0 being the highest, and
+ * each level has its own quantum, longer further down. A process starts at
+ * level 0. Using its whole quantum moves it down a level, so CPU hogs sink
+ * to long, rarely run slices; waking up from I/O moves it up a level, so
+ * interactive processes get the CPU back quickly. Every boostInterval ticks
+ * of the clock everyone goes back to level 0, so nothing at the bottom
+ * starves and a process that changes its ways is not stuck where it sank.
+ *
+ * A bit per level records which queues are non-empty, so the next process is
+ * found in O(1) whatever the number of processes.
+ */
+
+public class MlfqScheduler implements ProcessScheduler {
+
+	public static final int MAX_LEVELS = Integer.SIZE;
+
+	private final ArrayDeque<ProcessControlBlock>[] queues;
+	private final int[] quanta;
+	private int nonEmpty;
+	private int size;
+
+	// when everyone was last moved back to level 0, and how often that happens
+
+	private final LongSupplier clock;
+	private final long boostInterval;
+	private long lastBoost;
+
+	// processes moved down and back up, and boosts that moved anyone
+
+	private long demotions;
+	private long promotions;
+	private long boosts;
+
+	/*
+	 * @param quanta -- the quantum for each level, highest priority first.
+	 *
+	 * @param boostInterval -- how many ticks of the clock between boosts.
+	 *
+	 * @param clock -- the time, in any unit that only goes up.
+	 */
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public MlfqScheduler(int[] quanta, long boostInterval, LongSupplier clock) {
+		if (quanta.length == 0 || quanta.length > MAX_LEVELS) {
+			throw new IllegalArgumentException("Bad number of levels : " + quanta.length);
+		}
+		for (int quantum : quanta) {
+			if (quantum <= 0) {
+				throw new IllegalArgumentException("Bad quantum : " + quantum);
+			}
+		}
+		if (boostInterval <= 0) {
+			throw new IllegalArgumentException("Bad boost interval : " + boostInterval);
+		}
+		this.quanta = quanta.clone();
+		this.boostInterval = boostInterval;
+		this.clock = clock;
+		this.lastBoost = clock.getAsLong();
+		queues = new ArrayDeque[quanta.length];
+		for (int i = 0; i < queues.length; i++) {
+			queues[i] = new ArrayDeque<>();
+		}
+	}
+
+	@Override
+	public void ready(ProcessControlBlock pcb, Reason reason) {
+		int level = pcb.getPriority();
+		if (pcb.getPriorityTime() < lastBoost) {
+			// it was blocked through a boost
+			level = 0;
+		}
+		switch (reason) {
+		case NEW:
+			level = 0;
+			break;
+		case PREEMPTED:
+			if (level < quanta.length - 1) {
+				level++;
+				demotions++;
+			}
+			break;
+		case WOKEN:
+			if (level > 0) {
+				level--;
+				promotions++;
+			}
+			break;
+		case YIELDED:
+			break;
+		}
+		enqueue(pcb, level);
+	}
+
+	private void enqueue(ProcessControlBlock pcb, int level) {
+		pcb.setPriority(level, clock.getAsLong());
+		queues[level].addLast(pcb);
+		nonEmpty |= 1 << level;
+		size++;
+	}
+
+	@Override
+	public ProcessControlBlock next() {
+		if (clock.getAsLong() - lastBoost >= boostInterval) {
+			boost();
+		}
+		if (nonEmpty == 0) {
+			return null;
+		}
+		int level = Integer.numberOfTrailingZeros(nonEmpty);
+		ProcessControlBlock pcb = queues[level].pollFirst();
+		if (queues[level].isEmpty()) {
+			nonEmpty &= ~(1 << level);
+		}
+		size--;
+		return pcb;
+	}
+
+	/*
+	 * Move every waiting process back to level 0. Processes that are blocked
+	 * or running are moved when they are next queued.
+	 */
+
+	private void boost() {
+		lastBoost = clock.getAsLong();
+		if ((nonEmpty & ~1) != 0) {
+			boosts++;
+		}
+		for (int level = 1; level < queues.length; level++) {
+			while (!queues[level].isEmpty()) {
+				ProcessControlBlock pcb = queues[level].pollFirst();
+				pcb.setPriority(0, lastBoost);
+				queues[0].addLast(pcb);
+			}
+		}
+		nonEmpty = queues[0].isEmpty() ? 0 : 1;
+	}
+
+	@Override
+	public int quantum(ProcessControlBlock pcb) {
+		return quanta[pcb.getPriority()];
+	}
+
+	@Override
+	public void charge(ProcessControlBlock pcb, long instructions) {
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Collection<ProcessControlBlock> pending() {
+		Collection<ProcessControlBlock> pending = new ArrayList<>(size);
+		for (ArrayDeque<ProcessControlBlock> queue : queues) {
+			pending.addAll(queue);
+		}
+		return pending;
+	}
+
+	@Override
+	public String toString() {
+		return "MLFQ levels=" + quanta.length + ", demotions=" + demotions + ", promotions=" + promotions + ", boosts="
+				+ boosts;
+	}
+}
@@ -0,0 +1,106 @@
+package s340.software.sched;
+
+import s340.software.ProcessControlBlock;
+import s340.software.sched.ProcessScheduler.Reason;
+
+/*
+ * Checks the order the multi-level feedback queue runs processes in, and how
+ * they move between levels, on a clock the test moves by hand.
+ */
+
+public class MlfqSchedulerTest {
+
+	private static final int[] QUANTA = { 10, 20, 40 };
+	private static final long BOOST_INTERVAL = 100;
+
+	private static long now;
+
+	public static void main(String[] args) {
+		levels();
+		boost();
+		System.out.println("MlfqSchedulerTest passed");
+	}
+
+	/*
+	 * A whole quantum moves a process down, a slice ended early leaves it
+	 * where it is, and waking moves it up. Higher levels always go first.
+	 */
+
+	private static void levels() {
+		now = 0;
+		MlfqScheduler scheduler = new MlfqScheduler(QUANTA, BOOST_INTERVAL, () -> now);
+		ProcessControlBlock a = new ProcessControlBlock(0);
+		ProcessControlBlock b = new ProcessControlBlock(1);
+		ProcessControlBlock c = new ProcessControlBlock(2);
+		scheduler.ready(a, Reason.NEW);
+		scheduler.ready(b, Reason.NEW);
+		scheduler.ready(c, Reason.NEW);
+
+		check(scheduler.next() == a, "a runs first");
+		check(scheduler.quantum(a) == 10, "level 0 quantum " + scheduler.quantum(a));
+		scheduler.ready(a, Reason.PREEMPTED);
+		check(a.getPriority() == 1, "a used its quantum but is at level " + a.getPriority());
+
+		check(scheduler.next() == b, "b runs before a, which moved down");
+		scheduler.ready(b, Reason.YIELDED);
+		check(b.getPriority() == 0, "b stopped early but is at level " + b.getPriority());
+
+		check(scheduler.next() == c, "c runs next at level 0");
+		scheduler.ready(c, Reason.PREEMPTED);
+		check(scheduler.next() == b, "b is still at level 0");
+		scheduler.ready(b, Reason.PREEMPTED);
+
+		check(scheduler.next() == a, "level 1 runs in the order it was queued");
+		check(scheduler.quantum(a) == 20, "level 1 quantum " + scheduler.quantum(a));
+		scheduler.ready(a, Reason.PREEMPTED);
+		check(scheduler.next() == c, "c runs after a at level 1");
+		scheduler.ready(c, Reason.PREEMPTED);
+		check(c.getPriority() == 2, "c used its quantum but is at level " + c.getPriority());
+
+		ProcessControlBlock woken = scheduler.next();
+		check(woken == b, "b is the last at level 1");
+		scheduler.ready(b, Reason.WOKEN);
+		check(b.getPriority() == 0, "b woke up to level " + b.getPriority());
+		check(scheduler.next() == b, "b runs first after waking");
+
+		// nothing goes below the bottom level
+		ProcessControlBlock bottom = scheduler.next();
+		check(bottom.getPriority() == 2, "level 2 left, not " + bottom.getPriority());
+		scheduler.ready(bottom, Reason.PREEMPTED);
+		check(bottom.getPriority() == 2, "moved below the bottom level");
+		check(scheduler.size() == 2, "size " + scheduler.size());
+	}
+
+	/*
+	 * Every boost interval, queued processes go back to level 0, and a
+	 * process that was off the queues through the boost comes back at level
+	 * 0 too.
+	 */
+
+	private static void boost() {
+		now = 0;
+		MlfqScheduler scheduler = new MlfqScheduler(QUANTA, BOOST_INTERVAL, () -> now);
+		ProcessControlBlock a = new ProcessControlBlock(0);
+		ProcessControlBlock b = new ProcessControlBlock(1);
+		scheduler.ready(a, Reason.NEW);
+		scheduler.ready(b, Reason.NEW);
+		scheduler.ready(scheduler.next(), Reason.PREEMPTED);
+		scheduler.ready(scheduler.next(), Reason.PREEMPTED);
+		ProcessControlBlock blocked = scheduler.next();
+		check(blocked == a && a.getPriority() == 1, "a runs first at level 1");
+
+		now = BOOST_INTERVAL;
+		check(scheduler.next() == b, "b is queued through the boost");
+		check(b.getPriority() == 0, "b was boosted to level " + b.getPriority());
+		scheduler.ready(a, Reason.PREEMPTED);
+		// back to level 0 for the boost, then down one for its quantum
+		check(a.getPriority() == 1, "a was blocked through the boost and is at level " + a.getPriority());
+		check(scheduler.toString().contains("boosts=1"), scheduler.toString());
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}
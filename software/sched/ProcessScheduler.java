@@ -0,0 +1,66 @@
+package s340.software.sched;
+
+import java.util.Collection;
+
+import s340.software.ProcessControlBlock;
+
+/*
+ * A CPU scheduling policy. It holds the processes that are ready to run and
+ * decides which of them runs next, and for how long.
+ */
+
+public interface ProcessScheduler {
+
+	/*
+	 * Why a process became ready.
+	 */
+
+	enum Reason {
+		// it was just loaded
+		NEW,
+		// it used up its quantum
+		PREEMPTED,
+		// it stopped before its quantum was up, without blocking -- by a
+		// system call, or to make way for a real-time process
+		YIELDED,
+		// the I/O it was waiting for finished
+		WOKEN
+	}
+
+	/*
+	 * Queue a process that is ready to run.
+	 */
+
+	void ready(ProcessControlBlock pcb, Reason reason);
+
+	/*
+	 * Remove and return the process that should run next, or null if nothing
+	 * is ready.
+	 */
+
+	ProcessControlBlock next();
+
+	/*
+	 * How many instructions the given process may run before it is
+	 * preempted.
+	 */
+
+	int quantum(ProcessControlBlock pcb);
+
+	/*
+	 * Account for instructions the process has just run. Called while it is
+	 * off the ready queue.
+	 */
+
+	void charge(ProcessControlBlock pcb, long instructions);
+
+	boolean isEmpty();
+
+	int size();
+
+	/*
+	 * The processes still waiting to run, in no particular order.
+	 */
+
+	Collection<ProcessControlBlock> pending();
+}
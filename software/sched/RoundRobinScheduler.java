@@ -0,0 +1,64 @@
+package s340.software.sched;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+
+import s340.software.ProcessControlBlock;
+
+/*
+ * Round robin -- one ready queue, in arrival order, and the same quantum for
+ * everyone.
+ */
+
+public class RoundRobinScheduler implements ProcessScheduler {
+
+	private final ArrayDeque<ProcessControlBlock> queue = new ArrayDeque<>();
+	private final int quantum;
+
+	public RoundRobinScheduler(int quantum) {
+		if (quantum <= 0) {
+			throw new IllegalArgumentException("Bad quantum : " + quantum);
+		}
+		this.quantum = quantum;
+	}
+
+	@Override
+	public void ready(ProcessControlBlock pcb, Reason reason) {
+		queue.addLast(pcb);
+	}
+
+	@Override
+	public ProcessControlBlock next() {
+		return queue.pollFirst();
+	}
+
+	@Override
+	public int quantum(ProcessControlBlock pcb) {
+		return quantum;
+	}
+
+	@Override
+	public void charge(ProcessControlBlock pcb, long instructions) {
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return queue.isEmpty();
+	}
+
+	@Override
+	public int size() {
+		return queue.size();
+	}
+
+	@Override
+	public Collection<ProcessControlBlock> pending() {
+		return new ArrayList<>(queue);
+	}
+
+	@Override
+	public String toString() {
+		return "RR quantum=" + quantum;
+	}
+}
@@ -0,0 +1,76 @@
+package s340.software.stats;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import s340.software.IORequest;
+import s340.software.LatencyHistogram;
+
+/*
+ * Counters for one device. The operating system updates them as it queues
+ * and completes requests, and JMX reads them from its own threads, so they
+ * are all atomic.
+ */
+
+public class DeviceStats implements DeviceStatsMXBean {
+
+	private final AtomicInteger queueDepth = new AtomicInteger();
+	private final AtomicInteger maxQueueDepth = new AtomicInteger();
+	private final LongAdder completed = new LongAdder();
+	private final LatencyHistogram serviceTime = new LatencyHistogram();
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	/*
+	 * A request has been queued on the device.
+	 */
+
+	public void submitted() {
+		int depth = queueDepth.incrementAndGet();
+		maxQueueDepth.accumulateAndGet(depth, Math::max);
+	}
+
+	/*
+	 * A request queued on the device has finished.
+	 */
+
+	public void completed(IORequest request) {
+		long now = System.nanoTime();
+		queueDepth.decrementAndGet();
+		completed.increment();
+		if (request.getStartTime() != 0) {
+			serviceTime.record(now - request.getStartTime());
+		}
+		latency.record(now - request.getSubmitTime());
+	}
+
+	@Override
+	public int getQueueDepth() {
+		return queueDepth.get();
+	}
+
+	@Override
+	public int getMaxQueueDepth() {
+		return maxQueueDepth.get();
+	}
+
+	@Override
+	public long getCompleted() {
+		return completed.sum();
+	}
+
+	@Override
+	public HistogramSnapshot getServiceTime() {
+		return HistogramSnapshot.of(serviceTime);
+	}
+
+	@Override
+	public HistogramSnapshot getLatency() {
+		return HistogramSnapshot.of(latency);
+	}
+
+	@Override
+	public String toString() {
+		return "depth=" + queueDepth.get() + "/" + maxQueueDepth.get() + ", service " + serviceTime + ", latency "
+				+ latency;
+	}
+}
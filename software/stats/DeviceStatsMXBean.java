@@ -0,0 +1,24 @@
+package s340.software.stats;
+
+/*
+ * What a device shows through JMX. Times are in microseconds.
+ */
+
+public interface DeviceStatsMXBean {
+
+	// requests waiting or being served, now and at most
+
+	int getQueueDepth();
+
+	int getMaxQueueDepth();
+
+	long getCompleted();
+
+	// from the device starting a request to it finishing
+
+	HistogramSnapshot getServiceTime();
+
+	// from a request being submitted to it finishing
+
+	HistogramSnapshot getLatency();
+}
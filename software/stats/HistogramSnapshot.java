@@ -0,0 +1,59 @@
+package s340.software.stats;
+
+import java.beans.ConstructorProperties;
+
+import s340.software.LatencyHistogram;
+
+/*
+ * A latency histogram as JMX shows it, in microseconds.
+ */
+
+public class HistogramSnapshot {
+
+	private final long count;
+	private final long mean;
+	private final long p50;
+	private final long p90;
+	private final long p99;
+	private final long max;
+
+	@ConstructorProperties({ "count", "mean", "p50", "p90", "p99", "max" })
+	public HistogramSnapshot(long count, long mean, long p50, long p90, long p99, long max) {
+		this.count = count;
+		this.mean = mean;
+		this.p50 = p50;
+		this.p90 = p90;
+		this.p99 = p99;
+		this.max = max;
+	}
+
+	public static HistogramSnapshot of(LatencyHistogram histogram) {
+		return new HistogramSnapshot(histogram.getCount(), histogram.getMean() / 1000,
+				histogram.percentile(50) / 1000, histogram.percentile(90) / 1000, histogram.percentile(99) / 1000,
+				histogram.getMax() / 1000);
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getMean() {
+		return mean;
+	}
+
+	public long getP50() {
+		return p50;
+	}
+
+	public long getP90() {
+		return p90;
+	}
+
+	public long getP99() {
+		return p99;
+	}
+
+	public long getMax() {
+		return max;
+	}
+}
@@ -0,0 +1,87 @@
+package s340.software.stats;
+
+import java.beans.ConstructorProperties;
+
+import s340.software.ProcessControlBlock;
+import s340.software.ProcessState;
+
+/*
+ * A process as JMX shows it. Times are in microseconds.
+ */
+
+public class ProcessInfo {
+
+	private final int pid;
+	private final String status;
+	private final int nice;
+	private final long instructions;
+	private final long age;
+	private final long readyTime;
+	private final long runningTime;
+	private final long waitingTime;
+	private final long responseTime;
+
+	@ConstructorProperties({ "pid", "status", "nice", "instructions", "age", "readyTime", "runningTime",
+			"waitingTime", "responseTime" })
+	public ProcessInfo(int pid, String status, int nice, long instructions, long age, long readyTime,
+			long runningTime, long waitingTime, long responseTime) {
+		this.pid = pid;
+		this.status = status;
+		this.nice = nice;
+		this.instructions = instructions;
+		this.age = age;
+		this.readyTime = readyTime;
+		this.runningTime = runningTime;
+		this.waitingTime = waitingTime;
+		this.responseTime = responseTime;
+	}
+
+	public static ProcessInfo of(ProcessControlBlock pcb) {
+		long now = System.nanoTime();
+		return new ProcessInfo(pcb.getPid(), String.valueOf(pcb.getStatus()), pcb.getNice(), pcb.getCpuTime(),
+				(now - pcb.getCreateTime()) / 1000, pcb.getStateTime(ProcessState.READY, now) / 1000,
+				pcb.getStateTime(ProcessState.RUNNING, now) / 1000, pcb.getStateTime(ProcessState.WAITING, now) / 1000,
+				pcb.getResponseTime() / 1000);
+	}
+
+	public int getPid() {
+		return pid;
+	}
+
+	public String getStatus() {
+		return status;
+	}
+
+	public int getNice() {
+		return nice;
+	}
+
+	public long getInstructions() {
+		return instructions;
+	}
+
+	public long getAge() {
+		return age;
+	}
+
+	public long getReadyTime() {
+		return readyTime;
+	}
+
+	public long getRunningTime() {
+		return runningTime;
+	}
+
+	public long getWaitingTime() {
+		return waitingTime;
+	}
+
+	/*
+	 * From the process being created to it first running, or -1 if it has
+	 * not run yet.
+	 */
+
+	public long getResponseTime() {
+		return responseTime;
+	}
+}
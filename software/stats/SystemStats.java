@@ -0,0 +1,183 @@
+package s340.software.stats;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import s340.software.LatencyHistogram;
+import s340.software.ProcessControlBlock;
+import s340.software.ProcessState;
+
+/*
+ * Counters for the operating system as a whole. The operating system updates
+ * them on the CPU's thread and JMX reads them from its own, so they are
+ * adders and lock-free histograms rather than plain fields.
+ */
+
+public class SystemStats implements SystemStatsMXBean {
+
+	private final LongAdder contextSwitches = new LongAdder();
+	private final LongAdder skippedSwitches = new LongAdder();
+	private final LatencyHistogram switchCost = new LatencyHistogram();
+
+	private final LongAdder sbrkInPlace = new LongAdder();
+	private final LongAdder sbrkMoved = new LongAdder();
+	private final LongAdder sbrkCompacted = new LongAdder();
+	private final LongAdder sbrkFailed = new LongAdder();
+
+	private final LongAdder processesEnded = new LongAdder();
+	private final LongAdder instructions = new LongAdder();
+	private final LatencyHistogram turnaroundTime = new LatencyHistogram();
+	private final LatencyHistogram responseTime = new LatencyHistogram();
+	private final LongAdder[] stateTime = new LongAdder[ProcessState.values().length];
+
+	// the processes there are now, which the operating system supplies
+
+	private final Supplier<List<ProcessControlBlock>> processes;
+
+	public SystemStats(Supplier<List<ProcessControlBlock>> processes) {
+		this.processes = processes;
+		for (int i = 0; i < stateTime.length; i++) {
+			stateTime[i] = new LongAdder();
+		}
+	}
+
+	/*
+	 * A context switch took the given nanoseconds.
+	 */
+
+	public void switched(long nanos) {
+		contextSwitches.increment();
+		switchCost.record(nanos);
+	}
+
+	/*
+	 * The process that was running was picked to run again.
+	 */
+
+	public void skippedSwitch() {
+		skippedSwitches.increment();
+	}
+
+	public void sbrkInPlace() {
+		sbrkInPlace.increment();
+	}
+
+	public void sbrkMoved() {
+		sbrkMoved.increment();
+	}
+
+	public void sbrkCompacted() {
+		sbrkCompacted.increment();
+	}
+
+	public void sbrkFailed() {
+		sbrkFailed.increment();
+	}
+
+	/*
+	 * Add a process that has ended to the totals.
+	 */
+
+	public void ended(ProcessControlBlock pcb) {
+		long now = System.nanoTime();
+		processesEnded.increment();
+		instructions.add(pcb.getCpuTime());
+		turnaroundTime.record(now - pcb.getCreateTime());
+		if (pcb.getResponseTime() >= 0) {
+			responseTime.record(pcb.getResponseTime());
+		}
+		for (ProcessState state : ProcessState.values()) {
+			stateTime[state.ordinal()].add(pcb.getStateTime(state, now));
+		}
+	}
+
+	@Override
+	public long getContextSwitches() {
+		return contextSwitches.sum();
+	}
+
+	@Override
+	public long getSkippedSwitches() {
+		return skippedSwitches.sum();
+	}
+
+	@Override
+	public HistogramSnapshot getSwitchCost() {
+		return HistogramSnapshot.of(switchCost);
+	}
+
+	@Override
+	public long getSbrkInPlace() {
+		return sbrkInPlace.sum();
+	}
+
+	@Override
+	public long getSbrkMoved() {
+		return sbrkMoved.sum();
+	}
+
+	@Override
+	public long getSbrkCompacted() {
+		return sbrkCompacted.sum();
+	}
+
+	@Override
+	public long getSbrkFailed() {
+		return sbrkFailed.sum();
+	}
+
+	@Override
+	public long getProcessesEnded() {
+		return processesEnded.sum();
+	}
+
+	@Override
+	public long getInstructions() {
+		return instructions.sum();
+	}
+
+	@Override
+	public HistogramSnapshot getTurnaroundTime() {
+		return HistogramSnapshot.of(turnaroundTime);
+	}
+
+	@Override
+	public HistogramSnapshot getResponseTime() {
+		return HistogramSnapshot.of(responseTime);
+	}
+
+	@Override
+	public Map<String, Long> getStateTime() {
+		Map<String, Long> times = new LinkedHashMap<>();
+		for (ProcessState state : ProcessState.values()) {
+			times.put(state.name(), stateTime[state.ordinal()].sum() / 1000);
+		}
+		return times;
+	}
+
+	/*
+	 * A snapshot of the processes, read while the operating system goes on
+	 * changing them, so it may be a little out of date.
+	 */
+
+	@Override
+	public List<ProcessInfo> getProcesses() {
+		List<ProcessInfo> infos = new ArrayList<>();
+		for (ProcessControlBlock pcb : processes.get()) {
+			infos.add(ProcessInfo.of(pcb));
+		}
+		return infos;
+	}
+
+	@Override
+	public String toString() {
+		return "Context switches: " + contextSwitches.sum() + ", skipped=" + skippedSwitches.sum() + ", cost "
+				+ switchCost + "\nsbrk: in place=" + sbrkInPlace.sum() + ", moved=" + sbrkMoved.sum() + ", compacted="
+				+ sbrkCompacted.sum() + ", failed=" + sbrkFailed.sum() + "\nProcesses: ended=" + processesEnded.sum()
+				+ ", turnaround " + turnaroundTime + ", response " + responseTime;
+	}
+}
@@ -0,0 +1,45 @@
+package s340.software.stats;
+
+import java.util.List;
+import java.util.Map;
+
+/*
+ * What the operating system shows through JMX. Times are in microseconds,
+ * and CPU time in instructions.
+ */
+
+public interface SystemStatsMXBean {
+
+	long getContextSwitches();
+
+	long getSkippedSwitches();
+
+	HistogramSnapshot getSwitchCost();
+
+	// how sbrk calls went -- grown in place, moved, grown after compacting
+	// memory, or not grown
+
+	long getSbrkInPlace();
+
+	long getSbrkMoved();
+
+	long getSbrkCompacted();
+
+	long getSbrkFailed();
+
+	// over the processes that have ended
+
+	long getProcessesEnded();
+
+	long getInstructions();
+
+	HistogramSnapshot getTurnaroundTime();
+
+	HistogramSnapshot getResponseTime();
+
+	Map<String, Long> getStateTime();
+
+	// the processes there are now
+
+	List<ProcessInfo> getProcesses();
+}